@@ -0,0 +1,115 @@
+package org.apachelog;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+/**
+ * Synthetic log lines for the benchmarks. The same seed always gives the same lines.
+ */
+public enum ApacheLogCorpus {
+    /**
+     * The combined log format
+     */
+    COMBINED("%h %l %u %t \"%r\" %>s %b \"%{Referer}i\" \"%{User-Agent}i\""),
+
+    /**
+     * The syslog prefixed format used by the SimpleApacheLogIndexer example
+     */
+    SYSLOG("%syslog_ti %syslog_ws %syslog_n %{X-Forwarded-For}i %l %u %t %{Host}i \"%r\" %>s %b \"%{Referer}i\" \"%{User-Agent}i\" %D"),
+
+    /**
+     * The combined log format with escaped quotes in the request, referer and user agent
+     */
+    ESCAPED("%h %l %u %t \"%r\" %>s %b \"%{Referer}i\" \"%{User-Agent}i\"");
+
+    private static final String[] METHODS = {"GET", "GET", "GET", "POST", "HEAD"};
+    private static final String[] PATHS = {"/", "/images/promos/wm300x250_01.gif", "/store/product/12345", "/search",
+            "/css/main.css", "/js/app.min.js", "/favicon.ico", "/cart/add"};
+    private static final String[] AGENTS = {
+            "Mozilla/5.0 (Windows NT 6.1; WOW64) AppleWebKit/537.1 (KHTML, like Gecko) Chrome/21.0.1180.89 Safari/537.1",
+            "Mozilla/5.0 (Linux; U; Android 4.0.4; en-us; DROID RAZR Build/6.7.2-180_DHD-16_M4-31) AppleWebKit/534.30 (KHTML, like Gecko) Version/4.0 Mobile Safari/534.30",
+            "Mozilla/5.0 (compatible; Googlebot/2.1; +http://www.google.com/bot.html)",
+            "curl/7.24.0"};
+    private static final String[] REFERERS = {"-", "http://www.example.com/", "http://www.google.com/search?q=jackets"};
+    private static final int[] CODES = {200, 200, 200, 200, 304, 404, 500};
+
+    private final String format;
+
+    private ApacheLogCorpus(String format) {
+        this.format = format;
+    }
+
+    public String getFormat() {
+        return format;
+    }
+
+    /**
+     * @return a parser compiled for this corpus
+     */
+    public ApacheLogParser createParser(ApacheLogParser.Engine engine) throws ApacheLogParserException {
+        ApacheLogParser parser = new ApacheLogParser();
+        parser.setEngine(engine);
+        parser.parseFormat(format);
+        return parser;
+    }
+
+    public String[] lines(int count, long seed) {
+        Random random = new Random(seed);
+        SimpleDateFormat apacheFormat = new SimpleDateFormat("[dd/MMM/yyyy:HH:mm:ss Z]", Locale.ENGLISH);
+        SimpleDateFormat syslogFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssXXX", Locale.ENGLISH);
+        apacheFormat.setTimeZone(TimeZone.getTimeZone("America/Denver"));
+        syslogFormat.setTimeZone(TimeZone.getTimeZone("America/Denver"));
+        long time = 1347948000000L;
+        String[] lines = new String[count];
+
+        for (int i = 0; i < count; ++i) {
+            // a busy server logs many lines per second
+            time += random.nextInt(20);
+            Date date = new Date(time);
+            String ip = ip(random);
+            String request = pick(random, METHODS) + " " + pick(random, PATHS) + (random.nextInt(4) == 0 ? "?id=" + random.nextInt(100000) : "") + " HTTP/1.1";
+            String referer = pick(random, REFERERS);
+            String agent = pick(random, AGENTS);
+            if (this == ESCAPED) {
+                request = request.replace("?id=", "?q=\\\"jacket\\\"&id=");
+                referer = referer.equals("-") ? "-" : referer + "?title=\\\"sale\\\"";
+                agent = "\\\"" + agent + "\\\"";
+            }
+
+            StringBuilder line = new StringBuilder(256);
+            if (this == SYSLOG) {
+                line.append("/var/log/mywebserv/09/18/19/apache.log:").append(syslogFormat.format(date))
+                        .append(" mywebserv apache: ");
+                line.append(random.nextInt(3) == 0 ? ip(random) + ", " + ip : ip);
+            } else {
+                line.append(ip);
+            }
+            line.append(" - - ").append(apacheFormat.format(date)).append(' ');
+            if (this == SYSLOG) {
+                line.append("origin-www.example.com ");
+            }
+            line.append('"').append(request).append("\" ").append(pick(random, CODES)).append(' ')
+                    .append(random.nextInt(50000)).append(" \"").append(referer).append("\" \"").append(agent).append('"');
+            if (this == SYSLOG) {
+                line.append(' ').append(random.nextInt(200000));
+            }
+            lines[i] = line.toString();
+        }
+        return lines;
+    }
+
+    private static String ip(Random random) {
+        return random.nextInt(223) + 1 + "." + random.nextInt(256) + "." + random.nextInt(256) + "." + random.nextInt(256);
+    }
+
+    private static String pick(Random random, String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    private static int pick(Random random, int[] values) {
+        return values[random.nextInt(values.length)];
+    }
+}
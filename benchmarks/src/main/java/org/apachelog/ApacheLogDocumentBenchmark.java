@@ -0,0 +1,109 @@
+package org.apachelog;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.solr.common.SolrInputDocument;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turns parsed lines of the syslog corpus into Solr documents like the Solr sink does
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ApacheLogDocumentBenchmark {
+    private ApacheLogParser parser;
+    private ApacheLogSolrSink sink;
+    private String[] lines;
+    private ApacheLogRecord[] records;
+    private ApacheLogRecord record = new ApacheLogRecord();
+    private ApacheLogRequestDecoder decoder = new ApacheLogRequestDecoder();
+    private int next;
+
+    @Setup
+    public void setup() throws ApacheLogParserException {
+        parser = ApacheLogCorpus.SYSLOG.createParser(ApacheLogParser.Engine.TOKENIZER);
+        sink = new ApacheLogSolrSink(null);
+
+        lines = ApacheLogCorpus.SYSLOG.lines(10000, 42);
+        records = new ApacheLogRecord[lines.length];
+        for (int i = 0; i < lines.length; ++i) {
+            records[i] = parser.parse(lines[i], new ApacheLogRecord());
+        }
+    }
+
+    @Benchmark
+    public SolrInputDocument createDocument() {
+        int index = nextIndex();
+        return sink.convert(lines[index], records[index], true);
+    }
+
+    @Benchmark
+    public SolrInputDocument parseAndCreateDocument() throws ApacheLogParserException {
+        String line = lines[nextIndex()];
+        return sink.convert(line, parser.parse(line, record), true);
+    }
+
+    /**
+     * The request line and id as documents were built before ApacheLogRequestDecoder
+     */
+    @Benchmark
+    public void splitRequest(Blackhole blackhole) {
+        int index = nextIndex();
+        String resource = records[index].getString("%r");
+        int firstSpace = resource.indexOf(' ');
+        if (firstSpace != -1) {
+            blackhole.consume(resource.substring(0, firstSpace));
+            resource = resource.substring(firstSpace + 1);
+        }
+        int lastSpace = resource.lastIndexOf(' ');
+        if (lastSpace != -1) {
+            blackhole.consume(resource.substring(lastSpace + 1));
+            resource = resource.substring(0, lastSpace);
+        }
+        String[] resourceParts = StringUtils.split(resource, '?');
+        blackhole.consume(resourceParts[0]);
+        blackhole.consume(StringUtils.join(resourceParts, "", 1, resourceParts.length));
+        blackhole.consume(StringUtils.split(records[index].getString("%{X-Forwarded-For}i"), ", "));
+        // lines are fresh Strings in the indexer, don't use the cached hash code
+        int hash = 0;
+        for (int i = 0; i < lines[index].length(); ++i) {
+            hash = 31 * hash + lines[index].charAt(i);
+        }
+        blackhole.consume(records[index].getString("%t") + "|" + hash);
+    }
+
+    @Benchmark
+    public void decodeRequest(Blackhole blackhole) {
+        int index = nextIndex();
+        decoder.decode(records[index].get("%r"), records[index].get("%{X-Forwarded-For}i"));
+        blackhole.consume(decoder.getMethod());
+        blackhole.consume(decoder.getProtocol());
+        blackhole.consume(decoder.getPath());
+        blackhole.consume(decoder.getQuery());
+        for (int i = 0; i < decoder.getForwardedForCount(); ++i) {
+            blackhole.consume(decoder.getForwardedFor(i));
+        }
+        blackhole.consume(records[index].getString("%t") + "|" + ApacheLogRequestDecoder.hash(lines[index]));
+    }
+
+    private int nextIndex() {
+        int index = next;
+        next = next + 1 == lines.length ? 0 : next + 1;
+        return index;
+    }
+}
@@ -0,0 +1,36 @@
+package org.apachelog;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Creates a parser for a log format. The format is only compiled by the first call, the next ones share the compiled
+ * format from the cache of {@link ApacheLogFormat}.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ApacheLogFormatBenchmark {
+    @Param({"COMBINED", "SYSLOG"})
+    public ApacheLogCorpus corpus;
+
+    @Benchmark
+    public ApacheLogParser parseFormat() throws ApacheLogParserException {
+        ApacheLogParser parser = new ApacheLogParser();
+        parser.parseFormat(corpus.getFormat());
+        return parser;
+    }
+}
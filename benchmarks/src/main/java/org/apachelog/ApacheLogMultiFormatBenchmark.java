@@ -0,0 +1,60 @@
+package org.apachelog;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses one line per operation from a corpus mixing COMBINED and SYSLOG lines, in runs of the given length, with a
+ * multi format parser. Compare with ApacheLogParserBenchmark.parseRecord on a single format.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ApacheLogMultiFormatBenchmark {
+    @Param({"1", "100"})
+    public int run;
+
+    @Param({"REGEX", "TOKENIZER"})
+    public ApacheLogParser.Engine engine;
+
+    private ApacheLogMultiFormatParser parser;
+    private ApacheLogRecord record = new ApacheLogRecord();
+    private String[] lines;
+    private int next;
+
+    @Setup
+    public void setup() throws ApacheLogParserException {
+        parser = new ApacheLogMultiFormatParser();
+        parser.setEngine(engine);
+        parser.parseFormat(ApacheLogCorpus.SYSLOG.getFormat());
+        parser.parseFormat(ApacheLogCorpus.COMBINED.getFormat());
+        parser.parseFormat("%syslog_ti %syslog_ws %syslog_n %_");
+        String[] combined = ApacheLogCorpus.COMBINED.lines(10000, 42);
+        String[] syslog = ApacheLogCorpus.SYSLOG.lines(10000, 42);
+        lines = new String[20000];
+        for (int i = 0; i < lines.length; ++i) {
+            lines[i] = (i / run) % 2 == 0 ? combined[i / 2] : syslog[i / 2];
+        }
+    }
+
+    @Benchmark
+    public int match() {
+        String line = lines[next];
+        next = next + 1 == lines.length ? 0 : next + 1;
+        return parser.match(line, record);
+    }
+}
@@ -0,0 +1,60 @@
+package org.apachelog;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses one line per operation, cycling through the corpus
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ApacheLogParserBenchmark {
+    @Param({"COMBINED", "SYSLOG", "ESCAPED"})
+    public ApacheLogCorpus corpus;
+
+    @Param({"REGEX", "TOKENIZER"})
+    public ApacheLogParser.Engine engine;
+
+    private ApacheLogParser parser;
+    private ApacheLogRecord record = new ApacheLogRecord();
+    private String[] lines;
+    private int next;
+
+    @Setup
+    public void setup() throws ApacheLogParserException {
+        parser = corpus.createParser(engine);
+        lines = corpus.lines(10000, 42);
+    }
+
+    @Benchmark
+    public Map<String, String> parseMap() throws ApacheLogParserException {
+        return parser.parse(nextLine());
+    }
+
+    @Benchmark
+    public ApacheLogRecord parseRecord() throws ApacheLogParserException {
+        return parser.parse(nextLine(), record);
+    }
+
+    private String nextLine() {
+        String line = lines[next];
+        next = next + 1 == lines.length ? 0 : next + 1;
+        return line;
+    }
+}
@@ -0,0 +1,80 @@
+package org.apachelog;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parses the %t and %syslog_ti timestamps of the syslog corpus, SimpleDateFormat is the baseline
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ApacheLogTimestampBenchmark {
+    private ApacheLogTimestampParser timestampParser = new ApacheLogTimestampParser();
+    private DateFormat apacheFormat = new SimpleDateFormat("[dd/MMM/yyyy:HH:mm:ss Z]", Locale.ENGLISH);
+    private DateFormat syslogFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssz", Locale.ENGLISH);
+    private String[] apacheTimes;
+    private String[] syslogTimes;
+    private int next;
+
+    @Setup
+    public void setup() throws ApacheLogParserException {
+        ApacheLogParser parser = ApacheLogCorpus.SYSLOG.createParser(ApacheLogParser.Engine.TOKENIZER);
+        ApacheLogRecord record = new ApacheLogRecord();
+        String[] lines = ApacheLogCorpus.SYSLOG.lines(10000, 42);
+        apacheTimes = new String[lines.length];
+        syslogTimes = new String[lines.length];
+        for (int i = 0; i < lines.length; ++i) {
+            parser.parse(lines[i], record);
+            apacheTimes[i] = record.getString("%t");
+            syslogTimes[i] = record.getString("%syslog_ti");
+        }
+    }
+
+    @Benchmark
+    public long apacheTime() throws ParseException {
+        return timestampParser.parseApacheTime(apacheTimes[nextIndex()]);
+    }
+
+    @Benchmark
+    public Date apacheTimeSimpleDateFormat() throws ParseException {
+        return apacheFormat.parse(apacheTimes[nextIndex()]);
+    }
+
+    @Benchmark
+    public long syslogTime() throws ParseException {
+        return timestampParser.parseSyslogTime(syslogTimes[nextIndex()]);
+    }
+
+    @Benchmark
+    public Date syslogTimeSimpleDateFormat() throws ParseException {
+        String time = syslogTimes[nextIndex()];
+        // SimpleDateFormat can't skip the log path
+        time = time.substring(time.length() - "yyyy-MM-ddTHH:mm:ss+hh:mm".length());
+        return syslogFormat.parse(time.replaceAll("([\\+\\-]\\d\\d):(\\d\\d)", "$1$2"));
+    }
+
+    private int nextIndex() {
+        int index = next;
+        next = next + 1 == apacheTimes.length ? 0 : next + 1;
+        return index;
+    }
+}
@@ -0,0 +1,285 @@
+package org.apachelog;
+
+import java.io.PrintStream;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+
+/**
+ * Answers triage questions (which URLs fail, which hosts are the busiest, how slow are the requests) in a single
+ * pass over the logs, without Solr. Set it as the sink of an {@link ApacheLogIndexer} so the logs are read, filtered
+ * and parsed by its threads, then print the answers with {@link #report(PrintStream, int)}.
+ *
+ * Memory is bounded whatever the size of the logs:
+ * <ul>
+ *     <li>lines and bytes by status code and by minute, in primitive maps</li>
+ *     <li>the top hosts, resources (paths without the query) and user agents, see {@link ApacheLogTopK}</li>
+ *     <li>the count of any resource, see {@link ApacheLogCountMinSketch}</li>
+ *     <li>the distinct resources and user agents, see {@link ApacheLogHyperLogLog}</li>
+ *     <li>the %D latency percentiles, see {@link ApacheLogQuantileSketch}</li>
+ * </ul>
+ * Lines outside of [getSince(), getUntil()) are skipped. Lines salvaged by the invalid line parser only count in the
+ * status and minute maps. The getters must not be called while indexing.
+ */
+public class ApacheLogAggregator implements ApacheLogSink<ApacheLogAggregator.Event> {
+    /**
+     * What a line contributes to the aggregations. Keys are hashed by the indexing threads, before the batch gets to
+     * the aggregations which are updated one batch at a time.
+     */
+    public static class Event {
+        final long minute;
+        final int status;
+        final long bytes;
+        final long latency;
+        final String host;
+        final String resource;
+        final long resourceHash;
+        final String userAgent;
+        final long userAgentHash;
+
+        Event(long minute, int status, long bytes, long latency, String host, String resource, String userAgent) {
+            this.minute = minute;
+            this.status = status;
+            this.bytes = bytes;
+            this.latency = latency;
+            this.host = host;
+            this.resource = resource;
+            this.resourceHash = resource == null ? 0 : ApacheLogRequestDecoder.hash(resource);
+            this.userAgent = userAgent;
+            this.userAgentHash = userAgent == null ? 0 : ApacheLogRequestDecoder.hash(userAgent);
+        }
+    }
+
+    private static final Event SKIPPED = new Event(0, 0, 0, 0, null, null, null);
+    private static final long MINUTE = 60 * 1000;
+
+    private final int k;
+    private final ApacheLogTimestampParser timestampParser = new ApacheLogTimestampParser();
+    private final ApacheLogStringCache fieldCache = new ApacheLogStringCache(4096);
+    private final ApacheLogStringCache userAgentCache = new ApacheLogStringCache(16384);
+    private final ThreadLocal<ApacheLogRequestDecoder> decoders = new ThreadLocal<ApacheLogRequestDecoder>() {
+        @Override
+        protected ApacheLogRequestDecoder initialValue() {
+            return new ApacheLogRequestDecoder();
+        }
+    };
+    private long since = Long.MIN_VALUE;
+    private long until = Long.MAX_VALUE;
+
+    private long lines;
+    private long skipped;
+    private long bytes;
+    private final ApacheLogLongCounts linesByStatus = new ApacheLogLongCounts();
+    private final ApacheLogLongCounts bytesByStatus = new ApacheLogLongCounts();
+    private final ApacheLogLongCounts linesByMinute = new ApacheLogLongCounts(1024);
+    private final ApacheLogLongCounts bytesByMinute = new ApacheLogLongCounts(1024);
+    private final ApacheLogTopK hosts;
+    private final ApacheLogTopK resources;
+    private final ApacheLogTopK userAgents;
+    private final ApacheLogCountMinSketch resourceCounts = new ApacheLogCountMinSketch(1 << 16, 4);
+    private final ApacheLogHyperLogLog distinctResources = new ApacheLogHyperLogLog();
+    private final ApacheLogHyperLogLog distinctUserAgents = new ApacheLogHyperLogLog();
+    private final ApacheLogQuantileSketch latency = new ApacheLogQuantileSketch();
+
+    /**
+     * @param k is the number of hosts, resources and user agents tracked as heavy hitters, at least 1
+     */
+    public ApacheLogAggregator(int k) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("k must be positive: " + k);
+        }
+        this.k = k;
+        hosts = new ApacheLogTopK(k);
+        resources = new ApacheLogTopK(k);
+        userAgents = new ApacheLogTopK(k);
+    }
+
+    public long getSince() {
+        return since;
+    }
+
+    /**
+     * Skips the lines logged before the time, in milliseconds since the epoch
+     */
+    public void setSince(long since) {
+        this.since = since;
+    }
+
+    public long getUntil() {
+        return until;
+    }
+
+    /**
+     * Skips the lines logged at or after the time, in milliseconds since the epoch
+     */
+    public void setUntil(long until) {
+        this.until = until;
+    }
+
+    public void start() {
+    }
+
+    public Event convert(String line, ApacheLogRecord fields, boolean valid) {
+        long time;
+        try {
+            time = valid ? timestampParser.parseApacheTime(fields.getString("%t"))
+                    : timestampParser.parseSyslogTime(fields.getString("%syslog_ti"));
+        } catch (ParseException ex) {
+            ex.printStackTrace(System.err);
+            return null;
+        }
+        if (time < since || time >= until) {
+            return SKIPPED;
+        }
+        long minute = Math.floorDiv(time, MINUTE);
+        if (!valid) {
+            return new Event(minute, (int) ApacheLogSalvageParser.toLong(ApacheLogSalvageParser.getStatus(line, fields)), -1, -1, null, null, null);
+        }
+        ApacheLogRequestDecoder request = decoders.get();
+        request.decode(fields.get("%r"));
+        return new Event(minute, (int) ApacheLogSalvageParser.toLong(fields.getString("%>s")), ApacheLogSalvageParser.toLong(fields.getString("%b")),
+                ApacheLogSalvageParser.toLong(fields.getString("%D")), fields.getString("%{Host}i", fieldCache), request.getPath(),
+                fields.getString("%{User-Agent}i", userAgentCache));
+    }
+
+    public synchronized void send(List<Event> batch, Callback callback) {
+        for (Event event : batch) {
+            if (event == SKIPPED) {
+                ++skipped;
+                continue;
+            }
+            ++lines;
+            long eventBytes = Math.max(0, event.bytes);
+            bytes += eventBytes;
+            linesByStatus.add(event.status, 1);
+            bytesByStatus.add(event.status, eventBytes);
+            linesByMinute.add(event.minute, 1);
+            bytesByMinute.add(event.minute, eventBytes);
+            latency.add(event.latency);
+            if (event.host != null) {
+                hosts.add(event.host, 1);
+            }
+            if (event.resource != null) {
+                resources.add(event.resource, 1);
+                resourceCounts.add(event.resourceHash, 1);
+                distinctResources.add(event.resourceHash);
+            }
+            if (event.userAgent != null) {
+                userAgents.add(event.userAgent, 1);
+                distinctUserAgents.add(event.userAgentHash);
+            }
+        }
+        if (callback != null) {
+            callback.acknowledged();
+        }
+    }
+
+    public void close() {
+    }
+
+    /**
+     * @return the lines aggregated, without the skipped ones
+     */
+    public long getLines() {
+        return lines;
+    }
+
+    /**
+     * @return the lines outside of the time range
+     */
+    public long getSkipped() {
+        return skipped;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return the lines by status code, -1 for salvaged lines without one
+     */
+    public ApacheLogLongCounts getLinesByStatus() {
+        return linesByStatus;
+    }
+
+    public ApacheLogLongCounts getBytesByStatus() {
+        return bytesByStatus;
+    }
+
+    /**
+     * @return the lines by minute, in minutes since the epoch
+     */
+    public ApacheLogLongCounts getLinesByMinute() {
+        return linesByMinute;
+    }
+
+    public ApacheLogLongCounts getBytesByMinute() {
+        return bytesByMinute;
+    }
+
+    public ApacheLogTopK getHosts() {
+        return hosts;
+    }
+
+    public ApacheLogTopK getResources() {
+        return resources;
+    }
+
+    public ApacheLogTopK getUserAgents() {
+        return userAgents;
+    }
+
+    /**
+     * @return the estimated count of the resource, even one that isn't among the top resources
+     */
+    public long getResourceCount(String resource) {
+        return resourceCounts.estimate(resource);
+    }
+
+    public long getDistinctResources() {
+        return distinctResources.estimate();
+    }
+
+    public long getDistinctUserAgents() {
+        return distinctUserAgents.estimate();
+    }
+
+    /**
+     * @return the distribution of %D, in the unit it is logged in (microseconds)
+     */
+    public ApacheLogQuantileSketch getLatency() {
+        return latency;
+    }
+
+    /**
+     * Prints the aggregations, with the top entries of each heavy hitter
+     */
+    public void report(PrintStream out, int top) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        out.println("Lines " + lines + ", bytes " + bytes + ", skipped " + skipped);
+        out.println("Status:");
+        for (long status : linesByStatus.keys()) {
+            out.println("  " + status + "\t" + linesByStatus.get(status) + " lines\t" + bytesByStatus.get(status) + " bytes");
+        }
+        out.println("Latency (%D): p50 " + latency.getQuantile(0.5) + " p90 " + latency.getQuantile(0.9) + " p99 "
+                + latency.getQuantile(0.99) + " max " + latency.getMax() + " mean " + Math.round(latency.getMean()));
+        out.println("Minutes (UTC):");
+        for (long minute : linesByMinute.keys()) {
+            out.println("  " + format.format(new Date(minute * MINUTE)) + "\t" + linesByMinute.get(minute) + " lines\t"
+                    + bytesByMinute.get(minute) + " bytes");
+        }
+        print(out, "Hosts", hosts, top);
+        print(out, "Resources (~" + getDistinctResources() + " distinct)", resources, top);
+        print(out, "User agents (~" + getDistinctUserAgents() + " distinct)", userAgents, top);
+    }
+
+    private void print(PrintStream out, String title, ApacheLogTopK topK, int top) {
+        out.println(title + ":");
+        for (ApacheLogTopK.Entry entry : topK.getTop(Math.min(top, k))) {
+            out.println("  " + entry.getCount() + (entry.getError() > 0 ? " (+-" + entry.getError() + ")" : "") + "\t" + entry.getKey());
+        }
+    }
+}
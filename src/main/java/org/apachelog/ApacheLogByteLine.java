@@ -0,0 +1,103 @@
+package org.apachelog;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * A log line backed by the raw bytes of the log file.
+ *
+ * Each byte is exposed as one char (ISO-8859-1 style) so the parser can split the line on spaces, quotes and
+ * brackets without decoding it. That is only correct for charsets where those characters are single ASCII
+ * bytes that never show up inside a multi byte sequence, like UTF-8 or the ISO-8859 family. The bytes are
+ * decoded with the real charset only when {@link #toString()} is called, usually on a field returned by
+ * {@link #subSequence(int, int)}.
+ */
+public class ApacheLogByteLine implements CharSequence {
+    private ByteBuffer buffer;
+    private int start;
+    private int length;
+    private Charset charset;
+
+    public ApacheLogByteLine(Charset charset) {
+        this.charset = charset;
+    }
+
+    public ApacheLogByteLine(ByteBuffer buffer, int start, int length, Charset charset) {
+        this.buffer = buffer;
+        this.start = start;
+        this.length = length;
+        this.charset = charset;
+    }
+
+    /**
+     * Points this line to a new range of bytes
+     */
+    public void set(ByteBuffer buffer, int start, int length) {
+        this.buffer = buffer;
+        this.start = start;
+        this.length = length;
+    }
+
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * @return the position of the first byte of the line in the buffer
+     */
+    public int getStart() {
+        return start;
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public char charAt(int index) {
+        return (char) (buffer.get(start + index) & 0xff);
+    }
+
+    /**
+     * @return a view over the same bytes, nothing gets copied or decoded
+     */
+    public CharSequence subSequence(int start, int end) {
+        return new ApacheLogByteLine(buffer, this.start + start, end - start, charset);
+    }
+
+    /**
+     * Decodes the bytes using the charset of the line
+     */
+    @Override
+    public String toString() {
+        if (buffer.hasArray()) {
+            return new String(buffer.array(), buffer.arrayOffset() + start, length, charset);
+        }
+        byte[] bytes = new byte[length];
+        ByteBuffer source = buffer.duplicate();
+        source.position(start);
+        source.get(bytes);
+        return new String(bytes, charset);
+    }
+
+    /**
+     * Checks the delimiters used by the parser are encoded as single ASCII bytes by the given charset
+     *
+     * @throws IllegalArgumentException if the charset is not ASCII compatible
+     */
+    public static void checkCharset(Charset charset) {
+        String delimiters = " \t\r\n\"[]\\,";
+        byte[] bytes = delimiters.getBytes(charset);
+        if (bytes.length != delimiters.length()) {
+            throw new IllegalArgumentException("Charset " + charset + " is not ASCII compatible");
+        }
+        for (int i = 0; i < bytes.length; ++i) {
+            if (bytes[i] != delimiters.charAt(i)) {
+                throw new IllegalArgumentException("Charset " + charset + " is not ASCII compatible");
+            }
+        }
+    }
+}
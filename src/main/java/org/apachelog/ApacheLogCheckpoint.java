@@ -0,0 +1,262 @@
+package org.apachelog;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Remembers how far the indexer got in a log file so an interrupted run can resume where it stopped.
+ *
+ * The log is identified by its file key (inode) and a checksum of its first bytes. The checkpoint keeps the
+ * ranges the log was split in and, for each range, the offset and line count right after the last batch Solr
+ * acknowledged. Batches may be acknowledged out of order when several sender threads are used, so a range only
+ * moves forward once all its earlier batches were acknowledged. The checkpoint is written to a properties file,
+ * replaced atomically on every change.
+ */
+public class ApacheLogCheckpoint {
+    static final int HEAD_LENGTH = 4096;
+
+    private final File file;
+    private String logPath;
+    private String fileKey;
+    private int headLength;
+    private long headChecksum;
+    private long[] boundaries;
+    private long[] offsets;
+    private long[] lines;
+    private long[] nextSequence;
+    private long[] completedSequence;
+    private Map<Integer, TreeMap<Long, long[]>> acknowledged = new HashMap<Integer, TreeMap<Long, long[]>>();
+
+    private ApacheLogCheckpoint(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Creates a new checkpoint at the start of each range of the log
+     */
+    public static ApacheLogCheckpoint create(File file, File log, long[] boundaries) throws IOException {
+        ApacheLogCheckpoint checkpoint = new ApacheLogCheckpoint(file);
+        checkpoint.logPath = log.getAbsolutePath();
+        checkpoint.fileKey = getFileKey(log);
+        checkpoint.headLength = (int) Math.min(HEAD_LENGTH, log.length());
+        checkpoint.headChecksum = checksum(log, checkpoint.headLength);
+        checkpoint.boundaries = boundaries.clone();
+        checkpoint.offsets = new long[boundaries.length - 1];
+        checkpoint.lines = new long[boundaries.length - 1];
+        System.arraycopy(boundaries, 0, checkpoint.offsets, 0, checkpoint.offsets.length);
+        checkpoint.initSequences();
+        return checkpoint;
+    }
+
+    /**
+     * @return the checkpoint saved in the given file or null if there is none
+     */
+    public static ApacheLogCheckpoint load(File file) throws IOException {
+        if (!file.exists()) {
+            return null;
+        }
+        Properties properties = new Properties();
+        FileInputStream in = new FileInputStream(file);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+
+        ApacheLogCheckpoint checkpoint = new ApacheLogCheckpoint(file);
+        try {
+            checkpoint.logPath = properties.getProperty("log.path");
+            checkpoint.fileKey = properties.getProperty("log.fileKey");
+            checkpoint.headLength = Integer.parseInt(properties.getProperty("log.headLength"));
+            checkpoint.headChecksum = Long.parseLong(properties.getProperty("log.headChecksum"));
+            checkpoint.boundaries = parseLongs(properties.getProperty("ranges"));
+            checkpoint.offsets = parseLongs(properties.getProperty("offsets"));
+            checkpoint.lines = parseLongs(properties.getProperty("lines"));
+        } catch (RuntimeException ex) {
+            throw new IOException("Invalid checkpoint " + file, ex);
+        }
+        if (checkpoint.offsets.length != checkpoint.boundaries.length - 1 || checkpoint.lines.length != checkpoint.offsets.length) {
+            throw new IOException("Invalid checkpoint " + file);
+        }
+        checkpoint.initSequences();
+        return checkpoint;
+    }
+
+    /**
+     * @return true if this checkpoint was taken from the given log
+     */
+    public boolean matches(File log) throws IOException {
+        if (!log.exists() || log.length() < offsets[offsets.length - 1] || log.length() < headLength) {
+            return false;
+        }
+        String key = getFileKey(log);
+        if (fileKey != null && key != null && !fileKey.equals(key)) {
+            return false;
+        }
+        return checksum(log, headLength) == headChecksum;
+    }
+
+    public String getLogPath() {
+        return logPath;
+    }
+
+    /**
+     * @return the boundaries of the ranges the log was split in, range i goes from boundaries[i] to
+     *         boundaries[i + 1]
+     */
+    public long[] getBoundaries() {
+        return boundaries.clone();
+    }
+
+    public synchronized long getOffset(int range) {
+        return offsets[range];
+    }
+
+    public synchronized long getLines(int range) {
+        return lines[range];
+    }
+
+    /**
+     * @return the number of lines indexed in all the ranges
+     */
+    public synchronized long getLines() {
+        long total = 0;
+        for (long count : lines) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * Moves the end of the last range, used when the log grew since the checkpoint was taken
+     */
+    public synchronized void setEnd(long end) {
+        boundaries[boundaries.length - 1] = end;
+    }
+
+    /**
+     * Registers a batch about to be sent for the given range
+     *
+     * @return the sequence number to pass to {@link #acknowledge}
+     */
+    public synchronized long begin(int range) {
+        return nextSequence[range]++;
+    }
+
+    /**
+     * Records that Solr acknowledged a batch. Once all the previous batches of the range are acknowledged too
+     * the checkpoint moves forward and is saved.
+     *
+     * @param offset is the offset right after the last line of the batch
+     * @param lines is the number of lines of the range read up to offset
+     */
+    public synchronized void acknowledge(int range, long sequence, long offset, long lines) throws IOException {
+        TreeMap<Long, long[]> pending = acknowledged.get(range);
+        if (pending == null) {
+            pending = new TreeMap<Long, long[]>();
+            acknowledged.put(range, pending);
+        }
+        pending.put(sequence, new long[] {offset, lines});
+
+        boolean moved = false;
+        while (!pending.isEmpty() && pending.firstKey() == completedSequence[range]) {
+            long[] position = pending.remove(pending.firstKey());
+            offsets[range] = position[0];
+            this.lines[range] = position[1];
+            ++completedSequence[range];
+            moved = true;
+        }
+        if (moved) {
+            save();
+        }
+    }
+
+    public synchronized void save() throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty("log.path", logPath);
+        if (fileKey != null) {
+            properties.setProperty("log.fileKey", fileKey);
+        }
+        properties.setProperty("log.headLength", String.valueOf(headLength));
+        properties.setProperty("log.headChecksum", String.valueOf(headChecksum));
+        properties.setProperty("ranges", formatLongs(boundaries));
+        properties.setProperty("offsets", formatLongs(offsets));
+        properties.setProperty("lines", formatLongs(lines));
+
+        File temp = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            properties.store(out, "apachelog checkpoint");
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void initSequences() {
+        nextSequence = new long[offsets.length];
+        completedSequence = new long[offsets.length];
+    }
+
+    /**
+     * @return the key identifying the file on the file system, e.g. its inode, null if there's none
+     */
+    static String getFileKey(File log) throws IOException {
+        Object key = Files.readAttributes(log.toPath(), BasicFileAttributes.class).fileKey();
+        return key == null ? null : key.toString();
+    }
+
+    /**
+     * @return the CRC32 of the first bytes of the log
+     */
+    static long checksum(File log, int length) throws IOException {
+        byte[] head = new byte[length];
+        FileInputStream in = new FileInputStream(log);
+        try {
+            int read = 0;
+            while (read < length) {
+                int count = in.read(head, read, length - read);
+                if (count < 0) {
+                    throw new IOException("Unexpected end of file " + log);
+                }
+                read += count;
+            }
+        } finally {
+            in.close();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(head);
+        return crc.getValue();
+    }
+
+    private static long[] parseLongs(String value) {
+        String[] parts = value.split(",");
+        long[] result = new long[parts.length];
+        for (int i = 0; i < parts.length; ++i) {
+            result[i] = Long.parseLong(parts[i].trim());
+        }
+        return result;
+    }
+
+    private static String formatLongs(long[] values) {
+        StringBuilder buffer = new StringBuilder();
+        for (int i = 0; i < values.length; ++i) {
+            if (i > 0) {
+                buffer.append(',');
+            }
+            buffer.append(values[i]);
+        }
+        return buffer.toString();
+    }
+}
@@ -0,0 +1,230 @@
+package org.apachelog;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads the files written by {@link ApacheLogColumnarSink} one column at a time. The other columns of each chunk
+ * are skipped without being read or decompressed, so scanning a column costs a fraction of scanning the file.
+ *
+ * A reader isn't thread safe, open one per thread.
+ */
+public class ApacheLogColumnarReader implements Closeable {
+    public interface LongVisitor {
+        void visit(long value);
+    }
+
+    /**
+     * Receives the values of a string column, null if the field didn't match. Values of a dictionary column are
+     * the same instance for each occurrence within a chunk.
+     */
+    public interface StringVisitor {
+        void visit(String value);
+    }
+
+    private final File file;
+    private final RandomAccessFile in;
+    private final List<String> names = new ArrayList<String>();
+    private final List<ApacheLogColumnarSink.Encoding> encodings = new ArrayList<ApacheLogColumnarSink.Encoding>();
+    private final long dataStart;
+    private final Inflater inflater = new Inflater();
+    private byte[] compressed = new byte[4096];
+    private byte[] decoded = new byte[4096];
+    private int position;
+
+    public ApacheLogColumnarReader(File file) throws IOException {
+        this.file = file;
+        in = new RandomAccessFile(file, "r");
+        try {
+            if (in.readInt() != ApacheLogColumnarSink.MAGIC || in.readByte() != ApacheLogColumnarSink.VERSION) {
+                throw new IOException(file.getName() + " is not a columnar log file");
+            }
+            int columns = in.readShort();
+            ApacheLogColumnarSink.Encoding[] values = ApacheLogColumnarSink.Encoding.values();
+            for (int i = 0; i < columns; ++i) {
+                names.add(in.readUTF());
+                encodings.add(values[in.readByte()]);
+            }
+            dataStart = in.getFilePointer();
+        } catch (IOException ex) {
+            in.close();
+            throw ex;
+        }
+    }
+
+    public List<String> getColumns() {
+        return Collections.unmodifiableList(names);
+    }
+
+    public ApacheLogColumnarSink.Encoding getEncoding(String column) {
+        int index = names.indexOf(column);
+        return index < 0 ? null : encodings.get(index);
+    }
+
+    /**
+     * @return the number of rows in the file, only the chunk headers are read
+     */
+    public long getRows() throws IOException {
+        long rows = 0;
+        in.seek(dataStart);
+        while (in.getFilePointer() < in.length()) {
+            rows += in.readInt();
+            for (int i = 0; i < names.size(); ++i) {
+                skipColumn();
+            }
+        }
+        return rows;
+    }
+
+    /**
+     * Visits every value of a DELTA or VARINT column in order
+     *
+     * @return the number of rows visited
+     */
+    public long scanLongs(String column, LongVisitor visitor) throws IOException {
+        int index = indexOf(column);
+        ApacheLogColumnarSink.Encoding encoding = encodings.get(index);
+        if (encoding != ApacheLogColumnarSink.Encoding.DELTA && encoding != ApacheLogColumnarSink.Encoding.VARINT) {
+            throw new IllegalArgumentException("Column " + column + " doesn't hold numbers");
+        }
+        long total = 0;
+        in.seek(dataStart);
+        while (in.getFilePointer() < in.length()) {
+            int rows = in.readInt();
+            readChunkColumn(index);
+            long previous = 0;
+            for (int i = 0; i < rows; ++i) {
+                long value = unzigzag(readVarint());
+                if (encoding == ApacheLogColumnarSink.Encoding.DELTA) {
+                    value += previous;
+                    previous = value;
+                }
+                visitor.visit(value);
+            }
+            total += rows;
+        }
+        return total;
+    }
+
+    /**
+     * Visits every value of a DICTIONARY or STRING column in order
+     *
+     * @return the number of rows visited
+     */
+    public long scanStrings(String column, StringVisitor visitor) throws IOException {
+        int index = indexOf(column);
+        ApacheLogColumnarSink.Encoding encoding = encodings.get(index);
+        if (encoding != ApacheLogColumnarSink.Encoding.DICTIONARY && encoding != ApacheLogColumnarSink.Encoding.STRING) {
+            throw new IllegalArgumentException("Column " + column + " doesn't hold strings");
+        }
+        long total = 0;
+        in.seek(dataStart);
+        while (in.getFilePointer() < in.length()) {
+            int rows = in.readInt();
+            readChunkColumn(index);
+            if (encoding == ApacheLogColumnarSink.Encoding.DICTIONARY) {
+                String[] dictionary = new String[(int) readVarint() + 1];
+                for (int i = 1; i < dictionary.length; ++i) {
+                    dictionary[i] = readString();
+                }
+                for (int i = 0; i < rows; ++i) {
+                    visitor.visit(dictionary[(int) readVarint()]);
+                }
+            } else {
+                for (int i = 0; i < rows; ++i) {
+                    visitor.visit(readString());
+                }
+            }
+            total += rows;
+        }
+        return total;
+    }
+
+    public void close() throws IOException {
+        inflater.end();
+        in.close();
+    }
+
+    private int indexOf(String column) {
+        int index = names.indexOf(column);
+        if (index < 0) {
+            throw new IllegalArgumentException("Unknown column " + column + " in " + file.getName());
+        }
+        return index;
+    }
+
+    /**
+     * Decompresses the column of the current chunk into decoded and skips the columns after it
+     */
+    private void readChunkColumn(int index) throws IOException {
+        for (int i = 0; i < index; ++i) {
+            skipColumn();
+        }
+        int length = in.readInt();
+        int compressedLength = in.readInt();
+        if (compressed.length < compressedLength) {
+            compressed = new byte[Math.max(compressedLength, 2 * compressed.length)];
+        }
+        if (decoded.length < length) {
+            decoded = new byte[Math.max(length, 2 * decoded.length)];
+        }
+        in.readFully(compressed, 0, compressedLength);
+        inflater.reset();
+        inflater.setInput(compressed, 0, compressedLength);
+        try {
+            int inflated = 0;
+            while (inflated < length && !inflater.finished()) {
+                int count = inflater.inflate(decoded, inflated, length - inflated);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += count;
+            }
+            if (inflated != length) {
+                throw new IOException("Truncated column in " + file.getName());
+            }
+        } catch (DataFormatException ex) {
+            throw new IOException("Corrupt column in " + file.getName(), ex);
+        }
+        position = 0;
+        for (int i = index + 1; i < names.size(); ++i) {
+            skipColumn();
+        }
+    }
+
+    private void skipColumn() throws IOException {
+        in.readInt();
+        int compressedLength = in.readInt();
+        in.seek(in.getFilePointer() + compressedLength);
+    }
+
+    private long readVarint() {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = decoded[position++];
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    private String readString() {
+        int length = (int) readVarint();
+        if (length == 0) {
+            return null;
+        }
+        String value = new String(decoded, position, length - 1, ApacheLogColumnarSink.UTF8);
+        position += length - 1;
+        return value;
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+}
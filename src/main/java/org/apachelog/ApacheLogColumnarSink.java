@@ -0,0 +1,344 @@
+package org.apachelog;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+/**
+ * Writes the lines to a compact columnar file, with the columns of the Solr schema documented in
+ * {@link ApacheLogIndexer} except logText. Read it back with {@link ApacheLogColumnarReader}.
+ *
+ * Rows are buffered in chunks of getChunkSize() rows. Each column of a chunk is encoded on its own, compressed with
+ * deflate and prefixed with its length, so a reader can skip the columns it doesn't need. Encodings are:
+ * <ul>
+ *     <li>DICTIONARY: the distinct values of the chunk, then the index of each value as a varint</li>
+ *     <li>DELTA: the difference with the previous value of the chunk as a zigzag varint, for datetime</li>
+ *     <li>VARINT: the value as a zigzag varint, missing or non numeric values are -1</li>
+ *     <li>STRING: the length of each value as a varint followed by its UTF-8 bytes</li>
+ * </ul>
+ * Strings are null when the field didn't match. Rows wait in memory until their chunk is written, so repeated
+ * fields go through string caches to share one String per value. Salvaged lines get "?" and -1 like in Solr.
+ *
+ * File layout: the magic number, the version, the number of columns, the name and encoding of each column, then
+ * the chunks. A chunk is its number of rows followed by each column as its encoded length, its compressed length
+ * and the compressed bytes.
+ *
+ * Batches are acknowledged once the chunk holding their last row is written, or on close().
+ */
+public class ApacheLogColumnarSink implements ApacheLogSink<Object[]> {
+    static final int MAGIC = 0x414c4346; // ALCF
+    static final int VERSION = 1;
+    static final Charset UTF8 = Charset.forName("UTF-8");
+
+    public enum Encoding {
+        DICTIONARY,
+        DELTA,
+        VARINT,
+        STRING
+    }
+
+    private static final String[] NAMES = {"datetime", "webServer", "host", "method", "protocol", "resource",
+            "resourceParams", "code", "referer", "userAgent", "time", "remoteUser", "remoteLogName", "bytes",
+            "xForwardFor", "isValidLine"};
+    private static final Encoding[] ENCODINGS = {Encoding.DELTA, Encoding.DICTIONARY, Encoding.DICTIONARY,
+            Encoding.DICTIONARY, Encoding.DICTIONARY, Encoding.STRING, Encoding.STRING, Encoding.VARINT,
+            Encoding.DICTIONARY, Encoding.DICTIONARY, Encoding.VARINT, Encoding.DICTIONARY, Encoding.DICTIONARY,
+            Encoding.VARINT, Encoding.STRING, Encoding.VARINT};
+    private static final int DEFAULT_CHUNK_SIZE = 64 * 1024;
+
+    private final File file;
+    private final ApacheLogTimestampParser timestampParser = new ApacheLogTimestampParser();
+    private final ApacheLogStringCache fieldCache = new ApacheLogStringCache(4096);
+    private final ApacheLogStringCache userAgentCache = new ApacheLogStringCache(16384);
+    private final ThreadLocal<ApacheLogRequestDecoder> decoders = new ThreadLocal<ApacheLogRequestDecoder>() {
+        @Override
+        protected ApacheLogRequestDecoder initialValue() {
+            return new ApacheLogRequestDecoder();
+        }
+    };
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private DataOutputStream out;
+    private Column[] columns;
+    private int rows;
+    private List<Callback> pending = new ArrayList<Callback>();
+    /** Created by start() and ended by close(), its zlib memory isn't on the heap */
+    private Deflater deflater;
+    private byte[] compressed = new byte[4096];
+
+    /**
+     * Values of a column for the current chunk
+     */
+    private static class Column {
+        final Encoding encoding;
+        final Buffer values = new Buffer();
+        final Map<String, Integer> dictionary = new HashMap<String, Integer>();
+        final Buffer entries = new Buffer();
+        long previous;
+
+        Column(Encoding encoding) {
+            this.encoding = encoding;
+        }
+
+        void add(Object value) {
+            switch (encoding) {
+                case DICTIONARY:
+                    String string = (String) value;
+                    if (string == null) {
+                        values.writeVarint(0);
+                        break;
+                    }
+                    Integer index = dictionary.get(string);
+                    if (index == null) {
+                        index = dictionary.size();
+                        dictionary.put(string, index);
+                        entries.writeString(string);
+                    }
+                    values.writeVarint(index + 1);
+                    break;
+                case DELTA:
+                    long number = (Long) value;
+                    values.writeVarint(zigzag(number - previous));
+                    previous = number;
+                    break;
+                case VARINT:
+                    values.writeVarint(zigzag((Long) value));
+                    break;
+                default:
+                    values.writeString((String) value);
+            }
+        }
+
+        /**
+         * @return the encoded values of the chunk, the column is reset for the next chunk
+         */
+        Buffer finish() {
+            if (encoding == Encoding.DICTIONARY) {
+                Buffer buffer = new Buffer();
+                buffer.writeVarint(dictionary.size());
+                buffer.write(entries.bytes, 0, entries.length);
+                buffer.write(values.bytes, 0, values.length);
+                dictionary.clear();
+                entries.length = 0;
+                values.length = 0;
+                return buffer;
+            }
+            Buffer buffer = new Buffer();
+            buffer.write(values.bytes, 0, values.length);
+            values.length = 0;
+            previous = 0;
+            return buffer;
+        }
+    }
+
+    /**
+     * Growable byte array with varint and string writers
+     */
+    private static class Buffer {
+        byte[] bytes = new byte[1024];
+        int length;
+
+        void write(byte[] source, int offset, int count) {
+            ensure(count);
+            System.arraycopy(source, offset, bytes, length, count);
+            length += count;
+        }
+
+        void writeVarint(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                bytes[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        /**
+         * Writes the length plus one, zero for null, and the UTF-8 bytes
+         */
+        void writeString(String value) {
+            if (value == null) {
+                writeVarint(0);
+                return;
+            }
+            byte[] utf8 = value.getBytes(UTF8);
+            writeVarint(utf8.length + 1);
+            write(utf8, 0, utf8.length);
+        }
+
+        private void ensure(int count) {
+            if (length + count > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(2 * bytes.length, length + count));
+            }
+        }
+    }
+
+    public ApacheLogColumnarSink(File file) {
+        this.file = file;
+    }
+
+    /**
+     * @return the names of the columns written, in order
+     */
+    public static List<String> getColumnNames() {
+        return Collections.unmodifiableList(Arrays.asList(NAMES));
+    }
+
+    public static Encoding getEncoding(String column) {
+        int index = Arrays.asList(NAMES).indexOf(column);
+        return index < 0 ? null : ENCODINGS[index];
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Sets the number of rows per chunk, larger chunks compress better but take more memory. Defaults to 65536
+     */
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    public synchronized void start() throws ApacheLogIndexerException {
+        deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 64 * 1024));
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeShort(NAMES.length);
+            for (int i = 0; i < NAMES.length; ++i) {
+                out.writeUTF(NAMES[i]);
+                out.writeByte(ENCODINGS[i].ordinal());
+            }
+        } catch (IOException ex) {
+            throw new ApacheLogIndexerException("Exception opening file " + file.getName(), ex);
+        }
+        columns = new Column[NAMES.length];
+        for (int i = 0; i < columns.length; ++i) {
+            columns[i] = new Column(ENCODINGS[i]);
+        }
+        rows = 0;
+    }
+
+    public Object[] convert(String line, ApacheLogRecord fields, boolean valid) {
+        Object[] row = new Object[NAMES.length];
+        try {
+            row[0] = valid ? timestampParser.parseApacheTime(fields.getString("%t"))
+                    : timestampParser.parseSyslogTime(fields.getString("%syslog_ti"));
+        } catch (ParseException ex) {
+            ex.printStackTrace(System.err);
+            return null;
+        }
+        row[1] = fields.getString("%syslog_ws", fieldCache);
+        if (!valid) {
+            for (int i = 2; i < row.length; ++i) {
+                row[i] = ENCODINGS[i] == Encoding.VARINT ? (Object) (-1L) : "?";
+            }
+            row[7] = ApacheLogSalvageParser.toLong(ApacheLogSalvageParser.getStatus(line, fields));
+            row[15] = 0L;
+            return row;
+        }
+        row[2] = fields.getString("%{Host}i", fieldCache);
+        ApacheLogRequestDecoder request = decoders.get();
+        request.decode(fields.get("%r"));
+        row[3] = request.getMethod(fieldCache);
+        row[4] = request.getProtocol(fieldCache);
+        row[5] = request.getPath();
+        row[6] = request.getQuery();
+        row[7] = ApacheLogSalvageParser.toLong(fields.getString("%>s"));
+        row[8] = fields.getString("%{Referer}i");
+        row[9] = fields.getString("%{User-Agent}i", userAgentCache);
+        row[10] = ApacheLogSalvageParser.toLong(fields.getString("%D"));
+        row[11] = fields.getString("%u", fieldCache);
+        row[12] = fields.getString("%l", fieldCache);
+        row[13] = ApacheLogSalvageParser.toLong(fields.getString("%b"));
+        row[14] = fields.getString("%{X-Forwarded-For}i");
+        row[15] = 1L;
+        return row;
+    }
+
+    public synchronized void send(List<Object[]> batch, Callback callback) throws ApacheLogIndexerException {
+        if (out == null) {
+            throw new ApacheLogIndexerException("Sink writing to file " + file.getName() + " is not started");
+        }
+        for (Object[] row : batch) {
+            for (int i = 0; i < columns.length; ++i) {
+                columns[i].add(row[i]);
+            }
+            if (++rows >= chunkSize) {
+                writeChunk();
+            }
+        }
+        if (callback != null) {
+            if (rows == 0) {
+                callback.acknowledged();
+            } else {
+                pending.add(callback);
+            }
+        }
+    }
+
+    /**
+     * Writes the last chunk, closes the file and frees the compressor. The sink can be started again.
+     */
+    public synchronized void close() throws ApacheLogIndexerException {
+        if (out == null) {
+            return;
+        }
+        try {
+            if (rows > 0) {
+                writeChunk();
+            }
+            out.close();
+        } catch (IOException ex) {
+            throw new ApacheLogIndexerException("Exception closing file " + file.getName(), ex);
+        } finally {
+            out = null;
+            columns = null;
+            deflater.end();
+            deflater = null;
+        }
+    }
+
+    private void writeChunk() throws ApacheLogIndexerException {
+        try {
+            out.writeInt(rows);
+            for (Column column : columns) {
+                Buffer encoded = column.finish();
+                deflater.reset();
+                deflater.setInput(encoded.bytes, 0, encoded.length);
+                deflater.finish();
+                int length = 0;
+                while (!deflater.finished()) {
+                    if (length == compressed.length) {
+                        compressed = Arrays.copyOf(compressed, 2 * compressed.length);
+                    }
+                    length += deflater.deflate(compressed, length, compressed.length - length);
+                }
+                out.writeInt(encoded.length);
+                out.writeInt(length);
+                out.write(compressed, 0, length);
+            }
+            out.flush();
+        } catch (IOException ex) {
+            throw new ApacheLogIndexerException("Exception writing to file " + file.getName(), ex);
+        }
+        rows = 0;
+        List<Callback> written = pending;
+        pending = new ArrayList<Callback>();
+        for (Callback callback : written) {
+            callback.acknowledged();
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+}
@@ -0,0 +1,16 @@
+package org.apachelog;
+
+/**
+ * When the indexer asks Solr to commit while a log is being indexed. Whatever the policy, the indexer issues a
+ * single final commit once the log is indexed unless it is told otherwise.
+ */
+public enum ApacheLogCommitPolicy {
+    /** Never commit while indexing, rely on the autoCommit settings of the Solr collection */
+    NONE,
+    /** Send every batch with a commitWithin so Solr commits on its own schedule */
+    COMMIT_WITHIN,
+    /** Soft commit every N documents */
+    DOCUMENTS,
+    /** Soft commit every T milliseconds if anything was added since the last commit */
+    INTERVAL
+}
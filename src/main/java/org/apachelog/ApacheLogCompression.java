@@ -0,0 +1,78 @@
+package org.apachelog;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorInputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * The compression formats of rotated logs, detected from the first bytes of the file rather than its name
+ */
+public enum ApacheLogCompression {
+    NONE,
+
+    GZIP,
+
+    BZIP2,
+
+    /**
+     * Zstandard, needs zstd-jni in the classpath
+     */
+    ZSTD;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    public static ApacheLogCompression detect(File file) throws IOException {
+        byte[] magic = new byte[4];
+        int length = 0;
+        FileInputStream in = new FileInputStream(file);
+        try {
+            int read;
+            while (length < magic.length && (read = in.read(magic, length, magic.length - length)) > 0) {
+                length += read;
+            }
+        } finally {
+            in.close();
+        }
+        return detect(magic, length);
+    }
+
+    static ApacheLogCompression detect(byte[] magic, int length) {
+        if (length >= 2 && (magic[0] & 0xff) == 0x1f && (magic[1] & 0xff) == 0x8b) {
+            return GZIP;
+        }
+        if (length >= 3 && magic[0] == 'B' && magic[1] == 'Z' && magic[2] == 'h') {
+            return BZIP2;
+        }
+        if (length >= 4 && (magic[0] & 0xff) == 0x28 && (magic[1] & 0xff) == 0xb5 && (magic[2] & 0xff) == 0x2f
+                && (magic[3] & 0xff) == 0xfd) {
+            return ZSTD;
+        }
+        return NONE;
+    }
+
+    /**
+     * Wraps a stream of compressed data into a stream of the uncompressed data. Concatenated gzip and bzip2
+     * streams are read as one.
+     */
+    public InputStream decompress(InputStream in) throws IOException {
+        switch (this) {
+            case GZIP:
+                return new GZIPInputStream(in, BUFFER_SIZE);
+            case BZIP2:
+                return new BZip2CompressorInputStream(in, true);
+            case ZSTD:
+                if (!ZstdUtils.isZstdCompressionAvailable()) {
+                    throw new IOException("zstd-jni is needed to read zstd compressed logs");
+                }
+                return new ZstdCompressorInputStream(in);
+            default:
+                return in;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package org.apachelog;
+
+/**
+ * Count-min sketch: estimates the count of any key in fixed memory. Estimates are never below the real count and,
+ * with probability 1 - e^-depth, above it by at most e * total / width. Not thread safe.
+ */
+public class ApacheLogCountMinSketch {
+    private final int width;
+    private final int depth;
+    private final long[] counts;
+    private long total;
+
+    public ApacheLogCountMinSketch(int width, int depth) {
+        this.width = width;
+        this.depth = depth;
+        this.counts = new long[width * depth];
+    }
+
+    /**
+     * @param hash is the 64 bit hash of the key, see {@link ApacheLogRequestDecoder#hash(CharSequence)}
+     */
+    public void add(long hash, long count) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < depth; ++i) {
+            counts[i * width + index(h1 + i * h2)] += count;
+        }
+        total += count;
+    }
+
+    public void add(CharSequence key, long count) {
+        add(ApacheLogRequestDecoder.hash(key), count);
+    }
+
+    public long estimate(long hash) {
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        long estimate = Long.MAX_VALUE;
+        for (int i = 0; i < depth; ++i) {
+            estimate = Math.min(estimate, counts[i * width + index(h1 + i * h2)]);
+        }
+        return estimate;
+    }
+
+    public long estimate(CharSequence key) {
+        return estimate(ApacheLogRequestDecoder.hash(key));
+    }
+
+    /**
+     * @return the sum of all the counts added
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    private int index(int hash) {
+        return (hash & Integer.MAX_VALUE) % width;
+    }
+}
@@ -0,0 +1,116 @@
+package org.apachelog;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * Writes the given fields of each line as comma or tab separated values.
+ *
+ * In CSV every value is quoted, with quotes doubled. In TSV values aren't quoted, tabs, line breaks and
+ * backslashes are escaped as \t, \n, \r and \\ instead. Fields missing from a line, e.g. from a salvaged line, are
+ * written as empty values.
+ */
+public class ApacheLogCsvSink extends ApacheLogWriterSink {
+    public enum Dialect {
+        CSV,
+        TSV
+    }
+
+    private final String[] names;
+    private final Dialect dialect;
+    private boolean header = true;
+
+    public ApacheLogCsvSink(File file, Charset charset, List<String> names, Dialect dialect) {
+        super(file, charset);
+        this.names = names.toArray(new String[names.size()]);
+        this.dialect = dialect;
+    }
+
+    public ApacheLogCsvSink(OutputStream out, Charset charset, List<String> names, Dialect dialect) {
+        super(out, charset);
+        this.names = names.toArray(new String[names.size()]);
+        this.dialect = dialect;
+    }
+
+    public boolean isHeader() {
+        return header;
+    }
+
+    /**
+     * Sets whether the first row holds the field names. Defaults to true
+     */
+    public void setHeader(boolean header) {
+        this.header = header;
+    }
+
+    @Override
+    protected String getHeader() {
+        if (!header) {
+            return null;
+        }
+        StringBuilder row = new StringBuilder();
+        for (int i = 0; i < names.length; ++i) {
+            appendValue(row, i, names[i]);
+        }
+        return row.toString();
+    }
+
+    /**
+     * @param line isn't used, it may be null
+     */
+    public String convert(String line, ApacheLogRecord fields, boolean valid) {
+        StringBuilder row = new StringBuilder(line == null ? 256 : line.length() + 16);
+        for (int i = 0; i < names.length; ++i) {
+            int index = fields.indexOf(names[i]);
+            // decoded with the charset of the line, get() only exposes the bytes of a byte line
+            appendValue(row, i, index < 0 ? null : fields.getString(index));
+        }
+        return row.toString();
+    }
+
+    private void appendValue(StringBuilder row, int column, CharSequence value) {
+        if (dialect == Dialect.CSV) {
+            if (column > 0) {
+                row.append(',');
+            }
+            row.append('"');
+            if (value != null) {
+                for (int i = 0; i < value.length(); ++i) {
+                    char c = value.charAt(i);
+                    if (c == '"') {
+                        row.append('"');
+                    }
+                    row.append(c);
+                }
+            }
+            row.append('"');
+        } else {
+            if (column > 0) {
+                row.append('\t');
+            }
+            if (value != null) {
+                for (int i = 0; i < value.length(); ++i) {
+                    char c = value.charAt(i);
+                    switch (c) {
+                        case '\t':
+                            row.append("\\t");
+                            break;
+                        case '\n':
+                            row.append("\\n");
+                            break;
+                        case '\r':
+                            row.append("\\r");
+                            break;
+                        case '\\':
+                            row.append("\\\\");
+                            break;
+                        default:
+                            row.append(c);
+                    }
+                }
+            }
+        }
+    }
+}
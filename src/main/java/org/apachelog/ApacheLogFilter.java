@@ -0,0 +1,253 @@
+package org.apachelog;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Cheap test run on a log line before it is fully parsed, see {@link ApacheLogParser#setFilter(ApacheLogFilter)}.
+ *
+ * A filter either searches the raw line or reads a few fields. The parser extracts only the fields returned by
+ * {@link #getFields()}, stopping right after the last of them, so rejected lines never go through the full parse
+ * nor get decoded. Lines read from the raw bytes of a file ({@link ApacheLogByteLine}) expose each byte as a char,
+ * values are encoded with the charset of the line before comparing them.
+ */
+public abstract class ApacheLogFilter {
+    private static final String[] NO_FIELDS = new String[0];
+    private static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+
+    /**
+     * @return the names of the fields read by {@link #accept}, an empty array if only the raw line is searched
+     */
+    public String[] getFields() {
+        return NO_FIELDS;
+    }
+
+    /**
+     * @param line is the raw line
+     * @param fields has the fields returned by getFields(), null if the filter doesn't read any field
+     * @return true to parse the line, false to skip it
+     */
+    public abstract boolean accept(CharSequence line, ApacheLogRecord fields);
+
+    /**
+     * Accepts the lines containing the text anywhere
+     */
+    public static ApacheLogFilter contains(final String text) {
+        return new ApacheLogFilter() {
+            @Override
+            public boolean accept(CharSequence line, ApacheLogRecord fields) {
+                return indexOf(line, 0, line.length(), encode(text, line)) >= 0;
+            }
+        };
+    }
+
+    /**
+     * Accepts the lines where the field contains the text
+     */
+    public static ApacheLogFilter contains(String field, final String text) {
+        return new FieldFilter(field) {
+            @Override
+            boolean accept(CharSequence line, int start, int end) {
+                return indexOf(line, start, end, encode(text, line)) >= 0;
+            }
+        };
+    }
+
+    /**
+     * Accepts the lines where the field is exactly the value
+     */
+    public static ApacheLogFilter is(String field, final String value) {
+        return new FieldFilter(field) {
+            @Override
+            boolean accept(CharSequence line, int start, int end) {
+                String encoded = encode(value, line);
+                return end - start == encoded.length() && regionMatches(line, start, encoded);
+            }
+        };
+    }
+
+    /**
+     * Accepts the lines where the field starts with the prefix
+     */
+    public static ApacheLogFilter startsWith(String field, final String prefix) {
+        return new FieldFilter(field) {
+            @Override
+            boolean accept(CharSequence line, int start, int end) {
+                String encoded = encode(prefix, line);
+                return end - start >= encoded.length() && regionMatches(line, start, encoded);
+            }
+        };
+    }
+
+    /**
+     * Accepts the lines where the path of the request field (%r, "GET /path HTTP/1.1") starts with the prefix
+     */
+    public static ApacheLogFilter pathStartsWith(String field, final String prefix) {
+        return new FieldFilter(field) {
+            @Override
+            boolean accept(CharSequence line, int start, int end) {
+                String encoded = encode(prefix, line);
+                int space = indexOf(line, start, end, " ");
+                int path = space < 0 ? start : space + 1;
+                return end - path >= encoded.length() && regionMatches(line, path, encoded);
+            }
+        };
+    }
+
+    /**
+     * Accepts the lines where the field is a number between min and max, both included. Fields that are not
+     * numbers, like the "-" logged for an empty %b, are rejected.
+     */
+    public static ApacheLogFilter between(String field, final long min, final long max) {
+        return new FieldFilter(field) {
+            @Override
+            boolean accept(CharSequence line, int start, int end) {
+                if (start == end || end - start > 18) {
+                    return false;
+                }
+                long value = 0;
+                for (int i = start; i < end; ++i) {
+                    char c = line.charAt(i);
+                    if (c < '0' || c > '9') {
+                        return false;
+                    }
+                    value = value * 10 + (c - '0');
+                }
+                return value >= min && value <= max;
+            }
+        };
+    }
+
+    /**
+     * Accepts the lines accepted by all the filters
+     */
+    public static ApacheLogFilter and(final ApacheLogFilter... filters) {
+        return new CompositeFilter(filters) {
+            @Override
+            public boolean accept(CharSequence line, ApacheLogRecord fields) {
+                for (ApacheLogFilter filter : filters) {
+                    if (!filter.accept(line, fields)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Accepts the lines accepted by any of the filters
+     */
+    public static ApacheLogFilter or(final ApacheLogFilter... filters) {
+        return new CompositeFilter(filters) {
+            @Override
+            public boolean accept(CharSequence line, ApacheLogRecord fields) {
+                for (ApacheLogFilter filter : filters) {
+                    if (filter.accept(line, fields)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Accepts the lines rejected by the filter
+     */
+    public static ApacheLogFilter not(final ApacheLogFilter filter) {
+        return new CompositeFilter(filter) {
+            @Override
+            public boolean accept(CharSequence line, ApacheLogRecord fields) {
+                return !filter.accept(line, fields);
+            }
+        };
+    }
+
+    /**
+     * @return the text as it shows up in the line: unchanged for Strings, one char per encoded byte for byte lines
+     */
+    static String encode(String text, CharSequence line) {
+        if (!(line instanceof ApacheLogByteLine)) {
+            return text;
+        }
+        for (int i = 0; i < text.length(); ++i) {
+            if (text.charAt(i) > 0x7f) {
+                return new String(text.getBytes(((ApacheLogByteLine) line).getCharset()), LATIN1);
+            }
+        }
+        return text;
+    }
+
+    /**
+     * @return the position of the text in line[start, end), -1 if not found
+     */
+    static int indexOf(CharSequence line, int start, int end, String text) {
+        if (text.length() == 0) {
+            return start;
+        }
+        char first = text.charAt(0);
+        int last = end - text.length();
+        for (int i = start; i <= last; ++i) {
+            if (line.charAt(i) == first && regionMatches(line, i, text)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean regionMatches(CharSequence line, int start, String text) {
+        for (int i = 0; i < text.length(); ++i) {
+            if (line.charAt(start + i) != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Tests the value of a single field, lines where the field didn't match are rejected
+     */
+    private abstract static class FieldFilter extends ApacheLogFilter {
+        private final String field;
+
+        FieldFilter(String field) {
+            this.field = field;
+        }
+
+        @Override
+        public String[] getFields() {
+            return new String[] {field};
+        }
+
+        @Override
+        public boolean accept(CharSequence line, ApacheLogRecord fields) {
+            int index = fields == null ? -1 : fields.indexOf(field);
+            if (index < 0 || fields.isNull(index)) {
+                return false;
+            }
+            return accept(fields.getLine(), fields.getStart(index), fields.getEnd(index));
+        }
+
+        abstract boolean accept(CharSequence line, int start, int end);
+    }
+
+    private abstract static class CompositeFilter extends ApacheLogFilter {
+        private final String[] fields;
+
+        CompositeFilter(ApacheLogFilter... filters) {
+            Set<String> fields = new LinkedHashSet<String>();
+            for (ApacheLogFilter filter : filters) {
+                fields.addAll(Arrays.asList(filter.getFields()));
+            }
+            this.fields = fields.toArray(new String[fields.size()]);
+        }
+
+        @Override
+        public String[] getFields() {
+            return fields.clone();
+        }
+    }
+}
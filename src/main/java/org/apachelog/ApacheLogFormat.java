@@ -0,0 +1,267 @@
+package org.apachelog;
+
+import org.apache.commons.lang.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * A log format compiled into the regular expression and the tokenizer that match its lines. Compiled formats are
+ * immutable, so a single one is shared by every parser, thread and file using the same format: get them with
+ * {@link #compile(String)}, which caches the last 256 formats compiled, and parse with
+ * {@link ApacheLogParser#ApacheLogParser(ApacheLogFormat)}. Known formats are registered in {@link ApacheLogFormats}.
+ */
+public final class ApacheLogFormat {
+    private static final int CACHE_SIZE = 256;
+    private static final Pattern WHITESPACE = Pattern.compile("[ \t]+");
+    private static final Pattern REFERRER_AGENT = Pattern.compile("Referer|User-Agent");
+
+    private static final Map<String, ApacheLogFormat> cache = new LinkedHashMap<String, ApacheLogFormat>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, ApacheLogFormat> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    private final String format;
+    final String[] elements;
+    final int[] kinds;
+    final List<String> names;
+    final Set<String> projection;
+    final boolean partial;
+    /** True if the whole line is matched even after the last projected field */
+    final boolean whole;
+    /** The spaces a line needs at least, one between each element of the whole format */
+    final int minSpaces;
+    /** The first character of a matching line, 0 if it can be anything */
+    final char leading;
+    /** True if an element matches the rest of the line, %_ */
+    final boolean catchAll;
+    final Pattern pattern;
+    final ApacheLogTokenizer tokenizer;
+    final String[] nameArray;
+    final Map<String, Integer> nameIndexes;
+
+    /**
+     * @param aliases maps the names in the format to the names of the fields, names without an alias are kept
+     * @param whole is true to match the whole line, false to stop after the last projected field
+     */
+    private ApacheLogFormat(String format, Collection<String> projection, Map<String, String> aliases, boolean whole) throws ApacheLogParserException {
+        this.format = format;
+        this.whole = whole;
+        this.projection = projection == null ? null : Collections.unmodifiableSet(new TreeSet<String>(projection));
+        elements = split(format);
+        List<String> names = new ArrayList<String>(elements.length);
+        List<String> subPatterns = new ArrayList<String>(elements.length);
+        kinds = new int[elements.length];
+        int index = 0;
+
+        for (String element : elements) {
+            boolean hasQuotes = element.startsWith("\"");
+
+            if (hasQuotes) {
+                element = StringUtils.strip(element, "\"");
+            }
+
+            names.add(aliases.containsKey(element) ? aliases.get(element) : element);
+
+            String subPattern = "(\\S*)";
+            int kind = ApacheLogTokenizer.PLAIN;
+            if (hasQuotes) {
+                if (element.equals("%r") || REFERRER_AGENT.matcher(element).find()) {
+                    subPattern = "\"([^\"\\\\]*(?:\\\\.[^\"\\\\]*)*)\"";
+                    kind = ApacheLogTokenizer.ESCAPED_QUOTED;
+                } else {
+                    subPattern = "\"([^\"]*)\"";
+                    kind = ApacheLogTokenizer.QUOTED;
+                }
+            } else if (element.startsWith("%") && element.endsWith("t")) {
+                subPattern = "(\\[[^\\]]+\\])";
+                kind = ApacheLogTokenizer.BRACKETED;
+            } else if (element.contains("X-Forwarded-For")) {
+                subPattern = "((?:\\S*,\\s)*\\S*)";
+                kind = ApacheLogTokenizer.FORWARDED_FOR;
+            } else if (element.equals("%U")) {
+                subPattern = "(.+?)";
+                kind = ApacheLogTokenizer.LAZY;
+            } else if (element.equals("%_")) {
+                subPattern = "(.+)?";
+                kind = ApacheLogTokenizer.REST;
+            }
+
+            subPatterns.add(subPattern);
+            kinds[index++] = kind;
+        }
+        this.names = Collections.unmodifiableList(names);
+
+        int[] slots = new int[kinds.length];
+        List<String> projected = new ArrayList<String>(names.size());
+        int limit = 0;
+        for (int i = 0; i < kinds.length; ++i) {
+            if (projection == null || this.projection.contains(names.get(i))) {
+                slots[i] = projected.size();
+                projected.add(names.get(i));
+                limit = i + 1;
+            } else {
+                slots[i] = -1;
+                subPatterns.set(i, subPatterns.get(i).replaceFirst("\\(", "(?:"));
+            }
+        }
+        if (whole || limit == 0 || kinds[limit - 1] == ApacheLogTokenizer.REST) {
+            // %_ takes all but the last word when something follows, don't cut right after it
+            limit = kinds.length;
+        }
+        partial = limit < kinds.length;
+        minSpaces = Math.max(0, kinds.length - 1);
+        leading = kinds.length == 0 ? 0 : kinds[0] == ApacheLogTokenizer.BRACKETED ? '['
+                : kinds[0] == ApacheLogTokenizer.QUOTED || kinds[0] == ApacheLogTokenizer.ESCAPED_QUOTED ? '"' : 0;
+        boolean catchAll = false;
+        for (int kind : kinds) {
+            catchAll |= kind == ApacheLogTokenizer.REST;
+        }
+        this.catchAll = catchAll;
+
+        tokenizer = new ApacheLogTokenizer(kinds, slots, limit);
+        nameArray = projected.toArray(new String[projected.size()]);
+        Map<String, Integer> nameIndexes = new HashMap<String, Integer>();
+        for (int i = 0; i < nameArray.length; ++i) {
+            nameIndexes.put(nameArray[i], i);
+        }
+        this.nameIndexes = Collections.unmodifiableMap(nameIndexes);
+
+        try {
+            // only \n ends a line, the same as the tokenizer, see ApacheLogTokenizer.isLineTerminator
+            if (partial) {
+                pattern = Pattern.compile('^' + StringUtils.join(subPatterns.subList(0, limit), ' ') + "(?= |$)", Pattern.UNIX_LINES);
+            } else {
+                pattern = Pattern.compile('^' + StringUtils.join(subPatterns, ' ') + '$', Pattern.UNIX_LINES);
+            }
+        } catch (PatternSyntaxException ex) {
+            throw new ApacheLogParserException("Unable to parse format", ex);
+        }
+    }
+
+    /**
+     * @return the compiled format, from the cache if it was compiled already
+     */
+    public static ApacheLogFormat compile(String format) throws ApacheLogParserException {
+        return compile(format, null, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * @param projection is the names of the fields extracted, null for all of them, see
+     * {@link ApacheLogParser#setProjection(Collection)}
+     */
+    public static ApacheLogFormat compile(String format, Collection<String> projection) throws ApacheLogParserException {
+        return compile(format, projection, Collections.<String, String>emptyMap());
+    }
+
+    /**
+     * @param aliases maps names in the format to other field names, see {@link ApacheLogParser#getAlias(String)}.
+     * The projection is on the aliases.
+     */
+    public static ApacheLogFormat compile(String format, Collection<String> projection, Map<String, String> aliases) throws ApacheLogParserException {
+        return compile(format, projection, aliases, false);
+    }
+
+    /**
+     * @param whole is true to match the whole line even with a projection, so a line of a longer format with the
+     * same prefix isn't taken for this one
+     */
+    static ApacheLogFormat compile(String format, Collection<String> projection, Map<String, String> aliases, boolean whole) throws ApacheLogParserException {
+        String normalized = normalize(format);
+        StringBuilder key = new StringBuilder(normalized);
+        key.append('\n').append(projection == null ? "*" : new TreeSet<String>(projection).toString());
+        if (!aliases.isEmpty()) {
+            key.append('\n').append(new TreeMap<String, String>(aliases).toString());
+        }
+        if (whole) {
+            key.append("\nwhole");
+        }
+        String cacheKey = key.toString();
+        ApacheLogFormat compiled;
+        synchronized (cache) {
+            compiled = cache.get(cacheKey);
+        }
+        if (compiled == null) {
+            // compiled outside of the lock, two threads may compile the same format once
+            compiled = new ApacheLogFormat(normalized, projection, aliases, whole);
+            synchronized (cache) {
+                cache.put(cacheKey, compiled);
+            }
+        }
+        return compiled;
+    }
+
+    /**
+     * @return the same format with a different projection
+     */
+    public ApacheLogFormat project(Collection<String> projection) throws ApacheLogParserException {
+        return project(projection, false);
+    }
+
+    /**
+     * @param whole is true to match the whole line, see {@link #compile(String, Collection, Map, boolean)}
+     */
+    ApacheLogFormat project(Collection<String> projection, boolean whole) throws ApacheLogParserException {
+        Map<String, String> aliases = new HashMap<String, String>();
+        for (int i = 0; i < elements.length; ++i) {
+            String name = StringUtils.strip(elements[i], "\"");
+            if (!name.equals(names.get(i))) {
+                aliases.put(name, names.get(i));
+            }
+        }
+        return compile(format, projection, aliases, whole);
+    }
+
+    /**
+     * @return the elements of the format, with their quotes
+     */
+    static String[] split(String format) {
+        return StringUtils.split(normalize(format), ' ');
+    }
+
+    private static String normalize(String format) {
+        return WHITESPACE.matcher(StringUtils.strip(format)).replaceAll(" ");
+    }
+
+    /**
+     * @return the format, with its blanks collapsed to single spaces
+     */
+    public String getFormat() {
+        return format;
+    }
+
+    /**
+     * @return the names of all the fields in the format, after aliasing
+     */
+    public List<String> getNames() {
+        return names;
+    }
+
+    /**
+     * @return the names of the fields extracted, null for all of them
+     */
+    public Set<String> getProjection() {
+        return projection;
+    }
+
+    public Pattern getPattern() {
+        return pattern;
+    }
+
+    @Override
+    public String toString() {
+        return format + (projection == null ? "" : " " + projection);
+    }
+}
@@ -0,0 +1,77 @@
+package org.apachelog;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of the log formats known by name: Apache's common, combined and vhost formats and the syslog formats of
+ * our web servers. More formats can be registered, {@link #get(String)} compiles them once through the cache of
+ * {@link ApacheLogFormat}.
+ */
+public final class ApacheLogFormats {
+    public static final String COMMON = "%h %l %u %t \"%r\" %>s %b";
+    public static final String COMBINED = COMMON + " \"%{Referer}i\" \"%{User-Agent}i\"";
+    public static final String VHOST_COMMON = "%v " + COMMON;
+    public static final String VHOST_COMBINED = "%v:%p " + COMBINED;
+    /** Apache lines forwarded by syslog, with the client IPs added by the load balancers and %D */
+    public static final String SYSLOG = "%syslog_ti %syslog_ws %syslog_n %{X-Forwarded-For}i %l %u %t %{Host}i \"%r\" %>s %b \"%{Referer}i\" \"%{User-Agent}i\" %D";
+    /** The syslog header of any line, to salvage lines that don't match {@link #SYSLOG} */
+    public static final String SYSLOG_INVALID = "%syslog_ti %syslog_ws %syslog_n %_";
+
+    private static final Map<String, String> formats = new ConcurrentHashMap<String, String>();
+
+    static {
+        formats.put("common", COMMON);
+        formats.put("combined", COMBINED);
+        formats.put("vhost_common", VHOST_COMMON);
+        formats.put("vhost_combined", VHOST_COMBINED);
+        formats.put("syslog", SYSLOG);
+        formats.put("syslog_invalid", SYSLOG_INVALID);
+    }
+
+    private ApacheLogFormats() {
+    }
+
+    /**
+     * Registers a format, replacing any other with the same name
+     *
+     * @throws ApacheLogParserException if the format can't be compiled
+     */
+    public static void register(String name, String format) throws ApacheLogParserException {
+        ApacheLogFormat.compile(format);
+        formats.put(name, format);
+    }
+
+    public static boolean contains(String name) {
+        return formats.containsKey(name);
+    }
+
+    /**
+     * @return the names of the registered formats, sorted
+     */
+    public static Set<String> getNames() {
+        return new TreeSet<String>(formats.keySet());
+    }
+
+    /**
+     * @return the format registered with the name
+     * @throws ApacheLogParserException if there's no such format
+     */
+    public static String getFormat(String name) throws ApacheLogParserException {
+        String format = formats.get(name);
+        if (format == null) {
+            throw new ApacheLogParserException("Unknown log format: " + name);
+        }
+        return format;
+    }
+
+    /**
+     * @return the compiled format registered with the name
+     * @throws ApacheLogParserException if there's no such format
+     */
+    public static ApacheLogFormat get(String name) throws ApacheLogParserException {
+        return ApacheLogFormat.compile(getFormat(name));
+    }
+}
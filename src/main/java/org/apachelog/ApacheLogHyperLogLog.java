@@ -0,0 +1,73 @@
+package org.apachelog;
+
+/**
+ * HyperLogLog: estimates the number of distinct keys in 2^precision bytes, with a standard error of about
+ * 1.04 / sqrt(2^precision), i.e. 0.8% for the default precision of 14. Not thread safe.
+ */
+public class ApacheLogHyperLogLog {
+    private final int precision;
+    private final byte[] registers;
+
+    public ApacheLogHyperLogLog() {
+        this(14);
+    }
+
+    /**
+     * @param precision between 4 and 18
+     */
+    public ApacheLogHyperLogLog(int precision) {
+        if (precision < 4 || precision > 18) {
+            throw new IllegalArgumentException("Precision must be between 4 and 18: " + precision);
+        }
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    /**
+     * @param hash is the 64 bit hash of the key, see {@link ApacheLogRequestDecoder#hash(CharSequence)}
+     */
+    public void add(long hash) {
+        int index = (int) (hash >>> (64 - precision));
+        int rank = Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+        if (rank > registers[index]) {
+            registers[index] = (byte) rank;
+        }
+    }
+
+    public void add(CharSequence key) {
+        add(ApacheLogRequestDecoder.hash(key));
+    }
+
+    public long estimate() {
+        int m = registers.length;
+        double sum = 0;
+        int zeros = 0;
+        for (byte register : registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                ++zeros;
+            }
+        }
+        double alpha = 0.7213 / (1 + 1.079 / m);
+        double estimate = alpha * m * m / sum;
+        if (estimate <= 2.5 * m && zeros > 0) {
+            // linear counting is more accurate for small cardinalities
+            estimate = m * Math.log((double) m / zeros);
+        }
+        return Math.round(estimate);
+    }
+
+    /**
+     * Adds the keys of other, which must have the same precision
+     */
+    public void merge(ApacheLogHyperLogLog other) {
+        if (other.precision != precision) {
+            throw new IllegalArgumentException("Can't merge a precision " + other.precision + " into " + precision);
+        }
+        for (int i = 0; i < registers.length; ++i) {
+            if (other.registers[i] > registers[i]) {
+                registers[i] = other.registers[i];
+            }
+        }
+    }
+}
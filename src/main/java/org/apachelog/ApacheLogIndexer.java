@@ -1,22 +1,25 @@
 package org.apachelog;
 
-import org.apache.commons.lang.StringUtils;
-import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.SolrServer;
 import org.apache.solr.client.solrj.impl.CloudSolrServer;
-import org.apache.solr.common.SolrException;
-import org.apache.solr.common.SolrInputDocument;
 
 import java.io.*;
 import java.net.MalformedURLException;
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.nio.charset.Charset;
+import java.nio.file.NoSuchFileException;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
- * This class provides basic functionality to index the logs into a Solr Index (uses SolrCloud)
+ * This class provides basic functionality to index the logs into a Solr Index (uses SolrCloud). The parsed lines
+ * can be written somewhere else with {@link #setSink(ApacheLogSink)}, see {@link ApacheLogCsvSink} and
+ * {@link ApacheLogJsonSink}.
  *
  * Example schema:
  *
@@ -41,27 +44,94 @@ import java.util.regex.Pattern;
  */
 public class ApacheLogIndexer {
     private static int DEFAULT_BATCH_SIZE = 2000;
+    private static int RANGES_PER_THREAD = 4;
+    private static long MULTI_FILE_RANGE_SIZE = 32 * 1024 * 1024;
 
     private String serverUrl = "localhost:8900";
     private ApacheLogParser parser;
     private ApacheLogParser invalidLineParser;
-    private Pattern findResponseCode;
     private int batchSize = DEFAULT_BATCH_SIZE;
+    private Charset charset = Charset.forName("UTF-8");
+    private int threads = 1;
+    private int senderThreads = 2;
+    private int maxBatchesInFlight = 4;
+    private int maxRetries = 3;
+    private long retryDelay = 1000;
+    private ApacheLogCommitPolicy commitPolicy = ApacheLogCommitPolicy.NONE;
+    private int commitWithin = 5000;
+    private int commitDocuments = 100000;
+    private long commitInterval = 60000;
+    private boolean finalCommit = true;
+    private long flushInterval = 1000;
+    private File checkpointFile;
+    private SolrServer server;
+    private ApacheLogSink<?> sink;
+    private ApacheLogMetrics metrics = new ApacheLogMetrics();
+    private long reportInterval;
+    private boolean timeIndexed;
+    private ApacheLogMetricsReporter reporter;
+    private volatile boolean stopped;
 
     public ApacheLogIndexer(ApacheLogParser parser, ApacheLogParser invalidLineParser) {
         this.parser = parser;
         this.invalidLineParser = invalidLineParser;
-        this.findResponseCode = Pattern.compile("HTTP/1\\.1\"\\s(\\d+)\\s");
     }
 
     public void setServerUrl(String serverUrl) {
         this.serverUrl = serverUrl;
+        this.server = null;
     }
 
     public String getServerUrl() {
         return serverUrl;
     }
 
+    /**
+     * @return the Solr server shared by every call, connected to getServerUrl() on first use
+     */
+    public synchronized SolrServer getServer() throws MalformedURLException {
+        if (server == null) {
+            CloudSolrServer cloudServer = new CloudSolrServer(getServerUrl());
+            System.out.println("Connecting to '" + getServerUrl() + "'");
+            cloudServer.setDefaultCollection("apachelog");
+            server = cloudServer;
+        }
+        return server;
+    }
+
+    /**
+     * Sets the Solr server to index into instead of connecting to getServerUrl()
+     */
+    public synchronized void setServer(SolrServer server) {
+        this.server = server;
+    }
+
+    public ApacheLogSink<?> getSink() {
+        return sink;
+    }
+
+    /**
+     * Sets where the parsed lines go instead of Solr, e.g. an {@link ApacheLogCsvSink}. The sink is started and
+     * closed by each call to index or follow. Null (the default) sends the lines to getServer(), and then the
+     * sender and commit settings of the indexer apply.
+     */
+    public void setSink(ApacheLogSink<?> sink) {
+        this.sink = sink;
+    }
+
+    public ApacheLogFilter getFilter() {
+        return parser.getFilter();
+    }
+
+    /**
+     * Skips the lines rejected by the filter before they are parsed or turned into documents, they are counted
+     * as filtered. The filter is set on the parser, see {@link ApacheLogParser#setFilter(ApacheLogFilter)}. Lines
+     * where the filter can't read its fields are salvaged first and the filter checks the fields salvaged.
+     */
+    public void setFilter(ApacheLogFilter filter) throws ApacheLogParserException {
+        parser.setFilter(filter);
+    }
+
     public void setBatchSize(int batchSize) {
         this.batchSize = batchSize;
     }
@@ -70,184 +140,804 @@ public class ApacheLogIndexer {
         return batchSize;
     }
 
+    public Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * Sets the charset of the log files, it must be ASCII compatible (e.g. UTF-8 or ISO-8859-1). Defaults to UTF-8
+     */
+    public void setCharset(Charset charset) {
+        ApacheLogByteLine.checkCharset(charset);
+        this.charset = charset;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    /**
+     * Sets the number of threads used to index a file. With more than one thread the file is split in ranges
+     * aligned on line boundaries which are parsed and sent to Solr concurrently, so lines are not indexed in
+     * order. Compressed files (gzip, bzip2 or zstd) can't be split, they are decompressed on a separate thread
+     * and parsed on the calling thread.
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    public int getSenderThreads() {
+        return senderThreads;
+    }
+
+    /**
+     * Sets the number of threads sending batches to Solr while the log is parsed
+     */
+    public void setSenderThreads(int senderThreads) {
+        this.senderThreads = senderThreads;
+    }
+
+    public int getMaxBatchesInFlight() {
+        return maxBatchesInFlight;
+    }
+
+    /**
+     * Sets how many batches can be queued or sent at the same time. Parsing blocks once the limit is reached so
+     * memory is bound when Solr can't keep up.
+     */
+    public void setMaxBatchesInFlight(int maxBatchesInFlight) {
+        this.maxBatchesInFlight = maxBatchesInFlight;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * Sets how many times a failed batch is sent again before indexing fails
+     */
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    public long getRetryDelay() {
+        return retryDelay;
+    }
+
+    /**
+     * Sets the delay in milliseconds before the first retry of a failed batch, it doubles on each retry
+     */
+    public void setRetryDelay(long retryDelay) {
+        this.retryDelay = retryDelay;
+    }
+
+    public ApacheLogCommitPolicy getCommitPolicy() {
+        return commitPolicy;
+    }
+
+    /**
+     * Sets when to commit while indexing, defaults to NONE: rely on the autoCommit of the collection and commit
+     * once at the end
+     */
+    public void setCommitPolicy(ApacheLogCommitPolicy commitPolicy) {
+        this.commitPolicy = commitPolicy;
+    }
+
+    public int getCommitWithin() {
+        return commitWithin;
+    }
+
+    /**
+     * Sets the commitWithin in milliseconds used by the COMMIT_WITHIN policy
+     */
+    public void setCommitWithin(int commitWithin) {
+        this.commitWithin = commitWithin;
+    }
+
+    public int getCommitDocuments() {
+        return commitDocuments;
+    }
+
+    /**
+     * Sets the number of documents between commits for the DOCUMENTS policy
+     */
+    public void setCommitDocuments(int commitDocuments) {
+        this.commitDocuments = commitDocuments;
+    }
+
+    public long getCommitInterval() {
+        return commitInterval;
+    }
+
+    /**
+     * Sets the milliseconds between commits for the INTERVAL policy
+     */
+    public void setCommitInterval(long commitInterval) {
+        this.commitInterval = commitInterval;
+    }
+
+    public boolean isFinalCommit() {
+        return finalCommit;
+    }
+
+    /**
+     * Sets whether to commit once the whole log is indexed, true by default
+     */
+    public void setFinalCommit(boolean finalCommit) {
+        this.finalCommit = finalCommit;
+    }
+
+    public long getFlushInterval() {
+        return flushInterval;
+    }
+
+    /**
+     * Sets how long in milliseconds {@link #follow(File)} lets documents wait for a batch to fill up
+     */
+    public void setFlushInterval(long flushInterval) {
+        this.flushInterval = flushInterval;
+    }
+
+    public File getCheckpointFile() {
+        return checkpointFile;
+    }
+
+    /**
+     * Sets the file where {@link #index(File)} saves how far it got each time Solr acknowledges a batch. If the
+     * checkpoint was taken from the same log the next run resumes from there instead of reading and sending
+     * everything again, lines appended since then are indexed too. Null (the default) disables checkpoints.
+     */
+    public void setCheckpointFile(File checkpointFile) {
+        this.checkpointFile = checkpointFile;
+    }
+
+    public ApacheLogMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets the metrics updated while indexing, by default each indexer has its own. Register them with
+     * {@link ApacheLogMetrics#register(String)} to read them through JMX.
+     */
+    public void setMetrics(ApacheLogMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public long getReportInterval() {
+        return reportInterval;
+    }
+
+    /**
+     * Sets the milliseconds between the metrics reports printed while indexing, 0 (the default) disables them
+     */
+    public void setReportInterval(long reportInterval) {
+        this.reportInterval = reportInterval;
+    }
+
+    public boolean isTimeIndexed() {
+        return timeIndexed;
+    }
+
+    /**
+     * Updates the time index of each uncompressed log once it is indexed, see
+     * {@link ApacheLogTimeIndex#getIndexFile(File)}. Defaults to false.
+     */
+    public void setTimeIndexed(boolean timeIndexed) {
+        this.timeIndexed = timeIndexed;
+    }
+
     public void index(String filename) throws FileNotFoundException, MalformedURLException, ApacheLogIndexerException {
         index(new File(filename));
     }
 
+    /**
+     * Indexes a log, or every log under a directory, see {@link #index(List)}
+     */
     public void index(File file) throws FileNotFoundException, MalformedURLException, ApacheLogIndexerException {
-        BufferedReader in = null;
-
-        in = new BufferedReader(new FileReader(file));
-
-        String line = null;
-        CloudSolrServer server = new CloudSolrServer(getServerUrl());
-        System.out.println("Connecting to '" + getServerUrl() + "'");
-        server.setDefaultCollection("apachelog");
-        DateFormat dateFormat = new SimpleDateFormat("[dd/MMM/yyyy:HH:mm:ss Z]");
-        DateFormat syslogDateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssz");
-        List<SolrInputDocument> docs = new ArrayList<SolrInputDocument>(getBatchSize());
- 
+        if (file.isDirectory()) {
+            List<File> files = new ArrayList<File>();
+            listFiles(file, files);
+            index(files);
+            return;
+        }
+
+        long[] ranges = null;
+        ApacheLogCheckpoint checkpoint = null;
+        ApacheLogCompression compression;
+
         try {
-            Map<String, String> fields = new HashMap<String, String>();
-            int processed = 0;
-            while ((line = in.readLine()) != null) {
-                ++processed;
-                fields.clear();
-                try {
-                    parser.parse(line, fields);
-                } catch (ApacheLogParserException ex) {
-                    try {
-                        invalidLineParser.parse(line + " ", fields);
-                        SolrInputDocument doc = createInvalidLineDocument(line, syslogDateFormat, fields);
-                        addDocument(server, docs, doc);
-                    } catch (ApacheLogParserException ex2) {
-                        // log exception from the non invalid line
-                        ex2.printStackTrace(System.err);
+            compression = ApacheLogCompression.detect(file);
+            if (compression == ApacheLogCompression.NONE) {
+                if (getCheckpointFile() != null) {
+                    checkpoint = ApacheLogCheckpoint.load(getCheckpointFile());
+                    if (checkpoint != null && !checkpoint.matches(file)) {
+                        System.out.println("Checkpoint '" + getCheckpointFile() + "' is for another file, starting from the beginning");
+                        checkpoint = null;
                     }
-                    continue;                    
                 }
-
-                SolrInputDocument doc = createDocument(line, dateFormat, fields);
-                addDocument(server, docs, doc);
-            }
-            if (docs.size() > 0) {
-                server.add(docs);
-                docs.clear();
+                if (checkpoint != null) {
+                    checkpoint.setEnd(file.length());
+                    ranges = checkpoint.getBoundaries();
+                    System.out.println("Resuming " + file.getName() + " after line " + checkpoint.getLines());
+                } else {
+                    ranges = ApacheLogMappedReader.split(file, getThreads() > 1 ? getThreads() * RANGES_PER_THREAD : 1);
+                    if (getCheckpointFile() != null) {
+                        checkpoint = ApacheLogCheckpoint.create(getCheckpointFile(), file, ranges);
+                        checkpoint.save();
+                    }
+                }
+            } else if (getCheckpointFile() != null) {
+                // compressed files can't be split or resumed, they are streamed
+                System.out.println("Checkpoints are not supported for " + compression + " compressed files, ignoring '" + getCheckpointFile() + "'");
             }
-            System.out.println("Processed " + processed);
+        } catch (FileNotFoundException ex) {
+            throw ex;
         } catch (IOException ex) {
             throw new ApacheLogIndexerException("Exception reading file " + file.getName(), ex);
-        } catch (SolrServerException ex) {
-            throw new ApacheLogIndexerException("Exception indexing log line " + line, ex);
-        } catch (SolrException ex) {
-            throw new ApacheLogIndexerException("Exception indexing log line " + line, ex);
+        }
+
+        ApacheLogSink<?> sink = startSink(getCommitPolicy());
+
+        try {
+            FileSummary summary = new FileSummary(file);
+            if (compression != ApacheLogCompression.NONE) {
+                indexStream(file, sink, summary);
+            } else if (ranges.length > 2) {
+                indexRanges(file, ranges, sink, checkpoint, summary);
+            } else {
+                indexRange(file, 0, ranges[0], ranges[ranges.length - 1], sink, checkpoint, summary);
+            }
+            System.out.println("Processed " + summary.processed + ", failed " + summary.failed + ", filtered " + summary.filtered);
         } finally {
+            close(sink);
+        }
+        if (compression == ApacheLogCompression.NONE) {
+            updateTimeIndex(file);
+        }
+    }
+
+    /**
+     * Indexes several logs with a single Solr connection and a pool of getThreads() threads. Each log is split in
+     * ranges of about 32MB and the ranges of all the logs are interleaved, so a large log doesn't keep the others
+     * waiting. A log that fails doesn't stop the others. The lines processed and failed in each log are printed
+     * at the end. Checkpoints are only supported when indexing a single file.
+     *
+     * @throws ApacheLogIndexerException if any of the logs failed
+     */
+    public void index(List<File> files) throws FileNotFoundException, MalformedURLException, ApacheLogIndexerException {
+        List<FileSummary> summaries = new ArrayList<FileSummary>(files.size());
+        List<long[]> ranges = new ArrayList<long[]>(files.size());
+
+        for (File file : files) {
             try {
-                server.commit(false, true, false);
-            } catch (SolrServerException ex) {
-                throw new ApacheLogIndexerException("Exception while committing", ex);
+                if (ApacheLogCompression.detect(file) == ApacheLogCompression.NONE) {
+                    ranges.add(ApacheLogMappedReader.split(file, (int) Math.max(1, file.length() / MULTI_FILE_RANGE_SIZE)));
+                } else {
+                    ranges.add(null);
+                }
+            } catch (FileNotFoundException ex) {
+                throw ex;
             } catch (IOException ex) {
-                throw new ApacheLogIndexerException("Exception while committing", ex);
+                throw new ApacheLogIndexerException("Exception reading file " + file.getName(), ex);
+            }
+            summaries.add(new FileSummary(file));
+        }
+        if (getCheckpointFile() != null) {
+            System.out.println("Checkpoints are only supported when indexing a single file, ignoring '" + getCheckpointFile() + "'");
+        }
+
+        ApacheLogSink<?> sink = startSink(getCommitPolicy());
+        ExecutorService executor = Executors.newFixedThreadPool(getThreads());
+        int failedFiles = 0;
+
+        try {
+            // compressed logs can't be split, start them first since they take the longest
+            List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+            List<FileSummary> taskSummaries = new ArrayList<FileSummary>();
+            for (int i = 0; i < files.size(); ++i) {
+                if (ranges.get(i) == null) {
+                    tasks.add(createTask(files.get(i), null, 0, sink, summaries.get(i)));
+                    taskSummaries.add(summaries.get(i));
+                }
             }
-            if (in != null) {
+            // then the first range of every log, the second range of every log...
+            for (int range = 0; ; ++range) {
+                boolean added = false;
+                for (int i = 0; i < files.size(); ++i) {
+                    long[] boundaries = ranges.get(i);
+                    if (boundaries != null && range < boundaries.length - 1) {
+                        tasks.add(createTask(files.get(i), boundaries, range, sink, summaries.get(i)));
+                        taskSummaries.add(summaries.get(i));
+                        added = true;
+                    }
+                }
+                if (!added) {
+                    break;
+                }
+            }
+
+            List<Future<Void>> results = new ArrayList<Future<Void>>(tasks.size());
+            for (Callable<Void> task : tasks) {
+                results.add(executor.submit(task));
+            }
+            for (int i = 0; i < results.size(); ++i) {
                 try {
-                    in.close();
-                } catch (IOException ex) {
-                    throw new ApacheLogIndexerException("Exception closing file " + file.getName(), ex);    
+                    results.get(i).get();
+                } catch (ExecutionException ex) {
+                    FileSummary summary = taskSummaries.get(i);
+                    if (summary.error == null) {
+                        summary.error = ex.getCause();
+                        ++failedFiles;
+                        System.err.println("Exception indexing file " + summary.file.getPath() + ": " + ex.getCause());
+                    }
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ApacheLogIndexerException("Interrupted while indexing files", ex);
+        } finally {
+            executor.shutdownNow();
+            try {
+                close(sink);
+            } finally {
+                long processed = 0;
+                for (FileSummary summary : summaries) {
+                    System.out.println(summary);
+                    processed += summary.processed.get();
                 }
+                System.out.println("Processed " + processed + " lines in " + files.size() + " files");
             }
         }
+        for (int i = 0; i < files.size(); ++i) {
+            if (ranges.get(i) != null && summaries.get(i).error == null) {
+                updateTimeIndex(files.get(i));
+            }
+        }
+        if (failedFiles > 0) {
+            throw new ApacheLogIndexerException(failedFiles + " of " + files.size() + " files failed");
+        }
     }
 
-    private void addDocument(CloudSolrServer server, List<SolrInputDocument> docs, SolrInputDocument doc) throws SolrServerException, IOException {
-        if (doc != null) {
-            docs.add(doc);
-            if (docs.size() >= getBatchSize()) {
-                server.add(docs);
-                docs.clear();
-                server.commit(false, true, true);
+    /**
+     * Brings the time index of the log up to date if isTimeIndexed()
+     */
+    private void updateTimeIndex(File file) throws ApacheLogIndexerException {
+        if (!isTimeIndexed()) {
+            return;
+        }
+        File indexFile = ApacheLogTimeIndex.getIndexFile(file);
+        try {
+            ApacheLogTimeIndex index = ApacheLogTimeIndex.open(indexFile);
+            index.update(file, parser, getCharset());
+            index.save(indexFile);
+        } catch (IOException ex) {
+            throw new ApacheLogIndexerException("Exception updating the time index of " + file.getName(), ex);
+        } catch (ApacheLogParserException ex) {
+            throw new ApacheLogIndexerException("Exception updating the time index of " + file.getName(), ex);
+        }
+    }
+
+    /**
+     * @return a task that indexes a range of a log or the whole log if boundaries is null
+     */
+    private Callable<Void> createTask(final File file, final long[] boundaries, final int range, final ApacheLogSink<?> sink, final FileSummary summary) {
+        return new Callable<Void>() {
+            public Void call() throws Exception {
+                if (boundaries == null) {
+                    indexStream(file, sink, summary);
+                } else {
+                    indexRange(file, range, boundaries[range], boundaries[range + 1], sink, null, summary);
+                }
+                return null;
+            }
+        };
+    }
+
+    /**
+     * Adds the regular files under a directory, sorted by name, skipping hidden files
+     */
+    static void listFiles(File directory, List<File> files) throws FileNotFoundException {
+        File[] children = directory.listFiles();
+        if (children == null) {
+            throw new FileNotFoundException(directory.getPath());
+        }
+        Arrays.sort(children);
+        for (File child : children) {
+            if (child.isHidden()) {
+                continue;
+            }
+            if (child.isDirectory()) {
+                listFiles(child, files);
+            } else if (child.isFile()) {
+                files.add(child);
+            }
+        }
+    }
+
+    /**
+     * Indexes each range on a pool of getThreads() threads. The parsers are shared by all the threads, everything
+     * else (records, date formats, batches) belongs to a single range.
+     */
+    private void indexRanges(final File file, long[] ranges, final ApacheLogSink<?> sink, final ApacheLogCheckpoint checkpoint, final FileSummary summary) throws FileNotFoundException, ApacheLogIndexerException {
+        ExecutorService executor = Executors.newFixedThreadPool(getThreads());
+        List<Future<Void>> results = new ArrayList<Future<Void>>(ranges.length - 1);
+
+        try {
+            for (int i = 0; i < ranges.length - 1; ++i) {
+                final int range = i;
+                final long start = ranges[i];
+                final long end = ranges[i + 1];
+                results.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        indexRange(file, range, start, end, sink, checkpoint, summary);
+                        return null;
+                    }
+                }));
+            }
+
+            for (Future<Void> result : results) {
+                result.get();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ApacheLogIndexerException("Interrupted while indexing file " + file.getName(), ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof ApacheLogIndexerException) {
+                throw (ApacheLogIndexerException) ex.getCause();
             }
+            if (ex.getCause() instanceof FileNotFoundException) {
+                throw (FileNotFoundException) ex.getCause();
+            }
+            throw new ApacheLogIndexerException("Exception indexing file " + file.getName(), ex.getCause());
+        } finally {
+            executor.shutdownNow();
         }
     }
 
-    private SolrInputDocument createDocument(String line, DateFormat dateFormat, Map<String, String> fields) {
-        Date date = null;
+    private void indexRange(File file, int range, long start, long end, ApacheLogSink<?> sink, ApacheLogCheckpoint checkpoint, FileSummary summary) throws FileNotFoundException, ApacheLogIndexerException {
+        ApacheLogMappedReader in = null;
+        long lines = 0;
+
+        if (checkpoint != null) {
+            start = checkpoint.getOffset(range);
+            lines = checkpoint.getLines(range);
+        }
         try {
-            date = dateFormat.parse(fields.get("%t"));
-        } catch (ParseException ex) {
-            ex.printStackTrace(System.err);
-            return null;
-        }
-        SolrInputDocument doc = new SolrInputDocument();
-        doc.setField("id", fields.get("%t") + "|" + line.hashCode());
-        doc.setField("datetime", date);
-        doc.setField("webServer", fields.get("%syslog_ws"));
-        doc.setField("host", fields.get("%{Host}i"));
-        String resource = fields.get("%r");
-        String method = "-";
-        //boolean print = resource.equals("GET /");
-
-        int firstSpace = resource.indexOf(' ');
-        if (firstSpace != -1) {
-            doc.setField("method", resource.substring(0, firstSpace));
-            resource = resource.substring(firstSpace+1);
-        } else {
-            doc.setField("method", "-");
-        }
-
-        int lastSpace = resource.lastIndexOf(' ');
-        if (lastSpace != -1) {
-            doc.setField("protocol", resource.substring(lastSpace+1));
-            resource = resource.substring(0, lastSpace);
-        } else {
-            doc.setField("protocol", "-");
-        }
-
-        String[] resourceParts = StringUtils.split(resource, '?');
-        if (resourceParts.length >= 1) {
-            doc.setField("resource", resourceParts[0]);
-        } else {
-            doc.setField("resource", "-");
-        }
-
-        if (resourceParts.length > 0) {
-            doc.setField("resourceParams", StringUtils.join(resourceParts, "", 1, resourceParts.length));
-        } else {
-            doc.setField("resourceParams", "-");
-        }
-
-
-        doc.setField("code", fields.get("%>s"));
-        doc.setField("referer", fields.get("%{Referer}i"));
-        doc.setField("userAgent", fields.get("%{User-Agent}i"));
-        doc.setField("time", fields.get("%D"));
-        doc.setField("remoteUser", fields.get("%u"));
-        doc.setField("remoteLogName", fields.get("%l"));
-        doc.setField("bytes", fields.get("%b"));
-        String[] xForwardForServers = StringUtils.split(fields.get("%{X-Forwarded-For}i"), ", ");
-        for (String xForwardForServer : xForwardForServers) {
-            doc.addField("xForwardFor", xForwardForServer);
-        }
-        doc.addField("isValidLine", true);
-        doc.setField("logText", line);
-        return doc;
-    }
-
-    private SolrInputDocument createInvalidLineDocument(String line, DateFormat dateFormat, Map<String, String> fields) {
-        Date date = null;
+            in = new ApacheLogMappedReader(file, getCharset(), start, end);
+        } catch (FileNotFoundException ex) {
+            throw ex;
+        } catch (IOException ex) {
+            throw new ApacheLogIndexerException("Exception reading file " + file.getName(), ex);
+        }
+
+        indexLines(file, in, createLineIndexer(sink, checkpoint, range), lines, summary);
+    }
+
+    /**
+     * Indexes a compressed log, which is read sequentially while it is decompressed on another thread
+     */
+    private void indexStream(File file, ApacheLogSink<?> sink, FileSummary summary) throws FileNotFoundException, ApacheLogIndexerException {
+        ApacheLogStreamReader in = null;
+
         try {
-            date = dateFormat.parse(fields.get("%syslog_ti").replaceAll("([\\+\\-]\\d\\d):(\\d\\d)","$1$2"));
-        } catch (ParseException ex) {
-            ex.printStackTrace(System.err);
-            return null;
-        }
-        SolrInputDocument doc = new SolrInputDocument();
-        doc.setField("id", fields.get("%syslog_ti") + "|" + line.hashCode());
-        doc.setField("datetime", date);
-        doc.setField("webServer", fields.get("%syslog_ws"));
-        doc.setField("host", "?");
-        doc.setField("method", "?");
-        doc.setField("protocol", "?");
-        doc.setField("resource", "?");
-        doc.setField("resourceParams", "?");
-        String responseCode = "-1";
-
-        Matcher m = findResponseCode.matcher(line);
-        if (m.find()) {
-            responseCode = m.group(1);
-        }
-        
-        doc.setField("code", responseCode);
-        doc.setField("referer", "?");
-        doc.setField("userAgent", "?");
-        doc.setField("time", "-1");
-        doc.setField("remoteUser", "?");
-        doc.setField("remoteLogName", "?");
-        doc.setField("bytes", "-1");
-        doc.addField("xForwardFor", "?");
-        doc.addField("isValidLine", false);
-        doc.setField("logText", line);
-
-        return doc;
+            in = new ApacheLogStreamReader(file, getCharset());
+        } catch (FileNotFoundException ex) {
+            throw ex;
+        } catch (IOException ex) {
+            throw new ApacheLogIndexerException("Exception reading file " + file.getName(), ex);
+        }
+        indexLines(file, in, createLineIndexer(sink, null, 0), 0, summary);
+    }
+
+    /**
+     * Indexes every line of the reader and closes it
+     *
+     * @param lines is the number of lines read before the reader's position
+     */
+    private void indexLines(File file, ApacheLogLineReader in, LineIndexer<?> indexer, long lines, FileSummary summary) throws ApacheLogIndexerException {
+        try {
+            ApacheLogByteLine line = null;
+            int processed = 0;
+            long start = System.nanoTime();
+            while ((line = in.readLine()) != null) {
+                long read = System.nanoTime();
+                metrics.read.record(read - start);
+                metrics.linesRead.increment();
+                ++processed;
+                indexer.setPosition(in.getPosition(), lines + processed);
+                indexer.index(line);
+                start = System.nanoTime();
+            }
+            indexer.flush();
+            summary.processed.addAndGet(processed);
+            summary.failed.addAndGet(indexer.getFailed());
+            summary.filtered.addAndGet(indexer.getFiltered());
+        } catch (IOException ex) {
+            throw new ApacheLogIndexerException("Exception reading file " + file.getName(), ex);
+        } finally {
+            try {
+                in.close();
+            } catch (IOException ex) {
+                throw new ApacheLogIndexerException("Exception closing file " + file.getName(), ex);
+            }
+        }
+    }
+
+    /**
+     * Follows a log that is still being written, indexing new lines as they show up until {@link #stop()} is
+     * called or the thread is interrupted. Batches are sent once full or once their first document has waited
+     * getFlushInterval() milliseconds. Since the log never ends the NONE commit policy is replaced by
+     * COMMIT_WITHIN so new lines become searchable within seconds.
+     */
+    public void follow(File file) throws FileNotFoundException, MalformedURLException, ApacheLogIndexerException {
+        ApacheLogTailReader in = null;
+
+        try {
+            in = new ApacheLogTailReader(file, getCharset());
+        } catch (NoSuchFileException ex) {
+            throw new FileNotFoundException(file.getPath());
+        } catch (IOException ex) {
+            throw new ApacheLogIndexerException("Exception reading file " + file.getName(), ex);
+        }
+
+        stopped = false;
+        ApacheLogCommitPolicy policy = getCommitPolicy() == ApacheLogCommitPolicy.NONE ? ApacheLogCommitPolicy.COMMIT_WITHIN : getCommitPolicy();
+        ApacheLogSink<?> sink = startSink(policy);
+
+        try {
+            LineIndexer<?> indexer = createLineIndexer(sink, null, 0);
+            long processed = 0;
+            while (!stopped) {
+                long timeout = indexer.isEmpty() ? getFlushInterval() : Math.max(1, getFlushInterval() - indexer.getBatchAge());
+                ApacheLogByteLine line = in.readLine(timeout, TimeUnit.MILLISECONDS);
+                if (line != null) {
+                    metrics.linesRead.increment();
+                    indexer.index(line);
+                    ++processed;
+                }
+                if (!indexer.isEmpty() && (line == null || indexer.getBatchAge() >= getFlushInterval())) {
+                    indexer.flush();
+                }
+            }
+            indexer.flush();
+            System.out.println("Processed " + processed);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (IOException ex) {
+            throw new ApacheLogIndexerException("Exception reading file " + file.getName(), ex);
+        } finally {
+            try {
+                in.close();
+            } catch (IOException ex) {
+                System.err.println("Exception closing file " + file.getName() + ": " + ex.getMessage());
+            }
+            close(sink);
+        }
+    }
+
+    /**
+     * Makes {@link #follow(File)} flush what it has and return
+     */
+    public void stop() {
+        stopped = true;
+    }
+
+    /**
+     * Starts the sink set with setSink or, if there's none, a Solr sink connected to getServer() and configured
+     * with the sender settings of the indexer
+     */
+    private ApacheLogSink<?> startSink(ApacheLogCommitPolicy policy) throws MalformedURLException, ApacheLogIndexerException {
+        ApacheLogSink<?> sink = getSink();
+        if (sink == null) {
+            SolrServer server = getServer();
+            ApacheLogSolrSender sender = new ApacheLogSolrSender(server, getSenderThreads(), getMaxBatchesInFlight());
+            sender.setMaxRetries(getMaxRetries());
+            sender.setRetryDelay(getRetryDelay());
+            sender.setCommitPolicy(policy);
+            sender.setCommitWithin(getCommitWithin());
+            sender.setCommitDocuments(getCommitDocuments());
+            sender.setCommitInterval(getCommitInterval());
+            sender.setMetrics(metrics);
+            ApacheLogSolrSink solrSink = new ApacheLogSolrSink(server, sender);
+            solrSink.setFinalCommit(isFinalCommit());
+            sink = solrSink;
+        }
+        sink.start();
+        if (getReportInterval() > 0) {
+            reporter = new ApacheLogMetricsReporter(metrics, System.out);
+            reporter.start(getReportInterval());
+        }
+        return sink;
+    }
+
+    /**
+     * Closes the sink and stops the metrics reports
+     */
+    private void close(ApacheLogSink<?> sink) throws ApacheLogIndexerException {
+        try {
+            sink.close();
+        } finally {
+            if (reporter != null) {
+                reporter.stop();
+                reporter = null;
+            }
+        }
+    }
+
+    /**
+     * The lines processed, failed and filtered out in a log, updated by every range of the log
+     */
+    private static class FileSummary {
+        final File file;
+        final AtomicLong processed = new AtomicLong();
+        final AtomicLong failed = new AtomicLong();
+        final AtomicLong filtered = new AtomicLong();
+        volatile Throwable error;
+
+        FileSummary(File file) {
+            this.file = file;
+        }
+
+        @Override
+        public String toString() {
+            return file.getPath() + ": processed " + processed + ", failed " + failed + ", filtered " + filtered + (error == null ? "" : ", error: " + error.getMessage());
+        }
+    }
+
+    /**
+     * Turns lines into sink items and items into batches. Parsers and the sink are shared, everything else here
+     * belongs to a single thread. With a checkpoint each batch remembers the position after its last line.
+     */
+    private class LineIndexer<T> {
+        private final ApacheLogSink<T> sink;
+        private final ApacheLogCheckpoint checkpoint;
+        private final int range;
+        private final ApacheLogRecord record = new ApacheLogRecord();
+        private final ApacheLogSalvageParser salvageParser = createSalvageParser();
+        private List<T> items = new ArrayList<T>(getBatchSize());
+        private long batchStart;
+        private long position;
+        private long lines;
+        private long failed;
+        private long filtered;
+
+        LineIndexer(ApacheLogSink<T> sink, ApacheLogCheckpoint checkpoint, int range) {
+            this.sink = sink;
+            this.checkpoint = checkpoint;
+            this.range = range;
+        }
+
+        /**
+         * Sets the offset right after the next line to index and the number of lines of the range read so far
+         */
+        void setPosition(long position, long lines) {
+            this.position = position;
+            this.lines = lines;
+        }
+
+        void index(CharSequence raw) throws ApacheLogIndexerException {
+            long start = System.nanoTime();
+            Boolean accepted = parser.check(raw, record);
+            if (accepted == Boolean.FALSE) {
+                metrics.parse.record(System.nanoTime() - start);
+                metrics.linesFiltered.increment();
+                ++filtered;
+                return;
+            }
+            // the whole line ends up in the document, decode it once and parse the String
+            String line = raw.toString();
+            T item = null;
+            boolean valid = parser.tryParse(line, record);
+            boolean salvaged = false;
+            if (valid) {
+                metrics.linesParsed.increment();
+            } else {
+                metrics.parseFailures.increment();
+                if (salvageParser != null) {
+                    salvaged = salvageParser.parse(line, record);
+                } else {
+                    salvaged = invalidLineParser.tryParse(line + " ", record);
+                }
+                // the filter couldn't read the line, check it against what was salvaged, e.g. the status code
+                if (salvaged && accepted == null && !parser.getFilter().accept(line, record)) {
+                    metrics.parse.record(System.nanoTime() - start);
+                    metrics.linesFiltered.increment();
+                    ++filtered;
+                    return;
+                }
+                if (salvaged) {
+                    metrics.linesSalvaged.increment();
+                } else {
+                    metrics.salvageFailures.increment();
+                    System.err.println("Unable to parse: " + line);
+                }
+            }
+            long parsed = System.nanoTime();
+            metrics.parse.record(parsed - start);
+
+            if (valid || salvaged) {
+                item = sink.convert(line, record, valid);
+            }
+            metrics.documentBuild.record(System.nanoTime() - parsed);
+            if (item == null) {
+                ++failed;
+            } else {
+                metrics.documents.increment();
+                add(item);
+            }
+        }
+
+        /**
+         * @return the number of lines that couldn't be turned into a document
+         */
+        long getFailed() {
+            return failed;
+        }
+
+        /**
+         * @return the number of lines rejected by the filter of the parser
+         */
+        long getFiltered() {
+            return filtered;
+        }
+
+        boolean isEmpty() {
+            return items.isEmpty();
+        }
+
+        /**
+         * @return the milliseconds since the first item of the current batch was added
+         */
+        long getBatchAge() {
+            return items.isEmpty() ? 0 : System.currentTimeMillis() - batchStart;
+        }
+
+        /**
+         * Hands the current batch to the sink even if it is not full
+         */
+        void flush() throws ApacheLogIndexerException {
+            if (!items.isEmpty()) {
+                sink.send(items, checkpoint == null ? null : createCallback());
+                items = new ArrayList<T>(getBatchSize());
+            }
+        }
+
+        private ApacheLogSink.Callback createCallback() {
+            final long sequence = checkpoint.begin(range);
+            final long offset = position;
+            final long count = lines;
+            return new ApacheLogSink.Callback() {
+                public void acknowledged() {
+                    try {
+                        checkpoint.acknowledge(range, sequence, offset, count);
+                    } catch (IOException ex) {
+                        System.err.println("Exception saving checkpoint: " + ex.getMessage());
+                    }
+                }
+            };
+        }
+
+        private void add(T item) throws ApacheLogIndexerException {
+            if (items.isEmpty()) {
+                batchStart = System.currentTimeMillis();
+            }
+            items.add(item);
+            if (items.size() >= getBatchSize()) {
+                flush();
+            }
+        }
+    }
+
+    private <T> LineIndexer<T> createLineIndexer(ApacheLogSink<T> sink, ApacheLogCheckpoint checkpoint, int range) {
+        return new LineIndexer<T>(sink, checkpoint, range);
+    }
+
+    /**
+     * Salvages invalid lines in a single pass when the invalid line parser is made of plain words followed by %_,
+     * like "%syslog_ti %syslog_ws %syslog_n %_"
+     */
+    private ApacheLogSalvageParser createSalvageParser() {
+        String[] prefix = invalidLineParser.getPlainPrefix();
+        return prefix == null ? null : new ApacheLogSalvageParser(prefix);
     }
 }
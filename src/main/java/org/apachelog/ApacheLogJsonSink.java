@@ -0,0 +1,94 @@
+package org.apachelog;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * Writes each line as a JSON object on its own line (JSON lines), keyed by field name. Fields that didn't match
+ * are null, and lines salvaged by the invalid line parser get "isValidLine": false.
+ */
+public class ApacheLogJsonSink extends ApacheLogWriterSink {
+    private final String[] names;
+
+    /**
+     * @param names are the fields to write, null for every field of the record
+     */
+    public ApacheLogJsonSink(File file, Charset charset, List<String> names) {
+        super(file, charset);
+        this.names = names == null ? null : names.toArray(new String[names.size()]);
+    }
+
+    /**
+     * @param names are the fields to write, null for every field of the record
+     */
+    public ApacheLogJsonSink(OutputStream out, Charset charset, List<String> names) {
+        super(out, charset);
+        this.names = names == null ? null : names.toArray(new String[names.size()]);
+    }
+
+    /**
+     * @param line isn't used, it may be null
+     */
+    public String convert(String line, ApacheLogRecord fields, boolean valid) {
+        StringBuilder row = new StringBuilder(line == null ? 512 : 2 * line.length());
+        row.append('{');
+        int size = names == null ? fields.size() : names.length;
+        for (int i = 0; i < size; ++i) {
+            if (i > 0) {
+                row.append(',');
+            }
+            // decoded with the charset of the line, get() only exposes the bytes of a byte line
+            String value;
+            if (names == null) {
+                appendString(row, fields.getName(i));
+                value = fields.getString(i);
+            } else {
+                appendString(row, names[i]);
+                value = fields.getString(names[i]);
+            }
+            row.append(':');
+            if (value == null) {
+                row.append("null");
+            } else {
+                appendString(row, value);
+            }
+        }
+        if (!valid) {
+            row.append(size > 0 ? "," : "").append("\"isValidLine\":false");
+        }
+        return row.append('}').toString();
+    }
+
+    static void appendString(StringBuilder row, CharSequence value) {
+        row.append('"');
+        for (int i = 0; i < value.length(); ++i) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    row.append("\\\"");
+                    break;
+                case '\\':
+                    row.append("\\\\");
+                    break;
+                case '\n':
+                    row.append("\\n");
+                    break;
+                case '\r':
+                    row.append("\\r");
+                    break;
+                case '\t':
+                    row.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        row.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        row.append(c);
+                    }
+            }
+        }
+        row.append('"');
+    }
+}
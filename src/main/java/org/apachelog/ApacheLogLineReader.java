@@ -0,0 +1,21 @@
+package org.apachelog;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Reads the lines of a log as raw bytes, see {@link ApacheLogByteLine}
+ */
+public interface ApacheLogLineReader extends Closeable {
+    /**
+     * Reads the next line. The returned line is only valid until the next call.
+     *
+     * @return the next line without the line terminator or null at the end of the log
+     */
+    ApacheLogByteLine readLine() throws IOException;
+
+    /**
+     * @return the offset of the next line to be read in the (uncompressed) log
+     */
+    long getPosition();
+}
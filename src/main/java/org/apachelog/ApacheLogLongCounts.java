@@ -0,0 +1,117 @@
+package org.apachelog;
+
+import java.util.Arrays;
+
+/**
+ * Hash map from long keys to long values, like status codes or minutes to counts or sums, without boxing. Open
+ * addressing with linear probing, the table doubles when it is half full. Not thread safe.
+ */
+public class ApacheLogLongCounts {
+    private long[] keys;
+    private long[] values;
+    private boolean[] used;
+    private int size;
+
+    public ApacheLogLongCounts() {
+        this(16);
+    }
+
+    public ApacheLogLongCounts(int capacity) {
+        int length = Integer.highestOneBit(Math.max(4, 2 * capacity) - 1) << 1;
+        keys = new long[length];
+        values = new long[length];
+        used = new boolean[length];
+    }
+
+    /**
+     * Adds delta to the value of the key, a missing key counts as 0
+     */
+    public void add(long key, long delta) {
+        int slot = slot(key);
+        if (!used[slot]) {
+            used[slot] = true;
+            keys[slot] = key;
+            if (++size * 2 > keys.length) {
+                values[slot] = delta;
+                grow();
+                return;
+            }
+        }
+        values[slot] += delta;
+    }
+
+    /**
+     * @return the value of the key, 0 if it is missing
+     */
+    public long get(long key) {
+        int slot = slot(key);
+        return used[slot] ? values[slot] : 0;
+    }
+
+    public boolean containsKey(long key) {
+        return used[slot(key)];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the keys in ascending order
+     */
+    public long[] keys() {
+        long[] sorted = new long[size];
+        int count = 0;
+        for (int i = 0; i < keys.length; ++i) {
+            if (used[i]) {
+                sorted[count++] = keys[i];
+            }
+        }
+        Arrays.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * Adds the values of other to this map
+     */
+    public void merge(ApacheLogLongCounts other) {
+        for (int i = 0; i < other.keys.length; ++i) {
+            if (other.used[i]) {
+                add(other.keys[i], other.values[i]);
+            }
+        }
+    }
+
+    public void clear() {
+        Arrays.fill(used, false);
+        Arrays.fill(values, 0);
+        size = 0;
+    }
+
+    private int slot(long key) {
+        int mask = keys.length - 1;
+        long hash = key * 0x9E3779B97F4A7C15L;
+        int slot = (int) (hash ^ (hash >>> 32)) & mask;
+        while (used[slot] && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        long[] oldValues = values;
+        boolean[] oldUsed = used;
+        keys = new long[2 * oldKeys.length];
+        values = new long[keys.length];
+        used = new boolean[keys.length];
+        for (int i = 0; i < oldKeys.length; ++i) {
+            if (oldUsed[i]) {
+                int slot = slot(oldKeys[i]);
+                used[slot] = true;
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,193 @@
+package org.apachelog;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads log lines straight from a memory mapped file.
+ *
+ * Lines are split on the raw bytes, like BufferedReader they can end with \n, \r or \r\n. The file is mapped
+ * in windows so files larger than 2GB can be read, a line crossing the end of a window makes the next window
+ * start at that line.
+ */
+public class ApacheLogMappedReader implements ApacheLogLineReader {
+    private static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+
+    private FileInputStream in;
+    private FileChannel channel;
+    private long size;
+    private int windowSize = DEFAULT_WINDOW_SIZE;
+    private MappedByteBuffer window;
+    private long windowStart;
+    private int position;
+    private ApacheLogByteLine line;
+
+    public ApacheLogMappedReader(File file, Charset charset) throws IOException {
+        this(file, charset, 0, Long.MAX_VALUE);
+    }
+
+    /**
+     * Reads the lines in the [start, end) range of the file. The range should be aligned on line boundaries,
+     * see {@link #split(File, int)}
+     */
+    public ApacheLogMappedReader(File file, Charset charset, long start, long end) throws IOException {
+        ApacheLogByteLine.checkCharset(charset);
+        in = new FileInputStream(file);
+        channel = in.getChannel();
+        size = Math.min(channel.size(), end);
+        windowStart = Math.min(start, size);
+        line = new ApacheLogByteLine(charset);
+    }
+
+    /**
+     * Splits a file in about the given number of ranges of similar size. Each range starts right after a \n so
+     * no line is cut in two.
+     *
+     * @return the boundaries of the ranges, range i goes from boundaries[i] to boundaries[i + 1]
+     */
+    public static long[] split(File file, int ranges) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            long rangeSize = Math.max(1, size / Math.max(1, ranges));
+            List<Long> boundaries = new ArrayList<Long>();
+            boundaries.add(0L);
+            ByteBuffer buffer = ByteBuffer.allocate(8192);
+            long boundary = rangeSize;
+
+            while (boundary < size) {
+                // look for the end of the line that contains the byte right before the boundary
+                long position = boundary - 1;
+                long next = -1;
+                while (next < 0 && position < size) {
+                    buffer.clear();
+                    int read = channel.read(buffer, position);
+                    if (read <= 0) {
+                        break;
+                    }
+                    for (int i = 0; i < read; ++i) {
+                        if (buffer.get(i) == '\n') {
+                            next = position + i + 1;
+                            break;
+                        }
+                    }
+                    position += read;
+                }
+                if (next < 0 || next >= size) {
+                    break;
+                }
+                boundaries.add(next);
+                boundary = Math.max(next, boundary) + rangeSize;
+            }
+            boundaries.add(size);
+
+            long[] result = new long[boundaries.size()];
+            for (int i = 0; i < result.length; ++i) {
+                result[i] = boundaries.get(i);
+            }
+            return result;
+        } finally {
+            in.close();
+        }
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * Sets how many bytes of the file are mapped at once
+     */
+    public void setWindowSize(int windowSize) {
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * @return the offset in the file of the next line to be read
+     */
+    public long getPosition() {
+        return windowStart + position;
+    }
+
+    /**
+     * Reads the next line. The returned line is reused by the next call, fields taken from it with subSequence
+     * remain valid.
+     *
+     * @return the next line without the line terminator or null at the end of the file
+     */
+    public ApacheLogByteLine readLine() throws IOException {
+        while (true) {
+            if (window == null || position >= window.limit()) {
+                if (getPosition() >= size) {
+                    return null;
+                }
+                map(getPosition(), windowSize);
+            }
+
+            int limit = window.limit();
+            boolean lastWindow = windowStart + limit >= size;
+            int end = position;
+            while (end < limit) {
+                byte b = window.get(end);
+                if (b == '\n' || b == '\r') {
+                    break;
+                }
+                ++end;
+            }
+
+            if (end < limit) {
+                int next = end + 1;
+                if (window.get(end) == '\r') {
+                    if (next == limit && !lastWindow) {
+                        // can't tell if a \n follows
+                        remap(limit);
+                        continue;
+                    }
+                    if (next < limit && window.get(next) == '\n') {
+                        ++next;
+                    }
+                }
+                line.set(window, position, end - position);
+                position = next;
+                return line;
+            }
+
+            if (lastWindow) {
+                line.set(window, position, end - position);
+                position = end;
+                return line;
+            }
+            remap(limit);
+        }
+    }
+
+    /**
+     * Maps a new window starting at the current line. If the line alone fills the window the window grows.
+     */
+    private void remap(int limit) throws IOException {
+        int length = windowSize;
+        if (position == 0) {
+            length = (int) Math.min(Integer.MAX_VALUE, 2L * limit);
+        }
+        map(getPosition(), length);
+    }
+
+    private void map(long start, int length) throws IOException {
+        windowStart = start;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(length, size - start));
+        position = 0;
+    }
+
+    public void close() throws IOException {
+        window = null;
+        in.close();
+    }
+}
@@ -0,0 +1,339 @@
+package org.apachelog;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters, timers and histograms updated by the indexer and the Solr sender while indexing.
+ *
+ * Every value is a LongAdder so the indexing threads can update them on each line without contending with each
+ * other. Values are only summed when they are read, by JMX (see {@link #register(String)}) or by an
+ * {@link ApacheLogMetricsReporter}. Reads made while indexing are not an atomic snapshot across metrics. The
+ * document build time includes the date decode time.
+ */
+public class ApacheLogMetrics implements ApacheLogMetricsMBean {
+    /**
+     * Number of events and the nanoseconds spent in them
+     */
+    public static class Timer {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+
+        public void record(long nanos) {
+            count.increment();
+            this.nanos.add(nanos);
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getNanos() {
+            return nanos.sum();
+        }
+
+        void reset() {
+            count.reset();
+            nanos.reset();
+        }
+    }
+
+    /**
+     * Distribution of non negative values in power of two buckets. Percentiles are the upper bound of the bucket
+     * holding them, so they are at most twice the real value.
+     */
+    public static class Histogram {
+        private final LongAdder[] buckets = new LongAdder[65];
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sum = new LongAdder();
+        private final AtomicLong max = new AtomicLong();
+
+        public Histogram() {
+            for (int i = 0; i < buckets.length; ++i) {
+                buckets[i] = new LongAdder();
+            }
+        }
+
+        public void record(long value) {
+            value = Math.max(0, value);
+            buckets[64 - Long.numberOfLeadingZeros(value)].increment();
+            count.increment();
+            sum.add(value);
+            long current = max.get();
+            while (value > current && !max.compareAndSet(current, value)) {
+                current = max.get();
+            }
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public double getMean() {
+            long count = getCount();
+            return count == 0 ? 0 : (double) sum.sum() / count;
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+
+        /**
+         * @param percentile between 0 and 100
+         */
+        public long getPercentile(double percentile) {
+            long count = getCount();
+            if (count == 0) {
+                return 0;
+            }
+            long rank = (long) Math.ceil(count * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < buckets.length; ++i) {
+                seen += buckets[i].sum();
+                if (seen >= rank) {
+                    long upper = i == 0 ? 0 : i == 64 ? Long.MAX_VALUE : (1L << i) - 1;
+                    return Math.min(upper, getMax());
+                }
+            }
+            return getMax();
+        }
+
+        void reset() {
+            for (LongAdder bucket : buckets) {
+                bucket.reset();
+            }
+            count.reset();
+            sum.reset();
+            max.set(0);
+        }
+    }
+
+    final LongAdder linesRead = new LongAdder();
+    final LongAdder linesParsed = new LongAdder();
+    final LongAdder parseFailures = new LongAdder();
+    final LongAdder linesSalvaged = new LongAdder();
+    final LongAdder salvageFailures = new LongAdder();
+    final LongAdder linesFiltered = new LongAdder();
+    final LongAdder documents = new LongAdder();
+    final LongAdder batches = new LongAdder();
+    final LongAdder batchFailures = new LongAdder();
+    final LongAdder retries = new LongAdder();
+    final LongAdder queuedBatches = new LongAdder();
+    final LongAdder batchesInFlight = new LongAdder();
+
+    final Timer read = new Timer();
+    final Timer parse = new Timer();
+    final Timer dateDecode = new Timer();
+    final Timer documentBuild = new Timer();
+    final Timer solrAdd = new Timer();
+    final Timer commit = new Timer();
+
+    final Histogram batchSize = new Histogram();
+    final Histogram batchLatency = new Histogram();
+
+    private volatile long started = System.nanoTime();
+    private ObjectName objectName;
+
+    /**
+     * Registers the metrics in the platform MBean server as org.apachelog:type=Metrics,name=&lt;name&gt;
+     *
+     * @throws IllegalStateException if metrics with the same name are already registered
+     */
+    public synchronized void register(String name) throws JMException {
+        unregister();
+        ObjectName objectName = new ObjectName("org.apachelog:type=Metrics,name=" + ObjectName.quote(name));
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        } catch (InstanceAlreadyExistsException ex) {
+            throw new IllegalStateException("Metrics " + name + " are already registered", ex);
+        }
+        this.objectName = objectName;
+    }
+
+    public synchronized void unregister() throws JMException {
+        if (objectName != null) {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            try {
+                server.unregisterMBean(objectName);
+            } catch (InstanceNotFoundException ex) {
+                // already gone
+            }
+            objectName = null;
+        }
+    }
+
+    public Timer getReadTimer() {
+        return read;
+    }
+
+    public Timer getParseTimer() {
+        return parse;
+    }
+
+    public Timer getDateDecodeTimer() {
+        return dateDecode;
+    }
+
+    public Timer getDocumentBuildTimer() {
+        return documentBuild;
+    }
+
+    public Timer getSolrAddTimer() {
+        return solrAdd;
+    }
+
+    public Timer getCommitTimer() {
+        return commit;
+    }
+
+    public Histogram getBatchSizeHistogram() {
+        return batchSize;
+    }
+
+    /**
+     * @return the milliseconds from queuing a batch to Solr acknowledging it
+     */
+    public Histogram getBatchLatencyHistogram() {
+        return batchLatency;
+    }
+
+    /**
+     * @return the milliseconds since the metrics were created or reset
+     */
+    public long getUptime() {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+    }
+
+    public long getLinesRead() {
+        return linesRead.sum();
+    }
+
+    /**
+     * @return the average lines read per second since the metrics were created or reset
+     */
+    public double getLinesPerSecond() {
+        long uptime = getUptime();
+        return uptime == 0 ? 0 : getLinesRead() * 1000.0 / uptime;
+    }
+
+    public long getLinesParsed() {
+        return linesParsed.sum();
+    }
+
+    public long getParseFailures() {
+        return parseFailures.sum();
+    }
+
+    public long getLinesSalvaged() {
+        return linesSalvaged.sum();
+    }
+
+    public long getSalvageFailures() {
+        return salvageFailures.sum();
+    }
+
+    public long getLinesFiltered() {
+        return linesFiltered.sum();
+    }
+
+    public long getDocuments() {
+        return documents.sum();
+    }
+
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    public long getBatchFailures() {
+        return batchFailures.sum();
+    }
+
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    public long getCommits() {
+        return commit.getCount();
+    }
+
+    /**
+     * @return the batches waiting for a sender thread
+     */
+    public long getQueuedBatches() {
+        return queuedBatches.sum();
+    }
+
+    /**
+     * @return the batches queued or being sent
+     */
+    public long getBatchesInFlight() {
+        return batchesInFlight.sum();
+    }
+
+    public long getReadMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(read.getNanos());
+    }
+
+    public long getParseMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(parse.getNanos());
+    }
+
+    public long getDateDecodeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(dateDecode.getNanos());
+    }
+
+    public long getDocumentBuildMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(documentBuild.getNanos());
+    }
+
+    public long getSolrAddMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(solrAdd.getNanos());
+    }
+
+    public long getCommitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(commit.getNanos());
+    }
+
+    public double getMeanBatchSize() {
+        return batchSize.getMean();
+    }
+
+    public long getMaxBatchSize() {
+        return batchSize.getMax();
+    }
+
+    public long getBatchLatency50thMillis() {
+        return batchLatency.getPercentile(50);
+    }
+
+    public long getBatchLatency99thMillis() {
+        return batchLatency.getPercentile(99);
+    }
+
+    public long getMaxBatchLatencyMillis() {
+        return batchLatency.getMax();
+    }
+
+    /**
+     * Zeroes every counter, timer and histogram. Queue depths are left alone since they track live batches.
+     */
+    public void reset() {
+        for (LongAdder counter : new LongAdder[] {linesRead, linesParsed, parseFailures, linesSalvaged,
+                salvageFailures, linesFiltered, documents, batches, batchFailures, retries}) {
+            counter.reset();
+        }
+        for (Timer timer : new Timer[] {read, parse, dateDecode, documentBuild, solrAdd, commit}) {
+            timer.reset();
+        }
+        batchSize.reset();
+        batchLatency.reset();
+        started = System.nanoTime();
+    }
+}
@@ -0,0 +1,59 @@
+package org.apachelog;
+
+/**
+ * JMX view of {@link ApacheLogMetrics}. Times are the total milliseconds spent in each phase since the metrics
+ * were created or reset, summed over all the threads.
+ */
+public interface ApacheLogMetricsMBean {
+    long getLinesRead();
+
+    double getLinesPerSecond();
+
+    long getLinesParsed();
+
+    long getParseFailures();
+
+    long getLinesSalvaged();
+
+    long getSalvageFailures();
+
+    long getLinesFiltered();
+
+    long getDocuments();
+
+    long getBatches();
+
+    long getBatchFailures();
+
+    long getRetries();
+
+    long getCommits();
+
+    long getQueuedBatches();
+
+    long getBatchesInFlight();
+
+    long getReadMillis();
+
+    long getParseMillis();
+
+    long getDateDecodeMillis();
+
+    long getDocumentBuildMillis();
+
+    long getSolrAddMillis();
+
+    long getCommitMillis();
+
+    double getMeanBatchSize();
+
+    long getMaxBatchSize();
+
+    long getBatchLatency50thMillis();
+
+    long getBatchLatency99thMillis();
+
+    long getMaxBatchLatencyMillis();
+
+    void reset();
+}
@@ -0,0 +1,107 @@
+package org.apachelog;
+
+import java.io.PrintStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prints a line with the progress of the metrics every period: lines read and their rate, parse results, the time
+ * spent in each phase during the period, the batches queued and in flight, and the batch sizes and latencies.
+ *
+ * The phase times are summed over all the threads, comparing them tells whether indexing is bound by parsing or
+ * waiting on Solr.
+ */
+public class ApacheLogMetricsReporter {
+    private final ApacheLogMetrics metrics;
+    private final PrintStream out;
+    private ScheduledExecutorService executor;
+    private long lastTime;
+    private long lastLines;
+    private long[] lastNanos = new long[6];
+
+    public ApacheLogMetricsReporter(ApacheLogMetrics metrics, PrintStream out) {
+        this.metrics = metrics;
+        this.out = out;
+    }
+
+    /**
+     * Starts reporting every period milliseconds on a daemon thread
+     */
+    public synchronized void start(long period) {
+        if (executor != null) {
+            return;
+        }
+        lastTime = System.nanoTime();
+        lastLines = metrics.getLinesRead();
+        lastNanos = phaseNanos();
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "apachelog-metrics-reporter");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        executor.scheduleAtFixedRate(new Runnable() {
+            public void run() {
+                report();
+            }
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops reporting and prints a last report
+     */
+    public synchronized void stop() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+            report();
+        }
+    }
+
+    /**
+     * Prints the metrics, rates and phase times are for the time since the previous report
+     */
+    public synchronized void report() {
+        long now = System.nanoTime();
+        long lines = metrics.getLinesRead();
+        long[] nanos = phaseNanos();
+        double seconds = Math.max(1, now - lastTime) / 1e9;
+
+        StringBuilder line = new StringBuilder(256);
+        line.append("lines ").append(lines)
+                .append(" (").append(Math.round((lines - lastLines) / seconds)).append("/s)")
+                .append(" parsed ").append(metrics.getLinesParsed())
+                .append(" failed ").append(metrics.getParseFailures())
+                .append(" salvaged ").append(metrics.getLinesSalvaged())
+                .append(" filtered ").append(metrics.getLinesFiltered())
+                .append(" docs ").append(metrics.getDocuments());
+        String[] phases = {"read", "parse", "date", "doc", "solr add", "commit"};
+        line.append(" | ms");
+        for (int i = 0; i < phases.length; ++i) {
+            line.append(' ').append(phases[i]).append(' ').append(TimeUnit.NANOSECONDS.toMillis(nanos[i] - lastNanos[i]));
+        }
+        line.append(" | batches ").append(metrics.getBatches())
+                .append(" failed ").append(metrics.getBatchFailures())
+                .append(" retries ").append(metrics.getRetries())
+                .append(" queued ").append(metrics.getQueuedBatches())
+                .append(" in flight ").append(metrics.getBatchesInFlight())
+                .append(" size ").append(Math.round(metrics.getMeanBatchSize()))
+                .append(" latency p50 ").append(metrics.getBatchLatency50thMillis())
+                .append("ms p99 ").append(metrics.getBatchLatency99thMillis())
+                .append("ms max ").append(metrics.getMaxBatchLatencyMillis()).append("ms");
+        out.println(line);
+
+        lastTime = now;
+        lastLines = lines;
+        lastNanos = nanos;
+    }
+
+    private long[] phaseNanos() {
+        return new long[] {metrics.getReadTimer().getNanos(), metrics.getParseTimer().getNanos(),
+                metrics.getDateDecodeTimer().getNanos(), metrics.getDocumentBuildTimer().getNanos(),
+                metrics.getSolrAddTimer().getNanos(), metrics.getCommitTimer().getNanos()};
+    }
+}
@@ -0,0 +1,321 @@
+package org.apachelog;
+
+import org.apache.commons.lang.StringUtils;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Parses logs mixing several formats, e.g. common, combined and syslog prefixed lines shipped to the same file.
+ * Each call to {@link #parseFormat(String)} or {@link #setLogFormat(ApacheLogFormat)} adds a format, and a line
+ * is parsed with the first format that matches it.
+ *
+ * Formats are tried in the order they were added, except that the last format that matched is tried first: lines
+ * of the same format tend to come in runs, so most lines only need a single attempt. Formats a line can't match
+ * are skipped without parsing, by the first character of the line (for formats starting with %t or a quoted
+ * element) and by its number of spaces (the line needs one between each element). Formats with %_ match almost
+ * anything and are always tried last; with an {@link ApacheLogIndexer} leave them to the invalid line parser so
+ * the lines they match are flagged as invalid.
+ *
+ * The hits of each format, the lines no format matched and the attempts made are counted, see
+ * {@link #report(PrintStream)}. Like a single format parser it can be shared by several threads once the formats
+ * are added. A projection only applies to the formats added after it is set; unlike a single format parser the
+ * whole line is still matched, so a line is never parsed with a shorter format sharing its first fields.
+ */
+public class ApacheLogMultiFormatParser extends ApacheLogParser {
+    private ApacheLogParser[] parsers = new ApacheLogParser[0];
+    private ApacheLogMultiFormatParser filterParser;
+    private int maxSpaces;
+    private volatile int last;
+    private LongAdder[] hits = new LongAdder[0];
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder skips = new LongAdder();
+
+    public ApacheLogMultiFormatParser() {
+    }
+
+    /**
+     * Creates a parser for the formats, in this order
+     */
+    public ApacheLogMultiFormatParser(ApacheLogFormat... formats) throws ApacheLogParserException {
+        for (ApacheLogFormat format : formats) {
+            setLogFormat(format);
+        }
+    }
+
+    /**
+     * @return the formats in the order they are tried when the last format that matched doesn't
+     */
+    public List<ApacheLogFormat> getLogFormats() {
+        List<ApacheLogFormat> formats = new ArrayList<ApacheLogFormat>(parsers.length);
+        for (ApacheLogParser parser : parsers) {
+            formats.add(parser.getLogFormat());
+        }
+        return formats;
+    }
+
+    /**
+     * @return null, there's no single format, see {@link #getLogFormats()}
+     */
+    @Override
+    public ApacheLogFormat getLogFormat() {
+        return null;
+    }
+
+    /**
+     * Adds a compiled format
+     */
+    @Override
+    public void setLogFormat(ApacheLogFormat logFormat) throws ApacheLogParserException {
+        // a projected format only matching up to its last field would take the lines of longer formats
+        Collection<String> projection = getProjection() != null ? getProjection() : logFormat.getProjection();
+        if (projection != null && (!logFormat.whole || !projection.equals(logFormat.getProjection()))) {
+            logFormat = logFormat.project(projection, true);
+        }
+        ApacheLogParser parser = new ApacheLogParser(logFormat);
+        parser.setEngine(getEngine());
+        List<ApacheLogParser> parsers = new ArrayList<ApacheLogParser>(Arrays.asList(this.parsers));
+        // formats with %_ go last, after the formats that could have matched the line
+        int index = parsers.size();
+        while (!logFormat.catchAll && index > 0 && parsers.get(index - 1).getLogFormat().catchAll) {
+            --index;
+        }
+        parsers.add(index, parser);
+        LongAdder[] hits = new LongAdder[parsers.size()];
+        for (int i = 0; i < hits.length; ++i) {
+            hits[i] = new LongAdder();
+        }
+        this.parsers = parsers.toArray(new ApacheLogParser[parsers.size()]);
+        this.hits = hits;
+        maxSpaces = Math.max(maxSpaces, logFormat.minSpaces);
+        last = 0;
+        compileFilter();
+    }
+
+    /**
+     * Adds a format
+     */
+    @Override
+    public void parseFormat(String format) throws ApacheLogParserException {
+        Map<String, String> aliases = new HashMap<String, String>();
+        for (String element : ApacheLogFormat.split(format)) {
+            String name = StringUtils.strip(element, "\"");
+            String alias = getAlias(name);
+            if (!name.equals(alias)) {
+                aliases.put(name, alias);
+            }
+        }
+        setLogFormat(ApacheLogFormat.compile(format, getProjection(), aliases));
+    }
+
+    /**
+     * @return the names of the fields of all the formats
+     */
+    @Override
+    public String[] getNames() {
+        Set<String> names = new LinkedHashSet<String>();
+        for (ApacheLogParser parser : parsers) {
+            names.addAll(parser.getLogFormat().getNames());
+        }
+        return names.toArray(new String[names.size()]);
+    }
+
+    @Override
+    public void setEngine(Engine engine) {
+        super.setEngine(engine);
+        for (ApacheLogParser parser : parsers) {
+            parser.setEngine(engine);
+        }
+    }
+
+    @Override
+    public void setFilter(ApacheLogFilter filter) throws ApacheLogParserException {
+        super.setFilter(filter);
+        compileFilter();
+    }
+
+    @Override
+    Boolean check(CharSequence line, ApacheLogRecord record) {
+        ApacheLogFilter filter = getFilter();
+        if (filter == null) {
+            return Boolean.TRUE;
+        }
+        if (filterParser == null) {
+            return filter.accept(line, null);
+        }
+        if (!filterParser.tryParse(line, record)) {
+            return null;
+        }
+        return filter.accept(line, record);
+    }
+
+    private void compileFilter() throws ApacheLogParserException {
+        filterParser = null;
+        if (getFilter() == null || getFilter().getFields().length == 0 || parsers.length == 0) {
+            return;
+        }
+        filterParser = project(Arrays.asList(getFilter().getFields()));
+    }
+
+    /**
+     * @return a parser for the same formats that only extracts the given fields
+     */
+    @Override
+    public ApacheLogMultiFormatParser project(Collection<String> fields) throws ApacheLogParserException {
+        if (parsers.length == 0) {
+            throw new IllegalStateException("The format isn't parsed yet");
+        }
+        ApacheLogMultiFormatParser parser = new ApacheLogMultiFormatParser();
+        parser.setEngine(Engine.TOKENIZER);
+        for (ApacheLogParser format : parsers) {
+            parser.setLogFormat(format.getLogFormat().project(fields, true));
+        }
+        return parser;
+    }
+
+    @Override
+    public ApacheLogRecord parse(CharSequence line, ApacheLogRecord record) throws ApacheLogParserException {
+        if (!tryParse(line, record)) {
+            throw new ApacheLogParserException(String.format("Unable to parse: %s with any of the %d formats", line, parsers.length));
+        }
+        return record;
+    }
+
+    @Override
+    public boolean tryParse(CharSequence line, ApacheLogRecord record) {
+        return match(line, record) >= 0;
+    }
+
+    /**
+     * Parses the line with the first format that matches it
+     *
+     * @return the index in getLogFormats() of the format that matched, -1 if none did
+     */
+    public int match(CharSequence line, ApacheLogRecord record) {
+        ApacheLogParser[] parsers = this.parsers;
+        LongAdder[] hits = this.hits;
+        char leading = 0;
+        int length = line.length();
+        int start = 0;
+        while (start < length && Character.isWhitespace(line.charAt(start))) {
+            ++start;
+        }
+        if (start < length) {
+            leading = line.charAt(start);
+        }
+        int spaces = -1;
+
+        int first = last;
+        int tried = 0;
+        for (int i = -1; i < parsers.length; ++i) {
+            int index = i < 0 ? first : i;
+            if (i == first || index >= parsers.length) {
+                continue;
+            }
+            ApacheLogFormat format = parsers[index].getLogFormat();
+            if (format.leading != 0 && format.leading != leading) {
+                skips.increment();
+                continue;
+            }
+            if (format.minSpaces > 0) {
+                if (spaces < 0) {
+                    spaces = countSpaces(line, start, maxSpaces);
+                }
+                if (spaces < format.minSpaces) {
+                    skips.increment();
+                    continue;
+                }
+            }
+            ++tried;
+            if (parsers[index].tryParse(line, record)) {
+                if (tried > 1) {
+                    retries.add(tried - 1);
+                }
+                hits[index].increment();
+                if (index != first && !format.catchAll) {
+                    last = index;
+                }
+                return index;
+            }
+        }
+        if (tried > 0) {
+            retries.add(tried);
+        }
+        misses.increment();
+        return -1;
+    }
+
+    /**
+     * @return the spaces in the line, counting up to max
+     */
+    private static int countSpaces(CharSequence line, int start, int max) {
+        int spaces = 0;
+        for (int i = start; i < line.length() && spaces < max; ++i) {
+            if (line.charAt(i) == ' ') {
+                ++spaces;
+            }
+        }
+        return spaces;
+    }
+
+    /**
+     * @return the lines parsed with the format at the index of getLogFormats()
+     */
+    public long getHits(int index) {
+        return hits[index].sum();
+    }
+
+    /**
+     * @return the lines no format matched
+     */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the times a format parsed a line, successfully or not. Close to the lines parsed if the formats are
+     * rarely mixed up.
+     */
+    public long getAttempts() {
+        long attempts = retries.sum();
+        for (LongAdder hit : hits) {
+            attempts += hit.sum();
+        }
+        return attempts;
+    }
+
+    /**
+     * @return the formats skipped by the first character and space count of the lines, without parsing
+     */
+    public long getSkips() {
+        return skips.sum();
+    }
+
+    /**
+     * Prints the hit rate of each format and the attempts per line
+     */
+    public void report(PrintStream out) {
+        long lines = getMisses();
+        for (int i = 0; i < parsers.length; ++i) {
+            lines += getHits(i);
+        }
+        for (int i = 0; i < parsers.length; ++i) {
+            out.println(String.format("%6.2f%% %d\t%s", percent(getHits(i), lines), getHits(i), parsers[i].getLogFormat()));
+        }
+        out.println(String.format("%6.2f%% %d\tunmatched", percent(getMisses(), lines), getMisses()));
+        out.println(String.format("%.2f attempts per line, %d formats skipped", lines == 0 ? 0.0 : (double) getAttempts() / lines, getSkips()));
+    }
+
+    private static double percent(long count, long total) {
+        return total == 0 ? 0 : 100.0 * count / total;
+    }
+}
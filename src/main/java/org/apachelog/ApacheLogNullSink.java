@@ -0,0 +1,37 @@
+package org.apachelog;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Discards every line, only counting them. Useful to measure reading and parsing on their own.
+ */
+public class ApacheLogNullSink implements ApacheLogSink<Object> {
+    private static final Object ITEM = new Object();
+
+    private final AtomicLong items = new AtomicLong();
+
+    /**
+     * @return the number of items sent since the sink was created
+     */
+    public long getItems() {
+        return items.get();
+    }
+
+    public void start() {
+    }
+
+    public Object convert(String line, ApacheLogRecord fields, boolean valid) {
+        return ITEM;
+    }
+
+    public void send(List<Object> batch, Callback callback) {
+        items.addAndGet(batch.size());
+        if (callback != null) {
+            callback.acknowledged();
+        }
+    }
+
+    public void close() {
+    }
+}
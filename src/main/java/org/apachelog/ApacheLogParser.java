@@ -2,24 +2,53 @@ package org.apachelog;
 
 import org.apache.commons.lang.StringUtils;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
-import java.util.List;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.regex.PatternSyntaxException;
 
 
 /**
  * This class provides functionality to parse apache Log lines
+ *
+ * Once the format is parsed a parser can be shared by several threads: parse only reads the compiled format and
+ * keeps its state in the record (or map) passed by the caller. Each thread needs its own ApacheLogRecord, and
+ * parseFormat / setEngine must not be called while other threads are parsing. The compiled format itself is an
+ * immutable {@link ApacheLogFormat}, shared by all the parsers of the same format.
  */
 public class ApacheLogParser {
+    /**
+     * Engines available to match the log lines. Both return the same fields for the same line.
+     */
+    public enum Engine {
+        /** Matches lines with the regular expression compiled from the format */
+        REGEX,
+        /** Walks the line once with a tokenizer compiled from the format */
+        TOKENIZER
+    }
+
     private String format = "%t0 %ws %{X-Forwarded-For}i %l %u %t %{Host}i \"%r\" %>s %b \"%{Referer}i\" \"%{User-Agent}i\" %D";
 
-    private List<String> names;
-    private List<String> subPatterns;
+    private Set<String> projection;
+    private ApacheLogFilter filter;
+    private ApacheLogParser filterParser;
+    private ApacheLogFormat logFormat;
     private Pattern pattern;
+    private Engine engine = Engine.REGEX;
+
+    public ApacheLogParser() {
+    }
+
+    /**
+     * Creates a parser for a compiled format, which needs no parseFormat
+     */
+    public ApacheLogParser(ApacheLogFormat logFormat) throws ApacheLogParserException {
+        setLogFormat(logFormat);
+    }
 
     public Pattern getPattern() {
         return pattern;
@@ -29,8 +58,136 @@ public class ApacheLogParser {
         this.pattern = pattern;
     }
 
+    public Engine getEngine() {
+        return engine;
+    }
+
+    /**
+     * Selects the engine used to match lines. It can be changed at any time, both engines are compiled by
+     * parseFormat
+     */
+    public void setEngine(Engine engine) {
+        this.engine = engine;
+    }
+
     public String[] getNames() {
-        return names.toArray(new String[names.size()]);
+        return logFormat.names.toArray(new String[logFormat.names.size()]);
+    }
+
+    public ApacheLogFormat getLogFormat() {
+        return logFormat;
+    }
+
+    /**
+     * Parses lines with a compiled format, its projection replaces this parser's. Does the same as parseFormat
+     * without compiling anything, see {@link ApacheLogFormat#compile(String)}.
+     */
+    public void setLogFormat(ApacheLogFormat logFormat) throws ApacheLogParserException {
+        this.logFormat = logFormat;
+        this.projection = logFormat.getProjection();
+        setPattern(logFormat.getPattern());
+        compileFilter();
+    }
+
+    public Collection<String> getProjection() {
+        return projection;
+    }
+
+    /**
+     * Restricts the fields returned by parse to the given names, null (the default) returns all of them. The
+     * projection is applied by parseFormat: the other fields are matched without being captured and the line is
+     * only matched up to the last projected field, so anything after it is not validated. Names not in the format
+     * are ignored.
+     */
+    public void setProjection(Collection<String> projection) {
+        this.projection = projection == null ? null : new HashSet<String>(projection);
+    }
+
+    public ApacheLogFilter getFilter() {
+        return filter;
+    }
+
+    /**
+     * Sets the filter checked by {@link #accept(CharSequence, ApacheLogRecord)}, null to accept every line. The
+     * filter doesn't change parse, callers check accept first and skip the lines it rejects.
+     */
+    public void setFilter(ApacheLogFilter filter) throws ApacheLogParserException {
+        this.filter = filter;
+        if (logFormat != null) {
+            compileFilter();
+        }
+    }
+
+    /**
+     * Checks the line against the filter without parsing the whole line: only the fields read by the filter are
+     * extracted, into the given record. Lines where those fields can't be extracted are rejected.
+     *
+     * @param line is the log line to be checked
+     * @param record is used to extract the fields, any previous content is overwritten
+     * @return true if there's no filter or the filter accepts the line
+     */
+    public boolean accept(CharSequence line, ApacheLogRecord record) {
+        return check(line, record) == Boolean.TRUE;
+    }
+
+    /**
+     * Same as {@link #accept(CharSequence, ApacheLogRecord)}, but tells the lines the filter rejects from the lines
+     * where the fields it reads can't be extracted, which may still be salvaged
+     *
+     * @return true or false if the filter accepts or rejects the line, null if its fields can't be extracted
+     */
+    Boolean check(CharSequence line, ApacheLogRecord record) {
+        if (filter == null) {
+            return Boolean.TRUE;
+        }
+        if (filterParser == null) {
+            return filter.accept(line, null);
+        }
+        if (!filterParser.tryParse(line, record)) {
+            return null;
+        }
+        return filter.accept(line, record);
+    }
+
+    /**
+     * @return the names of the words before %_ if the format is only plain words followed by %_ and there's no
+     * projection, null otherwise. Such formats are handled by {@link ApacheLogSalvageParser}
+     */
+    String[] getPlainPrefix() {
+        if (logFormat == null) {
+            return null;
+        }
+        int[] kinds = logFormat.kinds;
+        if (projection != null || kinds.length < 2 || kinds[kinds.length - 1] != ApacheLogTokenizer.REST) {
+            return null;
+        }
+        for (int i = 0; i < kinds.length - 1; ++i) {
+            if (kinds[i] != ApacheLogTokenizer.PLAIN) {
+                return null;
+            }
+        }
+        return logFormat.names.subList(0, kinds.length - 1).toArray(new String[kinds.length - 1]);
+    }
+
+    private void compileFilter() throws ApacheLogParserException {
+        filterParser = null;
+        if (filter == null || filter.getFields().length == 0) {
+            return;
+        }
+        filterParser = project(Arrays.asList(filter.getFields()));
+    }
+
+    /**
+     * Creates a parser for the same format that only extracts the given fields, with the tokenizer engine. The
+     * format must be parsed already.
+     */
+    public ApacheLogParser project(Collection<String> fields) throws ApacheLogParserException {
+        if (logFormat == null) {
+            throw new IllegalStateException("The format isn't parsed yet");
+        }
+        ApacheLogParser parser = new ApacheLogParser(logFormat.project(fields));
+        parser.setEngine(Engine.TOKENIZER);
+        return parser;
     }
 
     public void parseFormat() throws ApacheLogParserException {
@@ -43,56 +200,22 @@ public class ApacheLogParser {
      * Best just copy and paste directly from the .conf file
      * and pass using a Python raw string e.g.
      *
+     * The compiled format comes from the cache of {@link ApacheLogFormat#compile(String, Collection, Map)} when the
+     * same format, projection and aliases were compiled before.
+     *
      * @param format is the Apache log format
      * @throws ApacheLogParserException if the format can't be compile into a pattern
      */
     public void parseFormat(final String format) throws ApacheLogParserException {
-        String f = StringUtils.strip(format);
-        f = f.replaceAll("[ \t]+", " ");
-
-        Pattern findQuotes = Pattern.compile("^\"");
-        Pattern findReferrerAgent = Pattern.compile("Referer|User-Agent");
-        Pattern findXForwardedFor = Pattern.compile("X-Forwarded-For");
-        Pattern findPercent = Pattern.compile("^%.*t$");
-
-        String[] elements = StringUtils.split(format, ' ');
-        names = new ArrayList<String>(elements.length);
-        subPatterns = new ArrayList<String>(elements.length);
-
-        for (String element : elements) {
-            boolean hasQuotes = findQuotes.matcher(element).find();
-
-            if (hasQuotes) {
-                element = StringUtils.strip(element, "\"");
+        Map<String, String> aliases = new HashMap<String, String>();
+        for (String element : ApacheLogFormat.split(format)) {
+            String name = StringUtils.strip(element, "\"");
+            String alias = getAlias(name);
+            if (!name.equals(alias)) {
+                aliases.put(name, alias);
             }
-
-            names.add(getAlias(element));
-
-            String subPattern = "(\\S*)";
-            if (hasQuotes) {
-                if (element.equals("%r") || findReferrerAgent.matcher(element).find()) {
-                    subPattern = "\"([^\"\\\\]*(?:\\\\.[^\"\\\\]*)*)\"";
-                } else {
-                    subPattern = "\"([^\"]*)\"";
-                }
-            } else if (findPercent.matcher(element).find()) {
-                subPattern = "(\\[[^\\]]+\\])";
-            } else if (findXForwardedFor.matcher(element).find()) {
-                subPattern = "((?:\\S*,\\s)*\\S*)";
-            } else if (element.equals("%U")) {
-                subPattern = "(.+?)";
-            } else if (element.equals("%_")) {
-                subPattern = "(.+)?";
-            }
-
-            subPatterns.add(subPattern);
-        }
-
-        try {
-            setPattern(Pattern.compile('^' + StringUtils.join(subPatterns, ' ') + '$'));
-        } catch (PatternSyntaxException ex) {
-            throw new ApacheLogParserException("Unable to parse format", ex);
         }
+        setLogFormat(ApacheLogFormat.compile(format, projection, aliases));
     }
 
     /**
@@ -116,15 +239,65 @@ public class ApacheLogParser {
     }
 
     public Map<String, String> parse(String line, Map<String, String> fields) throws ApacheLogParserException {
-        Matcher m = getPattern().matcher(StringUtils.strip(line));
-        if (m.matches()) {
-            for (int i = 1; i <= m.groupCount(); ++i) {
-                fields.put(names.get(i-1), m.group(i));
-            }
-        } else {
+        return parse(line, new ApacheLogRecord()).toMap(fields);
+    }
+
+    /**
+     * Parses a single line into a reusable record. Only the offsets of the fields are stored, no Strings are
+     * created until the fields are read from the record.
+     *
+     * @param line is the log line to be parsed
+     * @param record is the record to fill, any previous content is overwritten
+     * @return the given record
+     */
+    public ApacheLogRecord parse(CharSequence line, ApacheLogRecord record) throws ApacheLogParserException {
+        if (!tryParse(line, record)) {
             throw new ApacheLogParserException(String.format("Unable to parse: %s with the %s regular expression", line, getPattern().pattern()));
         }
-        return fields;
+        return record;
+    }
+
+    /**
+     * Same as {@link #parse(CharSequence, ApacheLogRecord)} but returns false for a line that can't be parsed.
+     * No exception or message is built, which keeps logs with many invalid lines fast.
+     *
+     * @return true if the line was parsed into the record, false otherwise
+     */
+    public boolean tryParse(CharSequence line, ApacheLogRecord record) {
+        int start = 0;
+        int end = line.length();
+        while (start < end && Character.isWhitespace(line.charAt(start))) {
+            ++start;
+        }
+        while (end > start && Character.isWhitespace(line.charAt(end - 1))) {
+            --end;
+        }
+        ApacheLogFormat logFormat = this.logFormat;
+        String[] nameArray = logFormat.nameArray;
+        record.reset(line, nameArray, logFormat.nameIndexes);
+        int[] offsets = record.getOffsets();
+
+        if (engine == Engine.TOKENIZER) {
+            ApacheLogTokenizer tokenizer = logFormat.tokenizer;
+            if (tokenizer.tokenize(line, start, end, offsets)) {
+                return true;
+            }
+            if (tokenizer.isDeterministic()) {
+                return false;
+            }
+            // the tokenizer only follows the first choice of each element, let the regular expression backtrack
+        }
+
+        Matcher m = record.matcher(getPattern(), line);
+        m.region(start, end);
+        if (!(logFormat.partial ? m.lookingAt() : m.matches())) {
+            return false;
+        }
+        for (int i = 1; i <= m.groupCount() && i <= nameArray.length; ++i) {
+            offsets[2 * (i - 1)] = m.start(i);
+            offsets[2 * (i - 1) + 1] = m.end(i);
+        }
+        return true;
     }
 
     public static void main(String[] args) {
@@ -0,0 +1,95 @@
+package org.apachelog;
+
+/**
+ * Estimates the quantiles of non negative values, like the %D latencies, within a relative error. Values are
+ * counted in logarithmic buckets, each one relativeError wide, so memory only grows with the logarithm of the
+ * range: about 1100 buckets cover 1 to 10^9 at 1%. Not thread safe.
+ */
+public class ApacheLogQuantileSketch {
+    private final double gamma;
+    private final double logGamma;
+    private final ApacheLogLongCounts buckets = new ApacheLogLongCounts(256);
+    private long zeros;
+    private long count;
+    private long min = Long.MAX_VALUE;
+    private long max = Long.MIN_VALUE;
+    private double sum;
+
+    public ApacheLogQuantileSketch() {
+        this(0.01);
+    }
+
+    /**
+     * @param relativeError is the largest relative difference between an estimated quantile and the real one
+     */
+    public ApacheLogQuantileSketch(double relativeError) {
+        this.gamma = (1 + relativeError) / (1 - relativeError);
+        this.logGamma = Math.log(gamma);
+    }
+
+    /**
+     * Adds a value, negative ones are ignored
+     */
+    public void add(long value) {
+        if (value < 0) {
+            return;
+        }
+        if (value == 0) {
+            ++zeros;
+        } else {
+            buckets.add((long) Math.ceil(Math.log(value) / logGamma), 1);
+        }
+        ++count;
+        sum += value;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getMean() {
+        return count == 0 ? 0 : sum / count;
+    }
+
+    public long getMin() {
+        return count == 0 ? 0 : min;
+    }
+
+    public long getMax() {
+        return count == 0 ? 0 : max;
+    }
+
+    /**
+     * @param quantile between 0 and 1
+     * @return the estimated value at the quantile, 0 if there are no values
+     */
+    public long getQuantile(double quantile) {
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(quantile * count);
+        long seen = zeros;
+        if (seen >= rank) {
+            return 0;
+        }
+        for (long bucket : buckets.keys()) {
+            seen += buckets.get(bucket);
+            if (seen >= rank) {
+                long value = Math.round(2 * Math.pow(gamma, bucket) / (gamma + 1));
+                return Math.max(getMin(), Math.min(getMax(), value));
+            }
+        }
+        return getMax();
+    }
+
+    public void merge(ApacheLogQuantileSketch other) {
+        buckets.merge(other.buckets);
+        zeros += other.zeros;
+        count += other.count;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+}
@@ -0,0 +1,146 @@
+package org.apachelog;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Reads another stream ahead on a background thread, so decompressing a log runs on one core while the lines
+ * are parsed on another.
+ *
+ * The data is handed over in large chunks, a fixed number of them is allocated and recycled so the thread can't
+ * get more than that far ahead of the reader. Exceptions thrown by the wrapped stream are rethrown by read.
+ */
+public class ApacheLogReadAheadInputStream extends InputStream {
+    private final InputStream in;
+    private final BlockingQueue<Chunk> filled = new LinkedBlockingQueue<Chunk>();
+    private final BlockingQueue<byte[]> free = new LinkedBlockingQueue<byte[]>();
+    private final Thread thread;
+    private Chunk current;
+    private int position;
+
+    private static class Chunk {
+        final byte[] data;
+        final int length;
+        final IOException error;
+
+        Chunk(byte[] data, int length, IOException error) {
+            this.data = data;
+            this.length = length;
+            this.error = error;
+        }
+    }
+
+    public ApacheLogReadAheadInputStream(InputStream in, int chunkSize, int chunks) {
+        this.in = in;
+        for (int i = 0; i < chunks; ++i) {
+            free.add(new byte[chunkSize]);
+        }
+        thread = new Thread(new Runnable() {
+            public void run() {
+                readAhead();
+            }
+        }, "apachelog-read-ahead");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] b = new byte[1];
+        return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (current == null || position == current.length) {
+            if (!next()) {
+                return -1;
+            }
+        }
+        int count = Math.min(len, current.length - position);
+        System.arraycopy(current.data, position, b, off, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return current == null || current.length < 0 ? 0 : current.length - position;
+    }
+
+    /**
+     * Moves to the next chunk, recycling the current one
+     *
+     * @return false at the end of the stream
+     */
+    private boolean next() throws IOException {
+        if (current != null) {
+            if (current.length < 0) {
+                return false;
+            }
+            free.add(current.data);
+        }
+        try {
+            current = filled.take();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading ahead", ex);
+        }
+        position = 0;
+        if (current.error != null) {
+            IOException error = current.error;
+            current = new Chunk(null, -1, null);
+            throw error;
+        }
+        return current.length >= 0;
+    }
+
+    private void readAhead() {
+        try {
+            while (true) {
+                byte[] data = free.take();
+                int length = 0;
+                int read = 0;
+                while (length < data.length && (read = in.read(data, length, data.length - length)) >= 0) {
+                    length += read;
+                }
+                if (length > 0) {
+                    filled.add(new Chunk(data, length, null));
+                }
+                if (read < 0) {
+                    filled.add(new Chunk(null, -1, null));
+                    return;
+                }
+                if (Thread.interrupted()) {
+                    return;
+                }
+            }
+        } catch (InterruptedException ex) {
+            // closed
+        } catch (IOException ex) {
+            filled.add(new Chunk(null, 0, ex));
+        } catch (RuntimeException ex) {
+            filled.add(new Chunk(null, 0, new IOException(ex)));
+        }
+    }
+
+    /**
+     * Stops the background thread and closes the wrapped stream
+     */
+    @Override
+    public void close() throws IOException {
+        thread.interrupt();
+        try {
+            thread.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            in.close();
+        }
+    }
+}
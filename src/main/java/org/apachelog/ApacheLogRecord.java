@@ -0,0 +1,168 @@
+package org.apachelog;
+
+import java.nio.CharBuffer;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reusable result of {@link ApacheLogParser#parse(CharSequence, ApacheLogRecord)}.
+ *
+ * Rather than copying every field, the record keeps a reference to the parsed line and the start and end
+ * offsets of each field, addressed by the position of the field in the format. Views and Strings are only
+ * created for the fields that are actually read. A record is overwritten by the next parse and must not be
+ * shared across threads.
+ */
+public class ApacheLogRecord {
+    private static final int[] NO_OFFSETS = new int[0];
+
+    private CharSequence line;
+    private String[] names;
+    private Map<String, Integer> indexes;
+    private int[] offsets = NO_OFFSETS;
+    private Pattern pattern;
+    private Matcher matcher;
+
+    /**
+     * @return the line the record was parsed from
+     */
+    public CharSequence getLine() {
+        return line;
+    }
+
+    /**
+     * @return the number of fields in the record
+     */
+    public int size() {
+        return names == null ? 0 : names.length;
+    }
+
+    public String getName(int index) {
+        return names[index];
+    }
+
+    /**
+     * @return the index of the field with the given name, or -1 if the format doesn't have such field
+     */
+    public int indexOf(String name) {
+        if (indexes == null) {
+            return -1;
+        }
+        Integer index = indexes.get(name);
+        return index == null ? -1 : index;
+    }
+
+    /**
+     * @return the offset in the line where the field starts, -1 if the field didn't match
+     */
+    public int getStart(int index) {
+        return offsets[2 * index];
+    }
+
+    /**
+     * @return the offset in the line where the field ends, -1 if the field didn't match
+     */
+    public int getEnd(int index) {
+        return offsets[2 * index + 1];
+    }
+
+    public boolean isNull(int index) {
+        return offsets[2 * index] < 0;
+    }
+
+    /**
+     * Returns a view of the field, no characters are copied
+     */
+    public CharSequence get(int index) {
+        int start = offsets[2 * index];
+        if (start < 0) {
+            return null;
+        }
+        return CharBuffer.wrap(line, start, offsets[2 * index + 1]);
+    }
+
+    public CharSequence get(String name) {
+        int index = indexOf(name);
+        return index < 0 ? null : get(index);
+    }
+
+    /**
+     * Returns the field as a String, this is where the characters get copied
+     */
+    public String getString(int index) {
+        int start = offsets[2 * index];
+        if (start < 0) {
+            return null;
+        }
+        return line.subSequence(start, offsets[2 * index + 1]).toString();
+    }
+
+    public String getString(String name) {
+        int index = indexOf(name);
+        return index < 0 ? null : getString(index);
+    }
+
+    /**
+     * Returns the field as a String from the cache, the characters are only copied if the cache doesn't have them
+     */
+    public String getString(int index, ApacheLogStringCache cache) {
+        int start = offsets[2 * index];
+        if (start < 0) {
+            return null;
+        }
+        return cache.get(line, start, offsets[2 * index + 1]);
+    }
+
+    public String getString(String name, ApacheLogStringCache cache) {
+        int index = indexOf(name);
+        return index < 0 ? null : getString(index, cache);
+    }
+
+    /**
+     * Copies all the fields into the given map
+     */
+    public Map<String, String> toMap(Map<String, String> fields) {
+        for (int i = 0; i < size(); ++i) {
+            fields.put(names[i], getString(i));
+        }
+        return fields;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder buffer = new StringBuilder("{");
+        for (int i = 0; i < size(); ++i) {
+            if (i > 0) {
+                buffer.append(", ");
+            }
+            buffer.append(names[i]).append('=').append(get(i));
+        }
+        return buffer.append('}').toString();
+    }
+
+    void reset(CharSequence line, String[] names, Map<String, Integer> indexes) {
+        this.line = line;
+        this.names = names;
+        this.indexes = indexes;
+        if (offsets.length < 2 * names.length) {
+            offsets = new int[2 * names.length];
+        }
+    }
+
+    int[] getOffsets() {
+        return offsets;
+    }
+
+    /**
+     * Matchers are fairly expensive to create, the record keeps the last one around
+     */
+    Matcher matcher(Pattern pattern, CharSequence line) {
+        if (matcher == null || this.pattern != pattern) {
+            this.pattern = pattern;
+            matcher = pattern.matcher(line);
+        } else {
+            matcher.reset(line);
+        }
+        return matcher;
+    }
+}
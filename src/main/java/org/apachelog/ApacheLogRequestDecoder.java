@@ -0,0 +1,195 @@
+package org.apachelog;
+
+import java.util.Arrays;
+
+/**
+ * Splits a request line (%r) into its method, path, query and protocol, and an X-Forwarded-For header into its
+ * addresses, in a single scan of each. Only offsets are kept, Strings are allocated when a part is asked for.
+ *
+ * The parts are the same the indexer always produced with indexOf, substring and StringUtils: the method is what
+ * comes before the first space, the protocol what comes after the last one. Of the rest, split around '?' without
+ * empty tokens, the path is the first token and the query the other ones joined. Parts that are missing are "-".
+ * Addresses are separated by commas or spaces.
+ *
+ * A decoder is reused from line to line but belongs to a single thread.
+ */
+public class ApacheLogRequestDecoder {
+    private static final String MISSING = "-";
+
+    private CharSequence request;
+    private int methodEnd;
+    private int pathStart;
+    private int pathEnd;
+    private int queryStart;
+    private int queryEnd;
+    private boolean queryMarks;
+    private int protocolStart;
+    private CharSequence forwardedFor;
+    private int[] addresses = new int[8];
+    private int addressCount;
+
+    /**
+     * Decodes the request line, null is decoded like an empty one
+     */
+    public void decode(CharSequence request) {
+        this.request = request == null ? "" : request;
+        int length = this.request.length();
+
+        // the method, then the protocol from the end, then the resource in between
+        int firstSpace = -1;
+        for (int i = 0; i < length; ++i) {
+            if (this.request.charAt(i) == ' ') {
+                firstSpace = i;
+                break;
+            }
+        }
+        methodEnd = firstSpace;
+        int start = firstSpace + 1;
+        int end = length;
+        protocolStart = -1;
+        for (int i = length - 1; i >= start; --i) {
+            if (this.request.charAt(i) == ' ') {
+                protocolStart = i + 1;
+                end = i;
+                break;
+            }
+        }
+
+        int pos = start;
+        while (pos < end && this.request.charAt(pos) == '?') {
+            ++pos;
+        }
+        pathStart = pos;
+        while (pos < end && this.request.charAt(pos) != '?') {
+            ++pos;
+        }
+        pathEnd = pos;
+        while (pos < end && this.request.charAt(pos) == '?') {
+            ++pos;
+        }
+        queryStart = pos;
+        queryEnd = end;
+        queryMarks = false;
+        for (int i = pos; i < end; ++i) {
+            if (this.request.charAt(i) == '?') {
+                queryMarks = true;
+                break;
+            }
+        }
+    }
+
+    /**
+     * Decodes the request line and the X-Forwarded-For header
+     */
+    public void decode(CharSequence request, CharSequence forwardedFor) {
+        decode(request);
+        decodeForwardedFor(forwardedFor);
+    }
+
+    /**
+     * Splits the X-Forwarded-For header, null has no addresses
+     */
+    public void decodeForwardedFor(CharSequence forwardedFor) {
+        this.forwardedFor = forwardedFor;
+        addressCount = 0;
+        if (forwardedFor == null) {
+            return;
+        }
+        int length = forwardedFor.length();
+        int start = -1;
+        for (int i = 0; i <= length; ++i) {
+            boolean separator = i == length || forwardedFor.charAt(i) == ',' || forwardedFor.charAt(i) == ' ';
+            if (!separator && start < 0) {
+                start = i;
+            } else if (separator && start >= 0) {
+                if (2 * addressCount + 2 > addresses.length) {
+                    addresses = Arrays.copyOf(addresses, 2 * addresses.length);
+                }
+                addresses[2 * addressCount] = start;
+                addresses[2 * addressCount + 1] = i;
+                ++addressCount;
+                start = -1;
+            }
+        }
+    }
+
+    public String getMethod() {
+        return methodEnd < 0 ? MISSING : request.subSequence(0, methodEnd).toString();
+    }
+
+    public String getMethod(ApacheLogStringCache cache) {
+        return methodEnd < 0 ? MISSING : cache.get(request, 0, methodEnd);
+    }
+
+    public String getPath() {
+        return pathStart == pathEnd ? MISSING : request.subSequence(pathStart, pathEnd).toString();
+    }
+
+    /**
+     * @return the query without its '?' separators, "" if the path has none and "-" if there's no path
+     */
+    public String getQuery() {
+        if (pathStart == pathEnd) {
+            return MISSING;
+        }
+        if (!queryMarks) {
+            return request.subSequence(queryStart, queryEnd).toString();
+        }
+        StringBuilder query = new StringBuilder(queryEnd - queryStart);
+        for (int i = queryStart; i < queryEnd; ++i) {
+            char c = request.charAt(i);
+            if (c != '?') {
+                query.append(c);
+            }
+        }
+        return query.toString();
+    }
+
+    public String getProtocol() {
+        return protocolStart < 0 ? MISSING : request.subSequence(protocolStart, request.length()).toString();
+    }
+
+    public String getProtocol(ApacheLogStringCache cache) {
+        return protocolStart < 0 ? MISSING : cache.get(request, protocolStart, request.length());
+    }
+
+    public int getForwardedForCount() {
+        return addressCount;
+    }
+
+    public String getForwardedFor(int index) {
+        return forwardedFor.subSequence(addresses[2 * index], addresses[2 * index + 1]).toString();
+    }
+
+    /**
+     * Hashes the characters into 64 bits, four at a time, for ids that don't collide like String.hashCode() does
+     * on millions of lines
+     */
+    public static long hash(CharSequence chars) {
+        int length = chars.length();
+        long hash = 0x9E3779B97F4A7C15L ^ length;
+        int i = 0;
+        for (; i + 4 <= length; i += 4) {
+            long k = chars.charAt(i) | (long) chars.charAt(i + 1) << 16 | (long) chars.charAt(i + 2) << 32
+                    | (long) chars.charAt(i + 3) << 48;
+            hash = Long.rotateLeft(hash ^ mix(k), 27) * 5 + 0x52DCE729;
+        }
+        long k = 0;
+        for (int shift = 0; i < length; ++i, shift += 16) {
+            k |= (long) chars.charAt(i) << shift;
+        }
+        return mix(hash ^ mix(k));
+    }
+
+    /**
+     * The MurmurHash3 64 bit finalizer
+     */
+    private static long mix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
@@ -0,0 +1,160 @@
+package org.apachelog;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Pulls what it can out of a line the main parser rejected, usually a truncated syslog message: the words at the
+ * start of the line (e.g. %syslog_ti %syslog_ws %syslog_n) and the status code following the request, both in a
+ * single walk over the line.
+ *
+ * The words are matched like a parser for the format "&lt;names&gt; %_" would, the status code is the first run of
+ * digits found after HTTP/1.1" and a space, and followed by another space. Like the parser it can be shared by
+ * several threads.
+ */
+public class ApacheLogSalvageParser {
+    /**
+     * Name of the status code in the records filled by this parser
+     */
+    public static final String STATUS = "%>s";
+
+    private static final String PROTOCOL = "HTTP/1.1\"";
+
+    private final String[] names;
+    private final Map<String, Integer> indexes = new HashMap<String, Integer>();
+
+    /**
+     * @param names are the names of the words expected at the start of the line
+     */
+    public ApacheLogSalvageParser(String... names) {
+        this.names = new String[names.length + 1];
+        System.arraycopy(names, 0, this.names, 0, names.length);
+        this.names[names.length] = STATUS;
+        for (int i = 0; i < this.names.length; ++i) {
+            indexes.put(this.names[i], i);
+        }
+    }
+
+    public String[] getNames() {
+        return names.clone();
+    }
+
+    /**
+     * Fills the record with the words at the start of the line and the status code, null if the line doesn't
+     * have one
+     *
+     * @return false if the line doesn't start with the expected words, the record is undefined then
+     */
+    public boolean parse(CharSequence line, ApacheLogRecord record) {
+        int words = names.length - 1;
+        int length = line.length();
+        int start = 0;
+        int end = length;
+        while (start < end && Character.isWhitespace(line.charAt(start))) {
+            ++start;
+        }
+        while (end > start && Character.isWhitespace(line.charAt(end - 1))) {
+            --end;
+        }
+        record.reset(line, names, indexes);
+        int[] offsets = record.getOffsets();
+        offsets[2 * words] = -1;
+        offsets[2 * words + 1] = -1;
+
+        int word = 0;
+        int wordStart = start;
+        boolean status = false;
+        for (int i = 0; i < length && (word < words || !status); ++i) {
+            char c = line.charAt(i);
+            if (word < words && i >= start && i < end) {
+                if (c == ' ') {
+                    offsets[2 * word] = wordStart;
+                    offsets[2 * word + 1] = i;
+                    wordStart = i + 1;
+                    ++word;
+                } else if (ApacheLogTokenizer.isSpace(c)) {
+                    return false;
+                }
+            }
+            if (c == 'H' && !status) {
+                status = findStatus(line, i, offsets, 2 * words);
+            }
+        }
+        if (word < words) {
+            return false;
+        }
+        // the rest of the line is matched by %_ which doesn't take line terminators
+        for (int i = wordStart; i < end; ++i) {
+            if (ApacheLogTokenizer.isLineTerminator(line.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the status code following the request in the line, null if there's none
+     */
+    public static String findStatus(CharSequence line) {
+        int[] offsets = new int[2];
+        for (int i = 0; i < line.length(); ++i) {
+            if (line.charAt(i) == 'H' && findStatus(line, i, offsets, 0)) {
+                return line.subSequence(offsets[0], offsets[1]).toString();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the status code of a salvaged line, from the record if this parser salvaged it or from the line if
+     * the invalid line parser did, null if there's none
+     */
+    static String getStatus(CharSequence line, ApacheLogRecord fields) {
+        int status = fields.indexOf(STATUS);
+        return status >= 0 ? fields.getString(status) : findStatus(line);
+    }
+
+    /**
+     * @return the digits as a number, -1 if there are none or anything else
+     */
+    static long toLong(String value) {
+        if (value == null || value.isEmpty() || value.length() > 18) {
+            return -1;
+        }
+        long number = 0;
+        for (int i = 0; i < value.length(); ++i) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            number = 10 * number + c - '0';
+        }
+        return number;
+    }
+
+    /**
+     * Matches HTTP/1.1"\s(\d+)\s at the position, storing the offsets of the digits
+     */
+    private static boolean findStatus(CharSequence line, int position, int[] offsets, int offset) {
+        int length = line.length();
+        int pos = position + PROTOCOL.length();
+        if (pos >= length || !ApacheLogTokenizer.isSpace(line.charAt(pos))) {
+            return false;
+        }
+        for (int i = 0; i < PROTOCOL.length(); ++i) {
+            if (line.charAt(position + i) != PROTOCOL.charAt(i)) {
+                return false;
+            }
+        }
+        int digits = ++pos;
+        while (pos < length && line.charAt(pos) >= '0' && line.charAt(pos) <= '9') {
+            ++pos;
+        }
+        if (pos == digits || pos >= length || !ApacheLogTokenizer.isSpace(line.charAt(pos))) {
+            return false;
+        }
+        offsets[offset] = digits;
+        offsets[offset + 1] = pos;
+        return true;
+    }
+}
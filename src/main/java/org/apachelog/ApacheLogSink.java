@@ -0,0 +1,52 @@
+package org.apachelog;
+
+import java.util.List;
+
+/**
+ * Destination of the lines parsed by the {@link ApacheLogIndexer}, see {@link ApacheLogIndexer#setSink(ApacheLogSink)}.
+ *
+ * Every sink follows the same contract: each indexing thread turns its lines into items with
+ * {@link #convert(String, ApacheLogRecord, boolean)}, collects them in batches of getBatchSize() items and hands
+ * full batches to {@link #send(List, Callback)}. Partial batches are sent when a range or file ends and, when
+ * following a log, once their first item waited getFlushInterval() milliseconds. {@link #close()} is called once
+ * the run ends, even if it failed.
+ */
+public interface ApacheLogSink<T> {
+    /**
+     * Called once a batch has been written, possibly on another thread. Batches may be written out of order.
+     */
+    interface Callback {
+        void acknowledged();
+    }
+
+    /**
+     * Called once per indexing run, before the first batch
+     */
+    void start() throws ApacheLogIndexerException;
+
+    /**
+     * Turns a line into an item. Called concurrently by the indexing threads, the record is reused for the next
+     * line so anything kept from it must be copied.
+     *
+     * @param valid is false for lines rejected by the main parser, the record holds the fields salvaged by the
+     *              invalid line parser then
+     * @return the item, null if the line can't be converted
+     */
+    T convert(String line, ApacheLogRecord fields, boolean valid);
+
+    /**
+     * Takes a batch of items, the sink owns the list from now on. Called concurrently by the indexing threads, it
+     * may block when the sink falls behind.
+     *
+     * @param callback is called once the batch is written, may be null
+     * @throws ApacheLogIndexerException if the batch, or a previous one, couldn't be written
+     */
+    void send(List<T> batch, Callback callback) throws ApacheLogIndexerException;
+
+    /**
+     * Writes out every batch sent and releases the resources taken by start()
+     *
+     * @throws ApacheLogIndexerException if any batch couldn't be written
+     */
+    void close() throws ApacheLogIndexerException;
+}
@@ -0,0 +1,355 @@
+package org.apachelog;
+
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrException;
+import org.apache.solr.common.SolrInputDocument;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends batches of documents to Solr on background threads so parsing doesn't wait for each round trip.
+ *
+ * At most maxInFlight batches are queued or being sent at any time. Once that limit is reached
+ * {@link #send(List)} blocks until a batch completes, which slows the readers down when Solr falls behind
+ * instead of piling documents up in memory. A failed batch is retried maxRetries times with an exponential
+ * back off; if it still fails the error is reported by the next call to send or close.
+ *
+ * Commits are driven by the {@link ApacheLogCommitPolicy}, by default the sender never commits. Commits after a
+ * batch are retried on their own, the batch isn't sent again.
+ */
+public class ApacheLogSolrSender {
+    private static final Batch STOP = new Batch(Collections.<SolrInputDocument>emptyList(), null);
+
+    private static class Batch {
+        final List<SolrInputDocument> docs;
+        final ApacheLogSink.Callback callback;
+        final long queued = System.nanoTime();
+
+        Batch(List<SolrInputDocument> docs, ApacheLogSink.Callback callback) {
+            this.docs = docs;
+            this.callback = callback;
+        }
+    }
+
+    private final SolrServer server;
+    private final BlockingQueue<Batch> queue = new LinkedBlockingQueue<Batch>();
+    private final Semaphore inFlight;
+    private final int maxInFlight;
+    private final List<Thread> threads;
+    private int maxRetries = 3;
+    private long retryDelay = 1000;
+    private ApacheLogCommitPolicy commitPolicy = ApacheLogCommitPolicy.NONE;
+    private int commitWithin = 5000;
+    private int commitDocuments = 100000;
+    private long commitInterval = 60000;
+    private long uncommitted;
+    private ScheduledExecutorService committer;
+    private volatile Exception failure;
+    private ApacheLogMetrics metrics = new ApacheLogMetrics();
+
+    public ApacheLogSolrSender(SolrServer server, int senders, int maxInFlight) {
+        this.server = server;
+        this.maxInFlight = maxInFlight;
+        this.inFlight = new Semaphore(maxInFlight);
+        this.threads = new ArrayList<Thread>(senders);
+        for (int i = 0; i < senders; ++i) {
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    sendBatches();
+                }
+            }, "apachelog-solr-sender-" + i);
+            thread.setDaemon(true);
+            threads.add(thread);
+        }
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    public long getRetryDelay() {
+        return retryDelay;
+    }
+
+    /**
+     * Sets the delay in milliseconds before the first retry, it doubles on each retry
+     */
+    public void setRetryDelay(long retryDelay) {
+        this.retryDelay = retryDelay;
+    }
+
+    public ApacheLogCommitPolicy getCommitPolicy() {
+        return commitPolicy;
+    }
+
+    public void setCommitPolicy(ApacheLogCommitPolicy commitPolicy) {
+        this.commitPolicy = commitPolicy;
+    }
+
+    public int getCommitWithin() {
+        return commitWithin;
+    }
+
+    /**
+     * Sets the commitWithin in milliseconds sent with each batch by the COMMIT_WITHIN policy
+     */
+    public void setCommitWithin(int commitWithin) {
+        this.commitWithin = commitWithin;
+    }
+
+    public int getCommitDocuments() {
+        return commitDocuments;
+    }
+
+    /**
+     * Sets the number of documents between commits for the DOCUMENTS policy
+     */
+    public void setCommitDocuments(int commitDocuments) {
+        this.commitDocuments = commitDocuments;
+    }
+
+    public long getCommitInterval() {
+        return commitInterval;
+    }
+
+    /**
+     * Sets the milliseconds between commits for the INTERVAL policy
+     */
+    public void setCommitInterval(long commitInterval) {
+        this.commitInterval = commitInterval;
+    }
+
+    public ApacheLogMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets the metrics updated with the batches, retries and commits. Must be called before start()
+     */
+    public void setMetrics(ApacheLogMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * @return the number of batches waiting to be sent or being sent
+     */
+    public int getInFlight() {
+        return maxInFlight - inFlight.availablePermits();
+    }
+
+    public void start() {
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        if (commitPolicy == ApacheLogCommitPolicy.INTERVAL) {
+            committer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "apachelog-solr-committer");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            committer.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    try {
+                        commit();
+                    } catch (Exception ex) {
+                        System.err.println("Exception while committing: " + ex.getMessage());
+                    }
+                }
+            }, commitInterval, commitInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Queues a batch of documents, blocking while there are too many batches in flight. The sender owns the
+     * list from now on, callers must not modify it.
+     *
+     * @throws ApacheLogIndexerException if a previous batch failed
+     */
+    public void send(List<SolrInputDocument> docs) throws ApacheLogIndexerException {
+        send(docs, null);
+    }
+
+    /**
+     * Queues a batch of documents like {@link #send(List)}, the callback is called on a sender thread once Solr
+     * acknowledged it. Batches sent by different threads may be acknowledged out of order.
+     */
+    public void send(List<SolrInputDocument> docs, ApacheLogSink.Callback callback) throws ApacheLogIndexerException {
+        checkFailure();
+        try {
+            inFlight.acquire();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new ApacheLogIndexerException("Interrupted while waiting to send a batch", ex);
+        }
+        metrics.batchesInFlight.increment();
+        metrics.queuedBatches.increment();
+        queue.add(new Batch(docs, callback));
+    }
+
+    /**
+     * Waits for all the queued batches to be sent and stops the sender threads
+     *
+     * @throws ApacheLogIndexerException if any batch failed
+     */
+    public void close() throws ApacheLogIndexerException {
+        for (int i = 0; i < threads.size(); ++i) {
+            queue.add(STOP);
+        }
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            for (Thread thread : threads) {
+                thread.interrupt();
+            }
+            throw new ApacheLogIndexerException("Interrupted while waiting for batches to be sent", ex);
+        } finally {
+            if (committer != null) {
+                committer.shutdownNow();
+            }
+        }
+        checkFailure();
+    }
+
+    private void checkFailure() throws ApacheLogIndexerException {
+        if (failure != null) {
+            throw new ApacheLogIndexerException("Exception indexing batch", failure);
+        }
+    }
+
+    private void sendBatches() {
+        while (true) {
+            Batch batch;
+            try {
+                batch = queue.take();
+            } catch (InterruptedException ex) {
+                return;
+            }
+            if (batch == STOP) {
+                return;
+            }
+            metrics.queuedBatches.decrement();
+            boolean added = false;
+            try {
+                if (failure == null) {
+                    sendBatch(batch.docs);
+                    added = true;
+                    metrics.batches.increment();
+                    metrics.batchSize.record(batch.docs.size());
+                    metrics.batchLatency.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - batch.queued));
+                    if (batch.callback != null) {
+                        batch.callback.acknowledged();
+                    }
+                    // the batch is in Solr already, a failed commit is retried on its own and doesn't fail it
+                    if (commitPolicy == ApacheLogCommitPolicy.DOCUMENTS) {
+                        commitWithRetries();
+                    }
+                }
+            } catch (InterruptedException ex) {
+                return;
+            } catch (Exception ex) {
+                if (!added) {
+                    metrics.batchFailures.increment();
+                }
+                failure = ex;
+            } finally {
+                metrics.batchesInFlight.decrement();
+                inFlight.release();
+            }
+        }
+    }
+
+    /**
+     * Adds the documents, retrying on failure, and counts them as uncommitted once Solr took them
+     */
+    private void sendBatch(List<SolrInputDocument> docs) throws Exception {
+        long delay = retryDelay;
+        for (int attempt = 0; ; ++attempt) {
+            try {
+                long start = System.nanoTime();
+                try {
+                    if (commitPolicy == ApacheLogCommitPolicy.COMMIT_WITHIN) {
+                        server.add(docs, commitWithin);
+                    } else {
+                        server.add(docs);
+                    }
+                } finally {
+                    metrics.solrAdd.record(System.nanoTime() - start);
+                }
+                synchronized (this) {
+                    uncommitted += docs.size();
+                }
+                return;
+            } catch (SolrServerException ex) {
+                checkRetry(ex, attempt, "sending batch");
+            } catch (IOException ex) {
+                checkRetry(ex, attempt, "sending batch");
+            } catch (SolrException ex) {
+                checkRetry(ex, attempt, "sending batch");
+            }
+            Thread.sleep(delay);
+            delay *= 2;
+        }
+    }
+
+    private void commitWithRetries() throws Exception {
+        long delay = retryDelay;
+        for (int attempt = 0; ; ++attempt) {
+            try {
+                commit();
+                return;
+            } catch (SolrServerException ex) {
+                checkRetry(ex, attempt, "committing");
+            } catch (IOException ex) {
+                checkRetry(ex, attempt, "committing");
+            } catch (SolrException ex) {
+                checkRetry(ex, attempt, "committing");
+            }
+            Thread.sleep(delay);
+            delay *= 2;
+        }
+    }
+
+    /**
+     * Soft commits if enough documents were added since the last commit
+     */
+    private synchronized void commit() throws SolrServerException, IOException {
+        long threshold = commitPolicy == ApacheLogCommitPolicy.DOCUMENTS ? commitDocuments : 1;
+        if (uncommitted >= threshold) {
+            long start = System.nanoTime();
+            try {
+                server.commit(false, true, true);
+            } finally {
+                metrics.commit.record(System.nanoTime() - start);
+            }
+            uncommitted = 0;
+        }
+    }
+
+    private void checkRetry(Exception ex, int attempt, String action) throws Exception {
+        if (attempt >= maxRetries) {
+            throw ex;
+        }
+        metrics.retries.increment();
+        System.err.println("Exception " + action + " (attempt " + (attempt + 1) + "), retrying: " + ex.getMessage());
+    }
+}
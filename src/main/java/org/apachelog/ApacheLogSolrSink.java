@@ -0,0 +1,194 @@
+package org.apachelog;
+
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.common.SolrInputDocument;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Sends the lines to Solr as documents of the schema documented in {@link ApacheLogIndexer}, through an
+ * {@link ApacheLogSolrSender}. This is the sink used by the indexer unless another one is set.
+ *
+ * Like the sender, a sink is good for a single run: start() starts the sender and close() waits for every batch
+ * and issues the final commit.
+ *
+ * Fields repeated across lines (web server, host, method, protocol, status, user agent...) go through string caches
+ * so the documents of a batch share their values instead of holding a copy each.
+ */
+public class ApacheLogSolrSink implements ApacheLogSink<SolrInputDocument> {
+    private final SolrServer server;
+    private final ApacheLogSolrSender sender;
+    private final ApacheLogTimestampParser timestampParser = new ApacheLogTimestampParser();
+    private boolean finalCommit = true;
+    private ApacheLogStringCache fieldCache = new ApacheLogStringCache(4096);
+    private ApacheLogStringCache userAgentCache = new ApacheLogStringCache(16384);
+    private final ThreadLocal<ApacheLogRequestDecoder> decoders = new ThreadLocal<ApacheLogRequestDecoder>() {
+        @Override
+        protected ApacheLogRequestDecoder initialValue() {
+            return new ApacheLogRequestDecoder();
+        }
+    };
+
+    public ApacheLogSolrSink(SolrServer server) {
+        this(server, new ApacheLogSolrSender(server, 2, 4));
+    }
+
+    /**
+     * @param sender is the sender to use, configured but not started yet
+     */
+    public ApacheLogSolrSink(SolrServer server, ApacheLogSolrSender sender) {
+        this.server = server;
+        this.sender = sender;
+    }
+
+    public ApacheLogSolrSender getSender() {
+        return sender;
+    }
+
+    public boolean isFinalCommit() {
+        return finalCommit;
+    }
+
+    /**
+     * Sets whether close() commits once every batch was sent. Defaults to true
+     */
+    public void setFinalCommit(boolean finalCommit) {
+        this.finalCommit = finalCommit;
+    }
+
+    public ApacheLogStringCache getFieldCache() {
+        return fieldCache;
+    }
+
+    /**
+     * Sets the cache of the low cardinality fields: web server, host, method, protocol, status, remote user and log
+     * name. Defaults to 4096 values
+     */
+    public void setFieldCache(ApacheLogStringCache fieldCache) {
+        this.fieldCache = fieldCache;
+    }
+
+    public ApacheLogStringCache getUserAgentCache() {
+        return userAgentCache;
+    }
+
+    /**
+     * Sets the cache of the user agents, kept apart so their many values don't evict the other fields. Defaults to
+     * 16384 values
+     */
+    public void setUserAgentCache(ApacheLogStringCache userAgentCache) {
+        this.userAgentCache = userAgentCache;
+    }
+
+    public void start() {
+        sender.start();
+    }
+
+    public SolrInputDocument convert(String line, ApacheLogRecord fields, boolean valid) {
+        return valid ? createDocument(line, fields) : createInvalidLineDocument(line, fields);
+    }
+
+    public void send(List<SolrInputDocument> batch, Callback callback) throws ApacheLogIndexerException {
+        sender.send(batch, callback);
+    }
+
+    /**
+     * Waits for the sender to send every batch and issues the final commit
+     */
+    public void close() throws ApacheLogIndexerException {
+        try {
+            sender.close();
+        } finally {
+            if (isFinalCommit()) {
+                long start = System.nanoTime();
+                try {
+                    server.commit(false, true, false);
+                } catch (SolrServerException ex) {
+                    throw new ApacheLogIndexerException("Exception while committing", ex);
+                } catch (IOException ex) {
+                    throw new ApacheLogIndexerException("Exception while committing", ex);
+                } finally {
+                    sender.getMetrics().commit.record(System.nanoTime() - start);
+                }
+            }
+        }
+    }
+
+    SolrInputDocument createDocument(String line, ApacheLogRecord fields) {
+        String time = fields.getString("%t");
+        Date date = null;
+        long start = System.nanoTime();
+        try {
+            date = new Date(timestampParser.parseApacheTime(time));
+        } catch (ParseException ex) {
+            ex.printStackTrace(System.err);
+            return null;
+        } finally {
+            sender.getMetrics().dateDecode.record(System.nanoTime() - start);
+        }
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.setField("id", time + "|" + ApacheLogRequestDecoder.hash(line));
+        doc.setField("datetime", date);
+        doc.setField("webServer", fields.getString("%syslog_ws", fieldCache));
+        doc.setField("host", fields.getString("%{Host}i", fieldCache));
+        ApacheLogRequestDecoder request = decoders.get();
+        request.decode(fields.get("%r"), fields.get("%{X-Forwarded-For}i"));
+        doc.setField("method", request.getMethod(fieldCache));
+        doc.setField("protocol", request.getProtocol(fieldCache));
+        doc.setField("resource", request.getPath());
+        doc.setField("resourceParams", request.getQuery());
+        doc.setField("code", fields.getString("%>s", fieldCache));
+        doc.setField("referer", fields.getString("%{Referer}i"));
+        doc.setField("userAgent", fields.getString("%{User-Agent}i", userAgentCache));
+        doc.setField("time", fields.getString("%D"));
+        doc.setField("remoteUser", fields.getString("%u", fieldCache));
+        doc.setField("remoteLogName", fields.getString("%l", fieldCache));
+        doc.setField("bytes", fields.getString("%b"));
+        for (int i = 0; i < request.getForwardedForCount(); ++i) {
+            doc.addField("xForwardFor", request.getForwardedFor(i));
+        }
+        doc.addField("isValidLine", true);
+        doc.setField("logText", line);
+        return doc;
+    }
+
+    SolrInputDocument createInvalidLineDocument(String line, ApacheLogRecord fields) {
+        String time = fields.getString("%syslog_ti");
+        Date date = null;
+        long start = System.nanoTime();
+        try {
+            date = new Date(timestampParser.parseSyslogTime(time));
+        } catch (ParseException ex) {
+            ex.printStackTrace(System.err);
+            return null;
+        } finally {
+            sender.getMetrics().dateDecode.record(System.nanoTime() - start);
+        }
+        SolrInputDocument doc = new SolrInputDocument();
+        doc.setField("id", time + "|" + ApacheLogRequestDecoder.hash(line));
+        doc.setField("datetime", date);
+        doc.setField("webServer", fields.getString("%syslog_ws", fieldCache));
+        doc.setField("host", "?");
+        doc.setField("method", "?");
+        doc.setField("protocol", "?");
+        doc.setField("resource", "?");
+        doc.setField("resourceParams", "?");
+        String responseCode = ApacheLogSalvageParser.getStatus(line, fields);
+        doc.setField("code", responseCode == null ? "-1" : responseCode);
+        doc.setField("referer", "?");
+        doc.setField("userAgent", "?");
+        doc.setField("time", "-1");
+        doc.setField("remoteUser", "?");
+        doc.setField("remoteLogName", "?");
+        doc.setField("bytes", "-1");
+        doc.addField("xForwardFor", "?");
+        doc.addField("isValidLine", false);
+        doc.setField("logText", line);
+
+        return doc;
+    }
+}
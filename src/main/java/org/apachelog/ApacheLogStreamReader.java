@@ -0,0 +1,145 @@
+package org.apachelog;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * Reads log lines from a stream, for logs that can't be memory mapped like compressed rotated logs.
+ *
+ * Lines are split on the raw bytes, like BufferedReader they can end with \n, \r or \r\n. The buffer grows when
+ * a single line doesn't fit in it.
+ */
+public class ApacheLogStreamReader implements ApacheLogLineReader {
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    private static final int INPUT_BUFFER_SIZE = 64 * 1024;
+    private static final int READ_AHEAD_CHUNKS = 4;
+
+    private final InputStream in;
+    private final ApacheLogByteLine line;
+    private byte[] data = new byte[BUFFER_SIZE];
+    private ByteBuffer buffer = ByteBuffer.wrap(data);
+    private int start;
+    private int limit;
+    private long consumed;
+    private boolean eof;
+
+    /**
+     * Reads a plain or compressed log, see {@link ApacheLogCompression}. Compressed logs are decompressed on a
+     * separate thread.
+     */
+    public ApacheLogStreamReader(File file, Charset charset) throws IOException {
+        this(open(file), charset);
+    }
+
+    public ApacheLogStreamReader(InputStream in, Charset charset) {
+        ApacheLogByteLine.checkCharset(charset);
+        this.in = in;
+        this.line = new ApacheLogByteLine(charset);
+    }
+
+    private static InputStream open(File file) throws IOException {
+        ApacheLogCompression compression = ApacheLogCompression.detect(file);
+        InputStream in = new BufferedInputStream(new FileInputStream(file), INPUT_BUFFER_SIZE);
+        if (compression == ApacheLogCompression.NONE) {
+            return in;
+        }
+        try {
+            return new ApacheLogReadAheadInputStream(compression.decompress(in), BUFFER_SIZE, READ_AHEAD_CHUNKS);
+        } catch (IOException ex) {
+            in.close();
+            throw ex;
+        }
+    }
+
+    /**
+     * Opens a log with the best reader for it: memory mapped for plain files, streamed for compressed files
+     */
+    public static ApacheLogLineReader open(File file, Charset charset) throws IOException {
+        if (ApacheLogCompression.detect(file) == ApacheLogCompression.NONE) {
+            return new ApacheLogMappedReader(file, charset);
+        }
+        return new ApacheLogStreamReader(file, charset);
+    }
+
+    /**
+     * @return the offset in the uncompressed log of the next line to be read
+     */
+    public long getPosition() {
+        return consumed + start;
+    }
+
+    public ApacheLogByteLine readLine() throws IOException {
+        int scan = start;
+        while (true) {
+            int end = scan;
+            while (end < limit && data[end] != '\n' && data[end] != '\r') {
+                ++end;
+            }
+
+            if (end < limit) {
+                int next = end + 1;
+                if (data[end] == '\r') {
+                    if (next == limit && !eof) {
+                        // can't tell if a \n follows
+                        scan = fill(end);
+                        continue;
+                    }
+                    if (next < limit && data[next] == '\n') {
+                        ++next;
+                    }
+                }
+                line.set(buffer, start, end - start);
+                start = next;
+                return line;
+            }
+
+            if (eof) {
+                if (start == limit) {
+                    return null;
+                }
+                line.set(buffer, start, limit - start);
+                start = limit;
+                return line;
+            }
+            scan = fill(end);
+        }
+    }
+
+    /**
+     * Reads more data keeping the current line, making room for it first
+     *
+     * @return where to resume scanning for the end of the line, scan moved by the compaction
+     */
+    private int fill(int scan) throws IOException {
+        if (start > 0) {
+            System.arraycopy(data, start, data, 0, limit - start);
+            consumed += start;
+            scan -= start;
+            limit -= start;
+            start = 0;
+        }
+        if (limit == data.length) {
+            // a single line fills the whole buffer
+            byte[] larger = new byte[data.length * 2];
+            System.arraycopy(data, 0, larger, 0, limit);
+            data = larger;
+            buffer = ByteBuffer.wrap(data);
+        }
+        int read = in.read(data, limit, data.length - limit);
+        if (read < 0) {
+            eof = true;
+        } else {
+            limit += read;
+        }
+        return scan;
+    }
+
+    public void close() throws IOException {
+        in.close();
+    }
+}
@@ -0,0 +1,330 @@
+package org.apachelog;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Streams of the records parsed from logs, to filter, project and aggregate them with java.util.stream instead of
+ * an {@link ApacheLogIndexer} and a sink. Streams are pulled, so lines are only read as fast as the pipeline
+ * consumes them.
+ *
+ * Plain logs are memory mapped and their streams split in ranges of lines: parallel() parses the ranges of all
+ * the logs on the common fork join pool. Compressed logs can't be split and are read by a single thread. Each
+ * record is a new {@link ApacheLogRecord} over a line of its own, so records can be kept or collected; lines of
+ * plain logs point to the mapped file and nothing is copied. Lines rejected by the filter of the parser or that
+ * can't be parsed are skipped.
+ *
+ * Close the streams, e.g. with try-with-resources, to close the logs of a pipeline that didn't read them to the
+ * end. I/O errors are thrown as UncheckedIOException.
+ */
+public final class ApacheLogStreams {
+    /** Ranges are not split below this size */
+    private static final long MIN_SPLIT_SIZE = 1024 * 1024;
+    /** A rough line length to estimate the records left in a range */
+    private static final int AVERAGE_LINE_LENGTH = 200;
+
+    private ApacheLogStreams() {
+    }
+
+    /**
+     * @return the records of a log, or of all the logs under a directory sorted by path, in order
+     */
+    public static Stream<ApacheLogRecord> records(File file, ApacheLogParser parser, Charset charset) throws IOException {
+        List<File> files = new ArrayList<File>();
+        if (file.isDirectory()) {
+            ApacheLogIndexer.listFiles(file, files);
+        } else if (file.exists()) {
+            files.add(file);
+        } else {
+            throw new FileNotFoundException(file.getPath());
+        }
+        return records(files, parser, charset);
+    }
+
+    /**
+     * @return the records of the logs, in order
+     */
+    public static Stream<ApacheLogRecord> records(List<File> files, ApacheLogParser parser, Charset charset) throws IOException {
+        ApacheLogByteLine.checkCharset(charset);
+        List<Segment> segments = new ArrayList<Segment>(files.size());
+        for (File file : files) {
+            if (ApacheLogCompression.detect(file) == ApacheLogCompression.NONE) {
+                segments.add(new Segment(file, 0, file.length(), false));
+            } else {
+                segments.add(new Segment(file, 0, Long.MAX_VALUE, true));
+            }
+        }
+        final Set<Closeable> open = Collections.newSetFromMap(new ConcurrentHashMap<Closeable, Boolean>());
+        RecordSpliterator spliterator = new RecordSpliterator(segments, 0, segments.size(), parser, charset, open);
+        return StreamSupport.stream(spliterator, false).onClose(new Runnable() {
+            public void run() {
+                closeAll(open);
+            }
+        });
+    }
+
+    /**
+     * Follows a log that is still being written, see {@link ApacheLogTailReader}. The stream never ends: it waits
+     * for new lines until the thread is interrupted or a short circuiting operation like limit() is done. It is
+     * sequential, parallel() only hands batches of records to other threads.
+     *
+     * @param position is the offset of the first line, use file.length() to only stream new lines
+     */
+    public static Stream<ApacheLogRecord> follow(File file, final ApacheLogParser parser, Charset charset, long position) throws IOException {
+        final ApacheLogTailReader in = new ApacheLogTailReader(file, charset, position);
+        Spliterator<ApacheLogRecord> spliterator = new Spliterators.AbstractSpliterator<ApacheLogRecord>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+            private final ApacheLogRecord scratch = new ApacheLogRecord();
+
+            public boolean tryAdvance(Consumer<? super ApacheLogRecord> action) {
+                try {
+                    while (true) {
+                        ApacheLogByteLine line = in.readLine(1, TimeUnit.SECONDS);
+                        if (line == null) {
+                            continue;
+                        }
+                        // the reader reuses its buffer, the record needs a copy of the line
+                        ApacheLogRecord record = parse(parser, copy(line), scratch);
+                        if (record != null) {
+                            action.accept(record);
+                            return true;
+                        }
+                    }
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }
+        };
+        return StreamSupport.stream(spliterator, false).onClose(new Runnable() {
+            public void run() {
+                try {
+                    in.close();
+                } catch (IOException ex) {
+                    throw new UncheckedIOException(ex);
+                }
+            }
+        });
+    }
+
+    /**
+     * @return a new record for the line, null if the filter rejects it or it can't be parsed
+     */
+    private static ApacheLogRecord parse(ApacheLogParser parser, CharSequence line, ApacheLogRecord scratch) {
+        if (!parser.accept(line, scratch)) {
+            return null;
+        }
+        ApacheLogRecord record = new ApacheLogRecord();
+        return parser.tryParse(line, record) ? record : null;
+    }
+
+    private static ApacheLogByteLine copy(ApacheLogByteLine line) {
+        byte[] bytes = new byte[line.length()];
+        ByteBuffer source = line.getBuffer().duplicate();
+        source.position(line.getStart());
+        source.get(bytes);
+        return new ApacheLogByteLine(ByteBuffer.wrap(bytes), 0, bytes.length, line.getCharset());
+    }
+
+    private static void closeAll(Set<Closeable> open) {
+        IOException error = null;
+        for (Closeable closeable : open) {
+            try {
+                closeable.close();
+            } catch (IOException ex) {
+                error = ex;
+            }
+        }
+        open.clear();
+        if (error != null) {
+            throw new UncheckedIOException(error);
+        }
+    }
+
+    /**
+     * A range of lines of a log, the whole log if it is compressed
+     */
+    private static class Segment {
+        final File file;
+        final long start;
+        final long end;
+        final boolean compressed;
+
+        Segment(File file, long start, long end, boolean compressed) {
+            this.file = file;
+            this.start = start;
+            this.end = end;
+            this.compressed = compressed;
+        }
+    }
+
+    /**
+     * Reads segments [from, to) of the list. Splits give away the first half of the segments, or of the range when
+     * a single plain segment is left.
+     */
+    private static class RecordSpliterator implements Spliterator<ApacheLogRecord> {
+        private final List<Segment> segments;
+        private int from;
+        private final int to;
+        private final ApacheLogParser parser;
+        private final Charset charset;
+        private final Set<Closeable> open;
+        private final ApacheLogRecord scratch = new ApacheLogRecord();
+        /** Overrides the start of the first segment once it was split */
+        private long start;
+        private ApacheLogLineReader in;
+        private boolean mapped;
+
+        RecordSpliterator(List<Segment> segments, int from, int to, ApacheLogParser parser, Charset charset, Set<Closeable> open) {
+            this.segments = segments;
+            this.from = from;
+            this.to = to;
+            this.parser = parser;
+            this.charset = charset;
+            this.open = open;
+            this.start = from < to ? segments.get(from).start : 0;
+        }
+
+        public boolean tryAdvance(Consumer<? super ApacheLogRecord> action) {
+            try {
+                while (from < to) {
+                    if (in == null) {
+                        openSegment();
+                    }
+                    ApacheLogByteLine line;
+                    while ((line = in.readLine()) != null) {
+                        ApacheLogRecord record = parse(parser, mapped ? line.subSequence(0, line.length()) : copy(line), scratch);
+                        if (record != null) {
+                            action.accept(record);
+                            return true;
+                        }
+                    }
+                    closeSegment();
+                }
+                return false;
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+        public Spliterator<ApacheLogRecord> trySplit() {
+            if (in != null) {
+                // already reading, keep it simple
+                return null;
+            }
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                RecordSpliterator prefix = new RecordSpliterator(segments, from, middle, parser, charset, open);
+                prefix.start = start;
+                from = middle;
+                start = segments.get(from).start;
+                return prefix;
+            }
+            if (from == to) {
+                return null;
+            }
+            Segment segment = segments.get(from);
+            if (segment.compressed || segment.end - start < 2 * MIN_SPLIT_SIZE) {
+                return null;
+            }
+            try {
+                long middle = nextLine(segment.file, start + (segment.end - start) / 2);
+                if (middle <= start || middle >= segment.end) {
+                    return null;
+                }
+                List<Segment> prefixSegments = Collections.singletonList(new Segment(segment.file, start, middle, false));
+                RecordSpliterator prefix = new RecordSpliterator(prefixSegments, 0, 1, parser, charset, open);
+                start = middle;
+                return prefix;
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+
+        public long estimateSize() {
+            long bytes = 0;
+            for (int i = from; i < to; ++i) {
+                Segment segment = segments.get(i);
+                if (segment.compressed) {
+                    // about ten times the compressed size
+                    bytes += 10 * segment.file.length();
+                } else {
+                    bytes += segment.end - (i == from ? start : segment.start);
+                }
+            }
+            return bytes / AVERAGE_LINE_LENGTH;
+        }
+
+        public int characteristics() {
+            return Spliterator.ORDERED | Spliterator.NONNULL;
+        }
+
+        private void openSegment() throws IOException {
+            Segment segment = segments.get(from);
+            if (segment.compressed) {
+                in = new ApacheLogStreamReader(segment.file, charset);
+                mapped = false;
+            } else {
+                in = new ApacheLogMappedReader(segment.file, charset, start, segment.end);
+                mapped = true;
+            }
+            open.add(in);
+        }
+
+        private void closeSegment() throws IOException {
+            open.remove(in);
+            in.close();
+            in = null;
+            ++from;
+            if (from < to) {
+                start = segments.get(from).start;
+            }
+        }
+
+        /**
+         * @return the offset of the line after the one holding the byte before position, -1 if there's none
+         */
+        private static long nextLine(File file, long position) throws IOException {
+            FileInputStream in = new FileInputStream(file);
+            try {
+                FileChannel channel = in.getChannel();
+                ByteBuffer buffer = ByteBuffer.allocate(8192);
+                long offset = position - 1;
+                while (true) {
+                    buffer.clear();
+                    int read = channel.read(buffer, offset);
+                    if (read <= 0) {
+                        return -1;
+                    }
+                    for (int i = 0; i < read; ++i) {
+                        if (buffer.get(i) == '\n') {
+                            return offset + i + 1;
+                        }
+                    }
+                    offset += read;
+                }
+            } finally {
+                in.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package org.apachelog;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache returning the same String instance for equal values, for fields repeated across millions of lines
+ * like the user agent, the host or the method. The characters are hashed and compared where they are, a String is
+ * only allocated on a miss.
+ *
+ * The cache is a table of two way sets: a hit in the second slot of a set moves the value to the first one, and a
+ * miss evicts the second slot, so each set keeps its two most recently used values. It can be shared by several
+ * threads without locking. Concurrent updates of a set may lose an entry, which is only a miss later on, since
+ * Strings are immutable a thread never sees a partially built one.
+ */
+public class ApacheLogStringCache {
+    private static final int DEFAULT_MAX_LENGTH = 512;
+
+    private final String[] slots;
+    private final int mask;
+    private final int maxLength;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param capacity is the number of values kept, rounded up to a power of two
+     */
+    public ApacheLogStringCache(int capacity) {
+        this(capacity, DEFAULT_MAX_LENGTH);
+    }
+
+    /**
+     * @param capacity is the number of values kept, rounded up to a power of two
+     * @param maxLength is the length of the longest value cached, longer ones are always allocated
+     */
+    public ApacheLogStringCache(int capacity, int maxLength) {
+        this.slots = new String[capacity <= 2 ? 2 : Integer.highestOneBit(capacity - 1) << 1];
+        this.mask = slots.length / 2 - 1;
+        this.maxLength = maxLength;
+    }
+
+    public int getCapacity() {
+        return slots.length;
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the cached String equal to the characters, null if chars is null
+     */
+    public String get(CharSequence chars) {
+        return chars == null ? null : get(chars, 0, chars.length());
+    }
+
+    /**
+     * @return the cached String equal to the characters between start (inclusive) and end (exclusive)
+     */
+    public String get(CharSequence chars, int start, int end) {
+        int length = end - start;
+        if (length > maxLength) {
+            return chars.subSequence(start, end).toString();
+        }
+        int hash = 0;
+        for (int i = start; i < end; ++i) {
+            hash = 31 * hash + chars.charAt(i);
+        }
+        int set = 2 * ((hash ^ (hash >>> 16)) & mask);
+
+        String first = slots[set];
+        if (first != null && equals(first, chars, start, length)) {
+            hits.increment();
+            return first;
+        }
+        String second = slots[set + 1];
+        if (second != null && equals(second, chars, start, length)) {
+            slots[set + 1] = first;
+            slots[set] = second;
+            hits.increment();
+            return second;
+        }
+        String value = chars.subSequence(start, end).toString();
+        slots[set + 1] = first;
+        slots[set] = value;
+        misses.increment();
+        return value;
+    }
+
+    private static boolean equals(String value, CharSequence chars, int start, int length) {
+        if (value.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; ++i) {
+            if (value.charAt(i) != chars.charAt(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,196 @@
+package org.apachelog;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Follows a log file that is still being written, like tail -F.
+ *
+ * Only complete lines (ending with \n) are returned, a partial line waits until the rest is written. When no
+ * line is available the reader sleeps on a WatchService for the directory of the log, falling back to polling
+ * with an increasing interval for file systems that don't report changes. Rotation (the file is renamed and a
+ * new one created) is detected through the file key: the rest of the old file is read and then the reader
+ * moves on to the new file. Truncation (copytruncate) makes the reader start again from the beginning.
+ */
+public class ApacheLogTailReader implements Closeable {
+    private static final int BUFFER_SIZE = 1024 * 1024;
+    private static final long MIN_POLL_INTERVAL = 10;
+    private static final long MAX_POLL_INTERVAL = 1000;
+
+    private final Path path;
+    private final ApacheLogByteLine line;
+    private final WatchService watcher;
+    private FileChannel channel;
+    private Object fileKey;
+    private ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private long position;
+    private long pollInterval = MIN_POLL_INTERVAL;
+
+    public ApacheLogTailReader(File file, Charset charset) throws IOException {
+        this(file, charset, 0);
+    }
+
+    /**
+     * @param position is the offset of the first line to read, use file.length() to only read new lines
+     */
+    public ApacheLogTailReader(File file, Charset charset, long position) throws IOException {
+        ApacheLogByteLine.checkCharset(charset);
+        this.path = file.toPath().toAbsolutePath();
+        this.line = new ApacheLogByteLine(charset);
+        this.watcher = FileSystems.getDefault().newWatchService();
+        path.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        open();
+        this.position = Math.min(position, channel.size());
+        buffer.flip();
+    }
+
+    /**
+     * @return the offset in the current file of the next line to be returned
+     */
+    public long getPosition() {
+        return position - buffer.remaining();
+    }
+
+    /**
+     * @return the key identifying the file currently read, see {@link BasicFileAttributes#fileKey()}
+     */
+    public Object getFileKey() {
+        return fileKey;
+    }
+
+    /**
+     * Returns the next complete line, waiting up to the given timeout for one to be written. The line and the
+     * sequences taken from it are only valid until the next call.
+     *
+     * @return the next line or null if no line was written before the timeout
+     */
+    public ApacheLogByteLine readLine(long timeout, TimeUnit unit) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+
+        while (true) {
+            ApacheLogByteLine next = nextLine();
+            if (next != null) {
+                return next;
+            }
+            if (read() > 0) {
+                pollInterval = MIN_POLL_INTERVAL;
+                continue;
+            }
+            if (checkRotation()) {
+                continue;
+            }
+            long remaining = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remaining <= 0) {
+                return null;
+            }
+            await(Math.min(remaining, pollInterval));
+            pollInterval = Math.min(MAX_POLL_INTERVAL, pollInterval * 2);
+        }
+    }
+
+    private ApacheLogByteLine nextLine() {
+        int start = buffer.position();
+        int limit = buffer.limit();
+        for (int i = start; i < limit; ++i) {
+            if (buffer.get(i) == '\n') {
+                int end = i > start && buffer.get(i - 1) == '\r' ? i - 1 : i;
+                line.set(buffer, start, end - start);
+                buffer.position(i + 1);
+                return line;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Appends whatever was written after the current position to the buffer
+     */
+    private int read() throws IOException {
+        buffer.compact();
+        if (!buffer.hasRemaining()) {
+            // a single line fills the whole buffer
+            ByteBuffer larger = ByteBuffer.allocate(buffer.capacity() * 2);
+            buffer.flip();
+            larger.put(buffer);
+            buffer = larger;
+        }
+        int read = channel.read(buffer, position);
+        buffer.flip();
+        if (read > 0) {
+            position += read;
+        }
+        return Math.max(read, 0);
+    }
+
+    /**
+     * Switches to a new file if the log was rotated or starts over if it was truncated
+     *
+     * @return true if there may be new data to read
+     */
+    private boolean checkRotation() throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException ex) {
+            // rotated and not created yet
+            return false;
+        }
+        Object key = attributes.fileKey();
+        if (key != null && !key.equals(fileKey)) {
+            // the old file was fully read before reaching this point
+            channel.close();
+            open();
+            position = 0;
+            buffer.clear();
+            buffer.flip();
+            return true;
+        }
+        if (attributes.size() < position) {
+            position = 0;
+            buffer.clear();
+            buffer.flip();
+            return true;
+        }
+        return false;
+    }
+
+    private void open() throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        fileKey = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+    }
+
+    private void await(long timeout) throws InterruptedException {
+        try {
+            WatchKey key = watcher.poll(timeout, TimeUnit.MILLISECONDS);
+            if (key != null) {
+                key.pollEvents();
+                key.reset();
+            }
+        } catch (ClosedWatchServiceException ex) {
+            Thread.sleep(timeout);
+        }
+    }
+
+    public void close() throws IOException {
+        try {
+            watcher.close();
+        } finally {
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,403 @@
+package org.apachelog;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Sidecar index of a log to read only the lines of a time range, and optionally of a status code, without parsing
+ * the whole log.
+ *
+ * The log is cut in blocks of lines: a block ends when the minute of %t changes once it holds getMinBlockSize()
+ * bytes, or when it reaches getMaxBlockSize() bytes. Each block records its offset, the first and last minute of
+ * its lines (lines don't have to be in order) and which status codes it holds, as a bit per status among the first
+ * 63 distinct codes seen (the last bit stands for all the others). That's 28 bytes per block, a small fraction of a
+ * percent of the log.
+ *
+ * The index file is memory mapped by {@link #open(File)} and searched in place: a binary search on the running
+ * maximum of the block minutes finds the first block of the range. {@link #update(File, ApacheLogParser, Charset)}
+ * only reads what the log gained since the last update, starting again at the last block, which may have grown.
+ * The index identifies its log by its file key and a checksum of its head, like {@link ApacheLogCheckpoint}: a
+ * different log, e.g. after a rotation, or one shorter than what the index covers is indexed again from its start.
+ * Indexes written by older versions are ignored and rebuilt the same way.
+ *
+ * The ranges found hold every line of the time range but may hold others, readers still have to check the time
+ * of each line.
+ */
+public class ApacheLogTimeIndex {
+    static final int MAGIC = 0x414c5449; // ALTI
+    static final int VERSION = 2;
+    private static final int MAX_STATUSES = 63;
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 4 + 8 + 4 + 8 + 4 + 4 * MAX_STATUSES;
+    private static final int BLOCK_SIZE = 8 + 4 + 4 + 4 + 8;
+    private static final long MINUTE = 60 * 1000;
+
+    private int minBlockSize = 4 * 1024;
+    private int maxBlockSize = 1024 * 1024;
+    private ByteBuffer blocks;
+    private int blockCount;
+    private long indexedLength;
+    /** CRC32 of the file key of the log, -1 if it has none */
+    private long keyChecksum = -1;
+    private int headLength;
+    private long headChecksum;
+    private int[] statuses = new int[0];
+
+    /**
+     * @return the sidecar file holding the index of the log
+     */
+    public static File getIndexFile(File log) {
+        return new File(log.getPath() + ".idx");
+    }
+
+    /**
+     * Maps the index file, or returns an empty index if the file doesn't exist or was written by an older version
+     */
+    public static ApacheLogTimeIndex open(File indexFile) throws IOException {
+        ApacheLogTimeIndex index = new ApacheLogTimeIndex();
+        if (!indexFile.exists()) {
+            index.blocks = ByteBuffer.allocate(0);
+            return index;
+        }
+        RandomAccessFile file = new RandomAccessFile(indexFile, "r");
+        try {
+            MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+            if (buffer.limit() < 8 || buffer.getInt(0) != MAGIC) {
+                throw new IOException(indexFile.getName() + " is not a time index");
+            }
+            if (buffer.getInt(4) < VERSION) {
+                index.blocks = ByteBuffer.allocate(0);
+                return index;
+            }
+            if (buffer.limit() < HEADER_SIZE || buffer.getInt(4) != VERSION) {
+                throw new IOException(indexFile.getName() + " is not a time index");
+            }
+            index.indexedLength = buffer.getLong(8);
+            index.blockCount = buffer.getInt(16);
+            index.keyChecksum = buffer.getLong(20);
+            index.headLength = buffer.getInt(28);
+            index.headChecksum = buffer.getLong(32);
+            index.statuses = new int[buffer.getInt(40)];
+            for (int i = 0; i < index.statuses.length; ++i) {
+                index.statuses[i] = buffer.getInt(44 + 4 * i);
+            }
+            if (buffer.limit() < HEADER_SIZE + (long) index.blockCount * BLOCK_SIZE) {
+                throw new IOException(indexFile.getName() + " is truncated");
+            }
+            buffer.position(HEADER_SIZE);
+            index.blocks = buffer.slice();
+            return index;
+        } finally {
+            file.close();
+        }
+    }
+
+    public int getMinBlockSize() {
+        return minBlockSize;
+    }
+
+    /**
+     * Sets the bytes a block holds before it can end at a new minute. Defaults to 4KB
+     */
+    public void setMinBlockSize(int minBlockSize) {
+        this.minBlockSize = minBlockSize;
+    }
+
+    public int getMaxBlockSize() {
+        return maxBlockSize;
+    }
+
+    /**
+     * Sets the bytes after which a block ends even within a minute. Defaults to 1MB
+     */
+    public void setMaxBlockSize(int maxBlockSize) {
+        this.maxBlockSize = maxBlockSize;
+    }
+
+    public int getBlockCount() {
+        return blockCount;
+    }
+
+    /**
+     * @return the number of bytes of the log covered by the index
+     */
+    public long getIndexedLength() {
+        return indexedLength;
+    }
+
+    /**
+     * Indexes what was added to the log since the last update. The index must be saved to keep the changes.
+     *
+     * @param parser is a parser of the log format, only %t and %>s are extracted
+     */
+    public void update(File log, ApacheLogParser parser, Charset charset) throws IOException, ApacheLogParserException {
+        long length = log.length();
+        int keep = Math.max(0, blockCount - 1);
+        long start = blockCount == 0 ? 0 : getOffset(blockCount - 1);
+        if (blockCount == 0 || !matches(log, length)) {
+            keep = 0;
+            start = 0;
+            statuses = new int[0];
+            keyChecksum = checksum(ApacheLogCheckpoint.getFileKey(log));
+            headLength = (int) Math.min(ApacheLogCheckpoint.HEAD_LENGTH, length);
+            headChecksum = ApacheLogCheckpoint.checksum(log, headLength);
+        }
+        ByteBuffer updated = ByteBuffer.allocate(Math.max(64, (keep + 16) * BLOCK_SIZE));
+        for (int i = 0; i < keep; ++i) {
+            updated = ensure(updated);
+            copyBlock(blocks, i, updated);
+        }
+        int prefixMax = keep == 0 ? Integer.MIN_VALUE : updated.getInt((keep - 1) * BLOCK_SIZE + 16);
+
+        ApacheLogParser projected = parser.project(Arrays.asList("%t", "%>s"));
+        ApacheLogTimestampParser timestampParser = new ApacheLogTimestampParser();
+        ApacheLogRecord record = new ApacheLogRecord();
+        ApacheLogMappedReader in = new ApacheLogMappedReader(log, charset, start, length);
+        try {
+            long blockStart = start;
+            int firstMinute = Integer.MIN_VALUE;
+            int minMinute = Integer.MAX_VALUE;
+            int maxMinute = Integer.MIN_VALUE;
+            long statusMask = 0;
+            long position = in.getPosition();
+            boolean empty = true;
+            ApacheLogByteLine line;
+            while ((line = in.readLine()) != null) {
+                int minute = Integer.MIN_VALUE;
+                int status = -1;
+                if (projected.tryParse(line, record)) {
+                    try {
+                        minute = (int) Math.floorDiv(timestampParser.parseApacheTime(record.get("%t")), MINUTE);
+                    } catch (ParseException ex) {
+                        // not a time, the line only takes space in its block
+                    }
+                    status = toStatus(record.get("%>s"));
+                }
+                long blockBytes = position - blockStart;
+                if (!empty && (blockBytes >= maxBlockSize || (blockBytes >= minBlockSize && minute != Integer.MIN_VALUE
+                        && minute != firstMinute))) {
+                    prefixMax = Math.max(prefixMax, maxMinute);
+                    updated = ensure(updated);
+                    putBlock(updated, blockStart, minMinute, maxMinute, prefixMax, statusMask);
+                    blockStart = position;
+                    firstMinute = Integer.MIN_VALUE;
+                    minMinute = Integer.MAX_VALUE;
+                    maxMinute = Integer.MIN_VALUE;
+                    statusMask = 0;
+                }
+                empty = false;
+                if (minute != Integer.MIN_VALUE) {
+                    if (firstMinute == Integer.MIN_VALUE) {
+                        firstMinute = minute;
+                    }
+                    minMinute = Math.min(minMinute, minute);
+                    maxMinute = Math.max(maxMinute, minute);
+                }
+                if (status >= 0) {
+                    statusMask |= 1L << statusBit(status);
+                }
+                position = in.getPosition();
+            }
+            if (!empty) {
+                prefixMax = Math.max(prefixMax, maxMinute);
+                updated = ensure(updated);
+                putBlock(updated, blockStart, minMinute, maxMinute, prefixMax, statusMask);
+            }
+            indexedLength = position;
+        } finally {
+            in.close();
+        }
+        blockCount = updated.position() / BLOCK_SIZE;
+        updated.flip();
+        blocks = updated;
+    }
+
+    /**
+     * Writes the index to the file, replacing it atomically where the file system allows it
+     */
+    public void save(File indexFile) throws IOException {
+        File temporary = new File(indexFile.getPath() + ".tmp");
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(indexedLength);
+            out.writeInt(blockCount);
+            out.writeLong(keyChecksum);
+            out.writeInt(headLength);
+            out.writeLong(headChecksum);
+            out.writeInt(statuses.length);
+            for (int i = 0; i < MAX_STATUSES; ++i) {
+                out.writeInt(i < statuses.length ? statuses[i] : 0);
+            }
+            for (int i = 0; i < blockCount * BLOCK_SIZE; ++i) {
+                out.writeByte(blocks.get(i));
+            }
+        } finally {
+            out.close();
+        }
+        if (!temporary.renameTo(indexFile)) {
+            if (!indexFile.delete() || !temporary.renameTo(indexFile)) {
+                throw new IOException("Unable to replace " + indexFile.getName());
+            }
+        }
+    }
+
+    /**
+     * @param from is the start of the range in milliseconds since the epoch, inclusive
+     * @param to is the end of the range, exclusive
+     * @return the byte ranges of the log holding the lines of the time range, range i goes from result[2 * i] to
+     * result[2 * i + 1]
+     */
+    public long[] find(long from, long to) {
+        return find(from, to, -1);
+    }
+
+    /**
+     * @param status is the status code of the lines, -1 for any
+     * @return the byte ranges of the log holding the lines of the time range with the status code
+     */
+    public long[] find(long from, long to, int status) {
+        if (to <= from || blockCount == 0) {
+            return new long[0];
+        }
+        int fromMinute = (int) Math.floorDiv(from, MINUTE);
+        int toMinute = (int) Math.floorDiv(to - 1, MINUTE);
+        long mask = -1;
+        if (status >= 0) {
+            int bit = MAX_STATUSES;
+            for (int i = 0; i < statuses.length; ++i) {
+                if (statuses[i] == status) {
+                    bit = i;
+                }
+            }
+            if (bit == MAX_STATUSES && statuses.length < MAX_STATUSES) {
+                return new long[0];
+            }
+            mask = 1L << bit;
+        }
+
+        // the first block whose running maximum reaches the range
+        int low = 0;
+        int high = blockCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (blocks.getInt(middle * BLOCK_SIZE + 16) < fromMinute) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        List<Long> ranges = new ArrayList<Long>();
+        for (int i = low; i < blockCount; ++i) {
+            int base = i * BLOCK_SIZE;
+            if (blocks.getInt(base + 8) > toMinute || blocks.getInt(base + 12) < fromMinute
+                    || (blocks.getLong(base + 20) & mask) == 0) {
+                continue;
+            }
+            long start = blocks.getLong(base);
+            long end = i + 1 < blockCount ? getOffset(i + 1) : indexedLength;
+            if (!ranges.isEmpty() && ranges.get(ranges.size() - 1) == start) {
+                ranges.set(ranges.size() - 1, end);
+            } else {
+                ranges.add(start);
+                ranges.add(end);
+            }
+        }
+        long[] result = new long[ranges.size()];
+        for (int i = 0; i < result.length; ++i) {
+            result[i] = ranges.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * @return true if the log is the one indexed, possibly with more lines
+     */
+    private boolean matches(File log, long length) throws IOException {
+        if (length < indexedLength || length < headLength) {
+            return false;
+        }
+        long key = checksum(ApacheLogCheckpoint.getFileKey(log));
+        if (keyChecksum != -1 && key != -1 && key != keyChecksum) {
+            return false;
+        }
+        return ApacheLogCheckpoint.checksum(log, headLength) == headChecksum;
+    }
+
+    /**
+     * @return the CRC32 of the file key, -1 if there's none
+     */
+    private static long checksum(String fileKey) {
+        if (fileKey == null) {
+            return -1;
+        }
+        CRC32 crc = new CRC32();
+        crc.update(fileKey.getBytes(Charset.forName("UTF-8")));
+        return crc.getValue();
+    }
+
+    private long getOffset(int block) {
+        return blocks.getLong(block * BLOCK_SIZE);
+    }
+
+    private int statusBit(int status) {
+        for (int i = 0; i < statuses.length; ++i) {
+            if (statuses[i] == status) {
+                return i;
+            }
+        }
+        if (statuses.length < MAX_STATUSES) {
+            statuses = Arrays.copyOf(statuses, statuses.length + 1);
+            statuses[statuses.length - 1] = status;
+            return statuses.length - 1;
+        }
+        return MAX_STATUSES;
+    }
+
+    private static int toStatus(CharSequence value) {
+        if (value == null || value.length() == 0 || value.length() > 3) {
+            return -1;
+        }
+        int status = 0;
+        for (int i = 0; i < value.length(); ++i) {
+            char c = value.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            status = 10 * status + c - '0';
+        }
+        return status;
+    }
+
+    private static ByteBuffer ensure(ByteBuffer buffer) {
+        if (buffer.remaining() >= BLOCK_SIZE) {
+            return buffer;
+        }
+        ByteBuffer larger = ByteBuffer.allocate(2 * buffer.capacity());
+        buffer.flip();
+        larger.put(buffer);
+        return larger;
+    }
+
+    private static void copyBlock(ByteBuffer from, int block, ByteBuffer to) {
+        for (int i = 0; i < BLOCK_SIZE; ++i) {
+            to.put(from.get(block * BLOCK_SIZE + i));
+        }
+    }
+
+    private static void putBlock(ByteBuffer buffer, long offset, int minMinute, int maxMinute, int prefixMax, long statusMask) {
+        buffer.putLong(offset);
+        buffer.putInt(minMinute);
+        buffer.putInt(maxMinute);
+        buffer.putInt(prefixMax);
+        buffer.putLong(statusMask);
+    }
+}
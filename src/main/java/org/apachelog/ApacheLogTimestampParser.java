@@ -0,0 +1,217 @@
+package org.apachelog;
+
+import java.text.ParseException;
+
+/**
+ * Parses the timestamps found in the logs without SimpleDateFormat.
+ *
+ * Two formats are supported: the Apache %t format ([dd/MMM/yyyy:HH:mm:ss Z], English month names) and the
+ * syslog ISO-8601 format (yyyy-MM-ddTHH:mm:ss with optional fraction of seconds and a Z, +hh:mm or +hhmm
+ * offset) found at the end of %syslog_ti. Fields are read from fixed positions. Consecutive lines of a log
+ * share the same minute most of the time, so the epoch of the last minute seen is cached for each format and
+ * only the seconds are parsed on a hit. Instances are thread safe and meant to be shared.
+ */
+public class ApacheLogTimestampParser {
+    private static final String MONTHS = "janfebmaraprmayjunjulaugsepoctnovdec";
+    private static final int APACHE_LENGTH = "[dd/MMM/yyyy:HH:mm:ss +zzzz]".length();
+    private static final int APACHE_SECONDS = "[dd/MMM/yyyy:HH:mm:".length();
+    private static final int SYSLOG_SECONDS = "yyyy-MM-ddTHH:mm:".length();
+
+    private volatile Minute lastApache;
+    private volatile Minute lastSyslog;
+
+    /**
+     * The text of a minute (what comes before and after the seconds) and its epoch in milliseconds
+     */
+    private static final class Minute {
+        final String prefix;
+        final String suffix;
+        final long millis;
+
+        Minute(String prefix, String suffix, long millis) {
+            this.prefix = prefix;
+            this.suffix = suffix;
+            this.millis = millis;
+        }
+
+        boolean matches(CharSequence text, int secondsStart, int suffixStart) {
+            return secondsStart == prefix.length() && text.length() - suffixStart == suffix.length()
+                    && regionMatches(text, 0, prefix) && regionMatches(text, suffixStart, suffix);
+        }
+    }
+
+    /**
+     * Parses a %t timestamp like [18/Sep/2012:00:00:06 -0600]
+     *
+     * @return the milliseconds since the epoch
+     */
+    public long parseApacheTime(CharSequence text) throws ParseException {
+        if (text.length() != APACHE_LENGTH || text.charAt(0) != '[' || text.charAt(3) != '/' || text.charAt(7) != '/'
+                || text.charAt(12) != ':' || text.charAt(15) != ':' || text.charAt(18) != ':' || text.charAt(21) != ' '
+                || text.charAt(27) != ']') {
+            throw error(text, 0);
+        }
+        int seconds = number(text, APACHE_SECONDS, 2);
+        Minute minute = lastApache;
+        if (minute == null || !minute.matches(text, APACHE_SECONDS, APACHE_SECONDS + 2)) {
+            int day = number(text, 1, 2);
+            int month = month(text, 4);
+            int year = number(text, 8, 4);
+            int hour = number(text, 13, 2);
+            int minutes = number(text, 16, 2);
+            int offset = offset(text, 22, APACHE_LENGTH - 1);
+            minute = new Minute(text.subSequence(0, APACHE_SECONDS).toString(),
+                    text.subSequence(APACHE_SECONDS + 2, APACHE_LENGTH).toString(),
+                    toMillis(text, year, month, day, hour, minutes, offset));
+            lastApache = minute;
+        }
+        return minute.millis + seconds * 1000L;
+    }
+
+    /**
+     * Parses a syslog timestamp like 2012-09-18T00:00:06-06:00 or 2012-09-18T06:00:06.123Z. Whatever comes before
+     * the timestamp, like the path of the log in /var/log/apache.log:2012-09-18T00:00:06-06:00, is ignored.
+     *
+     * @return the milliseconds since the epoch
+     */
+    public long parseSyslogTime(CharSequence text) throws ParseException {
+        int length = text.length();
+        int start = syslogStart(text);
+        int secondsStart = start + SYSLOG_SECONDS;
+        if (start < 0 || length < secondsStart + 3 || text.charAt(start + 13) != ':' || text.charAt(start + 16) != ':') {
+            throw error(text, 0);
+        }
+        int seconds = number(text, secondsStart, 2);
+        int zone = secondsStart + 2;
+        int millis = 0;
+        if (text.charAt(zone) == '.') {
+            int scale = 100;
+            ++zone;
+            while (zone < length && isDigit(text.charAt(zone))) {
+                millis += (text.charAt(zone) - '0') * scale;
+                scale /= 10;
+                ++zone;
+            }
+            if (zone == secondsStart + 3) {
+                throw error(text, zone);
+            }
+        }
+        Minute minute = lastSyslog;
+        if (minute == null || !minute.matches(text, secondsStart, zone)) {
+            int year = number(text, start, 4);
+            int month = number(text, start + 5, 2);
+            int day = number(text, start + 8, 2);
+            int hour = number(text, start + 11, 2);
+            int minutes = number(text, start + 14, 2);
+            int offset = offset(text, zone, length);
+            minute = new Minute(text.subSequence(0, secondsStart).toString(),
+                    text.subSequence(zone, length).toString(),
+                    toMillis(text, year, month, day, hour, minutes, offset));
+            lastSyslog = minute;
+        }
+        return minute.millis + seconds * 1000L + millis;
+    }
+
+    /**
+     * @return the index of the yyyy-MM-ddT date before the last T of the text or -1 if there is none
+     */
+    private static int syslogStart(CharSequence text) {
+        for (int i = text.length() - 1; i >= 10; --i) {
+            if (text.charAt(i) == 'T') {
+                return text.charAt(i - 3) == '-' && text.charAt(i - 6) == '-' ? i - 10 : -1;
+            }
+        }
+        return -1;
+    }
+
+    private static long toMillis(CharSequence text, int year, int month, int day, int hour, int minutes, int offset) throws ParseException {
+        if (month < 1 || month > 12 || day < 1 || day > 31 || hour > 23 || minutes > 59) {
+            throw error(text, 0);
+        }
+        long epochMinutes = (daysFromCivil(year, month, day) * 24 + hour) * 60 + minutes - offset;
+        return epochMinutes * 60000L;
+    }
+
+    /**
+     * @return the days from 1970-01-01 to the given date of the proleptic Gregorian calendar
+     */
+    static long daysFromCivil(int year, int month, int day) {
+        long y = month <= 2 ? year - 1 : year;
+        long era = (y >= 0 ? y : y - 399) / 400;
+        long yearOfEra = y - era * 400;
+        long dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    /**
+     * Parses a Z, +hhmm or +hh:mm offset taking the whole [start, end) range
+     *
+     * @return the offset in minutes
+     */
+    private static int offset(CharSequence text, int start, int end) throws ParseException {
+        int length = end - start;
+        if (length == 1 && text.charAt(start) == 'Z') {
+            return 0;
+        }
+        if (length != 5 && length != 6) {
+            throw error(text, start);
+        }
+        char sign = text.charAt(start);
+        if (sign != '+' && sign != '-') {
+            throw error(text, start);
+        }
+        int hours = number(text, start + 1, 2);
+        int minutesStart = start + 3;
+        if (length == 6) {
+            if (text.charAt(minutesStart) != ':') {
+                throw error(text, minutesStart);
+            }
+            ++minutesStart;
+        }
+        int minutes = number(text, minutesStart, 2);
+        int offset = hours * 60 + minutes;
+        return sign == '-' ? -offset : offset;
+    }
+
+    private static int month(CharSequence text, int start) throws ParseException {
+        char c0 = Character.toLowerCase(text.charAt(start));
+        char c1 = Character.toLowerCase(text.charAt(start + 1));
+        char c2 = Character.toLowerCase(text.charAt(start + 2));
+        for (int i = 0; i < MONTHS.length(); i += 3) {
+            if (MONTHS.charAt(i) == c0 && MONTHS.charAt(i + 1) == c1 && MONTHS.charAt(i + 2) == c2) {
+                return i / 3 + 1;
+            }
+        }
+        throw error(text, start);
+    }
+
+    private static int number(CharSequence text, int start, int digits) throws ParseException {
+        int value = 0;
+        for (int i = start; i < start + digits; ++i) {
+            char c = text.charAt(i);
+            if (!isDigit(c)) {
+                throw error(text, i);
+            }
+            value = value * 10 + c - '0';
+        }
+        return value;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean regionMatches(CharSequence text, int start, String region) {
+        for (int i = 0; i < region.length(); ++i) {
+            if (text.charAt(start + i) != region.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static ParseException error(CharSequence text, int position) {
+        return new ParseException("Unparseable date: \"" + text + "\"", position);
+    }
+}
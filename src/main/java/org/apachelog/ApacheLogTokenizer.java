@@ -0,0 +1,246 @@
+package org.apachelog;
+
+/**
+ * Hand written replacement for the regular expression built by {@link ApacheLogParser#parseFormat(String)}.
+ *
+ * The tokenizer walks the line once, element by element, and always takes the choice the regular expression
+ * would try first (greedy where the sub pattern is greedy, lazy where it is lazy). When all those first
+ * choices succeed the regular expression would have returned the very same groups, so the results are
+ * identical. Formats containing elements that can backtrack (X-Forwarded-For lists, %U and %_) are flagged
+ * as non deterministic: a failure there doesn't mean the regular expression fails too and the caller must
+ * fall back to it.
+ *
+ * With a projection only some elements are stored and the line is only walked up to the last of them, see
+ * {@link ApacheLogParser#setProjection(java.util.Collection)}.
+ */
+final class ApacheLogTokenizer {
+    /** (\S*) */
+    static final int PLAIN = 0;
+    /** "([^"]*)" */
+    static final int QUOTED = 1;
+    /** "([^"\\]*(?:\\.[^"\\]*)*)" */
+    static final int ESCAPED_QUOTED = 2;
+    /** (\[[^\]]+\]) */
+    static final int BRACKETED = 3;
+    /** ((?:\S*,\s)*\S*) */
+    static final int FORWARDED_FOR = 4;
+    /** (.+?) */
+    static final int LAZY = 5;
+    /** (.+)? */
+    static final int REST = 6;
+
+    private final int[] kinds;
+    private final int[] slots;
+    private final int limit;
+    private final boolean deterministic;
+
+    ApacheLogTokenizer(int[] kinds) {
+        this(kinds, identity(kinds.length), kinds.length);
+    }
+
+    /**
+     * @param slots maps each element to the field it is stored in, -1 to skip it
+     * @param limit is the number of elements to walk, the line may go on after them if a space follows
+     */
+    ApacheLogTokenizer(int[] kinds, int[] slots, int limit) {
+        this.kinds = kinds.clone();
+        this.slots = slots.clone();
+        this.limit = limit;
+        boolean deterministic = true;
+        for (int i = 0; i < limit; ++i) {
+            if (kinds[i] == FORWARDED_FOR || kinds[i] == LAZY || kinds[i] == REST) {
+                deterministic = false;
+            }
+        }
+        this.deterministic = deterministic;
+    }
+
+    private static int[] identity(int length) {
+        int[] slots = new int[length];
+        for (int i = 0; i < length; ++i) {
+            slots[i] = i;
+        }
+        return slots;
+    }
+
+    /**
+     * @return true if a failed {@link #tokenize} means the regular expression fails as well
+     */
+    boolean isDeterministic() {
+        return deterministic;
+    }
+
+    int size() {
+        return kinds.length;
+    }
+
+    /**
+     * Splits line[start, end) into fields. The start and end offsets of the field of element i are stored in
+     * offsets[2 * slots[i]] and offsets[2 * slots[i] + 1], -1 for optional fields that didn't participate in the
+     * match.
+     *
+     * @return true if the line was tokenized, false otherwise
+     */
+    boolean tokenize(CharSequence line, int start, int end, int[] offsets) {
+        int pos = start;
+
+        for (int i = 0; i < limit; ++i) {
+            if (i > 0) {
+                if (pos >= end || line.charAt(pos) != ' ') {
+                    return false;
+                }
+                ++pos;
+            }
+
+            int fieldStart = pos;
+            int fieldEnd;
+            boolean last = i == kinds.length - 1;
+
+            switch (kinds[i]) {
+                case PLAIN:
+                    while (pos < end && !isSpace(line.charAt(pos))) {
+                        ++pos;
+                    }
+                    fieldEnd = pos;
+                    break;
+                case QUOTED:
+                    if (pos >= end || line.charAt(pos) != '"') {
+                        return false;
+                    }
+                    fieldStart = ++pos;
+                    while (pos < end && line.charAt(pos) != '"') {
+                        ++pos;
+                    }
+                    if (pos >= end) {
+                        return false;
+                    }
+                    fieldEnd = pos++;
+                    break;
+                case ESCAPED_QUOTED:
+                    if (pos >= end || line.charAt(pos) != '"') {
+                        return false;
+                    }
+                    fieldStart = ++pos;
+                    while (true) {
+                        if (pos >= end) {
+                            return false;
+                        }
+                        char c = line.charAt(pos);
+                        if (c == '"') {
+                            break;
+                        }
+                        if (c == '\\') {
+                            if (pos + 1 >= end || isLineTerminator(line.charAt(pos + 1))) {
+                                return false;
+                            }
+                            pos += 2;
+                        } else {
+                            ++pos;
+                        }
+                    }
+                    fieldEnd = pos++;
+                    break;
+                case BRACKETED:
+                    if (pos >= end || line.charAt(pos) != '[') {
+                        return false;
+                    }
+                    ++pos;
+                    while (pos < end && line.charAt(pos) != ']') {
+                        ++pos;
+                    }
+                    if (pos >= end || pos == fieldStart + 1) {
+                        return false;
+                    }
+                    fieldEnd = ++pos;
+                    break;
+                case FORWARDED_FOR:
+                    while (true) {
+                        int runEnd = pos;
+                        while (runEnd < end && !isSpace(line.charAt(runEnd))) {
+                            ++runEnd;
+                        }
+                        if (runEnd > pos && line.charAt(runEnd - 1) == ',' && runEnd < end && isSpace(line.charAt(runEnd))) {
+                            pos = runEnd + 1;
+                        } else {
+                            pos = runEnd;
+                            break;
+                        }
+                    }
+                    fieldEnd = pos;
+                    break;
+                case LAZY:
+                    if (last) {
+                        pos = end;
+                    } else {
+                        pos = fieldStart + 1;
+                        while (pos < end && line.charAt(pos) != ' ') {
+                            ++pos;
+                        }
+                    }
+                    if (pos > end || pos == fieldStart || containsLineTerminator(line, fieldStart, pos)) {
+                        return false;
+                    }
+                    fieldEnd = pos;
+                    break;
+                case REST:
+                    int limit = fieldStart;
+                    while (limit < end && !isLineTerminator(line.charAt(limit))) {
+                        ++limit;
+                    }
+                    if (last) {
+                        if (limit < end) {
+                            return false;
+                        }
+                        pos = end;
+                    } else {
+                        pos = limit - 1;
+                        while (pos > fieldStart && line.charAt(pos) != ' ') {
+                            --pos;
+                        }
+                    }
+                    if (pos <= fieldStart) {
+                        pos = fieldStart;
+                        fieldStart = -1;
+                        fieldEnd = -1;
+                    } else {
+                        fieldEnd = pos;
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown element kind " + kinds[i]);
+            }
+
+            int slot = slots[i];
+            if (slot >= 0) {
+                offsets[2 * slot] = fieldStart;
+                offsets[2 * slot + 1] = fieldEnd;
+            }
+        }
+        return pos == end || (limit < kinds.length && line.charAt(pos) == ' ');
+    }
+
+    /**
+     * Same characters matched by \s in a java regular expression
+     */
+    static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    /**
+     * Same characters not matched by . in the patterns of the formats, which are compiled with UNIX_LINES. Only
+     * \n: a byte line exposes each byte as a char, so the bytes of UTF-8 characters like 0x85 in \u00c5 must not be
+     * taken for the line terminators of other charsets.
+     */
+    static boolean isLineTerminator(char c) {
+        return c == '\n';
+    }
+
+    private static boolean containsLineTerminator(CharSequence line, int start, int end) {
+        for (int i = start; i < end; ++i) {
+            if (isLineTerminator(line.charAt(i))) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
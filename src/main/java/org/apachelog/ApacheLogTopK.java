@@ -0,0 +1,121 @@
+package org.apachelog;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Heavy hitters in bounded memory, in the style of Space-Saving. Up to 2k keys are counted, and when there are more
+ * the map is pruned back to the k largest counts. A key seen after the pruning starts from the largest count
+ * pruned, its error, so counts are never underestimated and any key more frequent than that floor is kept. The
+ * counts are exact while there are at most 2k distinct keys. Not thread safe.
+ */
+public class ApacheLogTopK {
+    public static class Entry {
+        private final String key;
+        private final long count;
+        private final long error;
+
+        Entry(String key, long count, long error) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * @return the count, an overestimate by at most getError()
+         */
+        public long getCount() {
+            return count;
+        }
+
+        public long getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + count + (error > 0 ? "+-" + error : "");
+        }
+    }
+
+    private final int k;
+    private final Map<String, long[]> counts = new HashMap<String, long[]>();
+    private long floor;
+
+    /**
+     * @param k is the number of keys tracked, at least 1
+     */
+    public ApacheLogTopK(int k) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("k must be positive: " + k);
+        }
+        this.k = k;
+    }
+
+    public int getK() {
+        return k;
+    }
+
+    public void add(String key, long count) {
+        long[] value = counts.get(key);
+        if (value == null) {
+            counts.put(key, new long[] {floor + count, floor});
+            if (counts.size() > 2 * k) {
+                prune();
+            }
+        } else {
+            value[0] += count;
+        }
+    }
+
+    /**
+     * @return the n keys with the largest counts, largest first
+     */
+    public List<Entry> getTop(int n) {
+        List<Entry> entries = new ArrayList<Entry>(counts.size());
+        for (Map.Entry<String, long[]> entry : counts.entrySet()) {
+            entries.add(new Entry(entry.getKey(), entry.getValue()[0], entry.getValue()[1]));
+        }
+        Collections.sort(entries, new Comparator<Entry>() {
+            public int compare(Entry a, Entry b) {
+                return a.count != b.count ? (a.count > b.count ? -1 : 1) : a.key.compareTo(b.key);
+            }
+        });
+        return entries.subList(0, Math.min(n, entries.size()));
+    }
+
+    /**
+     * Keeps the k largest counts
+     */
+    private void prune() {
+        long[] sorted = new long[counts.size()];
+        int i = 0;
+        for (long[] value : counts.values()) {
+            sorted[i++] = value[0];
+        }
+        Arrays.sort(sorted);
+        long threshold = sorted[sorted.length - k];
+        // keep as many keys with the k-th count as fit in the k largest
+        int ties = 0;
+        for (int j = sorted.length - k; j < sorted.length && sorted[j] == threshold; ++j) {
+            ++ties;
+        }
+        for (Iterator<long[]> it = counts.values().iterator(); it.hasNext(); ) {
+            long[] value = it.next();
+            if (value[0] < threshold || (value[0] == threshold && ties-- <= 0)) {
+                floor = Math.max(floor, value[0]);
+                it.remove();
+            }
+        }
+    }
+}
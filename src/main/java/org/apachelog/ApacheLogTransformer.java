@@ -1,50 +1,118 @@
 package org.apachelog;
 
 import java.io.*;
+import java.nio.charset.Charset;
 import java.util.*;
 
 /**
  * Simple class to extract fields from Apache Log entries.
+ *
+ * The log file is memory mapped, or streamed if it is compressed, and parsed on its raw bytes. Only the
+ * requested fields get decoded, and lines rejected by the filters are skipped before they are parsed. Lines are
+ * written in batches through a CSV, TSV or JSON lines {@link ApacheLogSink}.
  */
 public class ApacheLogTransformer {
+    private static final int BATCH_SIZE = 1000;
+
     public static void main(String[] args) {
-        if (args.length != 3) {
-            System.out.println("Usage: java -jar *jar \"<apache log format\" \"<field names>\" file ");
-            System.out.println("  java -jar *.jar '%h %l %u %t \"%r\" %>s %b \"%{Referer}i\" \"%{User-Agent}i\"' '%r %>b' /var/log/apache.log");
+        List<ApacheLogFilter> filters = new ArrayList<ApacheLogFilter>();
+        String output = "csv";
+        while (args.length > 1 && args[0].startsWith("-")) {
+            if (args[0].equals("-s")) {
+                filters.add(ApacheLogFilter.between("%>s", Integer.parseInt(args[1]), 999));
+            } else if (args[0].equals("-g")) {
+                filters.add(ApacheLogFilter.contains(args[1]));
+            } else if (args[0].equals("-o")) {
+                output = args[1];
+            } else {
+                break;
+            }
+            args = Arrays.copyOfRange(args, 2, args.length);
+        }
+        if (args.length < 3 || args.length > 4) {
+            System.out.println("Usage: java -jar *jar [-s <status>] [-g <text>] [-o csv|tsv|json] \"<apache log format\" \"<field names>\" file [charset]");
+            System.out.println("  java -jar *.jar '%h %l %u %t \"%r\" %>s %b \"%{Referer}i\" \"%{User-Agent}i\"' '%r %>b' /var/log/apache.log UTF-8");
+            System.out.println("  -s only prints lines with a status code at least this one, -g only lines containing the text");
+            System.out.println("  -o is the output format, defaults to csv");
+            System.out.println("  the log format can also be one of " + ApacheLogFormats.getNames() + ", or several separated by commas for mixed logs");
+            return;
+        }
+        // a comma separated list of registered formats parses logs mixing them
+        String[] formats = args[0].split(",");
+        boolean mixed = formats.length > 1;
+        for (String format : formats) {
+            mixed &= ApacheLogFormats.contains(format);
         }
-        ApacheLogParser parser = new ApacheLogParser();
+        ApacheLogParser parser = mixed ? new ApacheLogMultiFormatParser() : new ApacheLogParser();
+        parser.setEngine(ApacheLogParser.Engine.TOKENIZER);
+        List<String> fieldNames = Arrays.asList(args[1].split(" "));
+        parser.setProjection(fieldNames);
         try {
-            parser.parseFormat(args[0]);
+            if (!filters.isEmpty()) {
+                parser.setFilter(ApacheLogFilter.and(filters.toArray(new ApacheLogFilter[filters.size()])));
+            }
+            if (mixed) {
+                for (String format : formats) {
+                    parser.parseFormat(ApacheLogFormats.getFormat(format));
+                }
+            } else {
+                parser.parseFormat(ApacheLogFormats.contains(args[0]) ? ApacheLogFormats.getFormat(args[0]) : args[0]);
+            }
             try {
-                BufferedReader in = null;
+                Charset charset = Charset.forName(args.length == 4 ? args[3] : "UTF-8");
+                ApacheLogSink<String> sink;
+                if (output.equals("json")) {
+                    sink = new ApacheLogJsonSink(System.out, charset, fieldNames);
+                } else {
+                    ApacheLogCsvSink csvSink = new ApacheLogCsvSink(System.out, charset, fieldNames,
+                            output.equals("tsv") ? ApacheLogCsvSink.Dialect.TSV : ApacheLogCsvSink.Dialect.CSV);
+                    csvSink.setHeader(false);
+                    sink = csvSink;
+                }
+                ApacheLogLineReader in = null;
 
                 try {
-                    in = new BufferedReader(new FileReader(new File(args[2])));
-                } catch (FileNotFoundException ex) {
+                    in = ApacheLogStreamReader.open(new File(args[2]), charset);
+                } catch (IOException ex) {
                     throw new ApacheLogIndexerException(ex);
                 }
 
+                sink.start();
                 try {
-                    String line = null;
-                    List<String> fieldNames = Arrays.asList(args[1].split(" "));
-                    Map<String, String> fields = new HashMap<String, String>();
-                    StringBuffer buffer = new StringBuffer();
+                    CharSequence line = null;
+                    ApacheLogRecord fields = new ApacheLogRecord();
+                    List<String> batch = new ArrayList<String>(BATCH_SIZE);
                     while ((line = in.readLine()) != null) {
-                        fields.clear();
+                        if (!parser.accept(line, fields)) {
+                            continue;
+                        }
                         try {
                             parser.parse(line, fields);
-                            buffer.setLength(0);
-                            for (String fieldName : fieldNames) {
-                                buffer.append("\"").append(fields.get(fieldName)).append("\"").append(",");
+                            // the csv and json sinks only read the fields, don't decode the whole line
+                            batch.add(sink.convert(null, fields, true));
+                            if (batch.size() >= BATCH_SIZE) {
+                                sink.send(batch, null);
+                                batch = new ArrayList<String>(BATCH_SIZE);
                             }
-                            buffer.setLength(buffer.length() - 1);
-                            System.out.println(buffer.toString());
                         } catch (ApacheLogParserException ex) {
                             ex.printStackTrace(System.err);
                         }
                     }
+                    if (!batch.isEmpty()) {
+                        sink.send(batch, null);
+                    }
                 } catch (IOException ex) {
-                    ex.printStackTrace();    
+                    ex.printStackTrace();
+                } finally {
+                    try {
+                        in.close();
+                    } catch (IOException ex) {
+                        ex.printStackTrace();
+                    }
+                    sink.close();
+                }
+                if (parser instanceof ApacheLogMultiFormatParser) {
+                    ((ApacheLogMultiFormatParser) parser).report(System.err);
                 }
 
             } catch (ApacheLogIndexerException ex) {
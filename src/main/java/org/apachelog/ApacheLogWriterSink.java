@@ -0,0 +1,102 @@
+package org.apachelog;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * Base of the sinks writing a line of text per log line, to a file or a stream.
+ *
+ * Batches are written one at a time and the writer is flushed after each one, so a batch is acknowledged once
+ * its rows reached the file or the stream. Batches from different threads may be written in any order.
+ */
+public abstract class ApacheLogWriterSink implements ApacheLogSink<String> {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File file;
+    private final OutputStream out;
+    private final Charset charset;
+    private Writer writer;
+
+    /**
+     * Writes to the file, which is created or truncated by start() and closed by close()
+     */
+    protected ApacheLogWriterSink(File file, Charset charset) {
+        this.file = file;
+        this.out = null;
+        this.charset = charset;
+    }
+
+    /**
+     * Writes to the stream, which is flushed but not closed by close()
+     */
+    protected ApacheLogWriterSink(OutputStream out, Charset charset) {
+        this.file = null;
+        this.out = out;
+        this.charset = charset;
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    /**
+     * @return the first line of the output, null if there's none
+     */
+    protected String getHeader() {
+        return null;
+    }
+
+    public synchronized void start() throws ApacheLogIndexerException {
+        try {
+            OutputStream stream = file == null ? out : new FileOutputStream(file);
+            writer = new BufferedWriter(new OutputStreamWriter(stream, charset), BUFFER_SIZE);
+            String header = getHeader();
+            if (header != null) {
+                writer.write(header);
+                writer.write('\n');
+            }
+        } catch (IOException ex) {
+            throw new ApacheLogIndexerException("Exception opening " + getName(), ex);
+        }
+    }
+
+    public synchronized void send(List<String> batch, Callback callback) throws ApacheLogIndexerException {
+        if (writer == null) {
+            throw new ApacheLogIndexerException("Sink writing to " + getName() + " is not started");
+        }
+        try {
+            for (String row : batch) {
+                writer.write(row);
+                writer.write('\n');
+            }
+            writer.flush();
+        } catch (IOException ex) {
+            throw new ApacheLogIndexerException("Exception writing to " + getName(), ex);
+        }
+        if (callback != null) {
+            callback.acknowledged();
+        }
+    }
+
+    public synchronized void close() throws ApacheLogIndexerException {
+        if (writer == null) {
+            return;
+        }
+        try {
+            if (file == null) {
+                writer.flush();
+            } else {
+                writer.close();
+            }
+        } catch (IOException ex) {
+            throw new ApacheLogIndexerException("Exception closing " + getName(), ex);
+        } finally {
+            writer = null;
+        }
+    }
+
+    private String getName() {
+        return file == null ? "stream" : "file " + file.getName();
+    }
+}
@@ -1,30 +1,122 @@
 package org.apachelog.example;
 
+import org.apachelog.ApacheLogAggregator;
+import org.apachelog.ApacheLogColumnarSink;
+import org.apachelog.ApacheLogFilter;
+import org.apachelog.ApacheLogFormats;
 import org.apachelog.ApacheLogIndexer;
 import org.apachelog.ApacheLogParser;
 import org.apachelog.ApacheLogParserException;
 
+import javax.management.JMException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 public class SimpleApacheLogIndexer {
     public static void main(String[] args) {
-        if (args.length < 1 || args.length > 2) {
-            System.out.println("Usage: java -cp:<name>.jar org.apachelog.example.SimpleApacheLogIndexer <filename>.log [<Solr Sever URL]");
+        boolean follow = false;
+        boolean timeIndexed = false;
+        String checkpoint = null;
+        String status = null;
+        String export = null;
+        int top = 0;
+        int minutes = 0;
+        while (args.length > 0 && args[0].startsWith("-")) {
+            if (args[0].equals("-f")) {
+                follow = true;
+                args = Arrays.copyOfRange(args, 1, args.length);
+            } else if (args[0].equals("-i")) {
+                timeIndexed = true;
+                args = Arrays.copyOfRange(args, 1, args.length);
+            } else if (args[0].equals("-c") && args.length > 1) {
+                checkpoint = args[1];
+                args = Arrays.copyOfRange(args, 2, args.length);
+            } else if (args[0].equals("-s") && args.length > 1) {
+                status = args[1];
+                args = Arrays.copyOfRange(args, 2, args.length);
+            } else if (args[0].equals("-x") && args.length > 1) {
+                export = args[1];
+                args = Arrays.copyOfRange(args, 2, args.length);
+            } else if (args[0].equals("-a") && args.length > 1) {
+                top = Integer.parseInt(args[1]);
+                args = Arrays.copyOfRange(args, 2, args.length);
+            } else if (args[0].equals("-t") && args.length > 1) {
+                minutes = Integer.parseInt(args[1]);
+                args = Arrays.copyOfRange(args, 2, args.length);
+            } else {
+                break;
+            }
+        }
+        if (args.length < 1 || args.length > 3) {
+            System.out.println("Usage: java -cp:<name>.jar org.apachelog.example.SimpleApacheLogIndexer [-f] [-i] [-c <checkpoint>] [-s <status>] [-x <file>] [-a <top> [-t <minutes>]] <filename>.log|<directory>|'<glob>' [<Solr Sever URL] [<threads>]");
+            System.out.println("  -f keeps indexing new lines as they are written to the log");
+            System.out.println("  -i keeps a time index next to each log, <log>.idx, to find the lines of a time range quickly");
+            System.out.println("  -c saves progress to the checkpoint file and resumes from it on the next run");
+            System.out.println("  -s only indexes lines with a status code at least this one, e.g. 500, invalid lines by the status salvaged from them");
+            System.out.println("  -x exports the lines to a columnar file instead of indexing them into Solr");
+            System.out.println("  -a prints counts by status and minute, latency percentiles and the top hosts, resources and user agents instead of indexing");
+            System.out.println("  -t only aggregates the lines of the last minutes");
+            System.out.println("  a directory or a quoted glob like '/var/log/web*/access*.gz' indexes many logs at once");
             return;
         }
 
-        ApacheLogParser parser = new ApacheLogParser();
-        ApacheLogParser invalidLineParser = new ApacheLogParser();
-
         try {
-            parser.parseFormat("%syslog_ti %syslog_ws %syslog_n %{X-Forwarded-For}i %l %u %t %{Host}i \"%r\" %>s %b \"%{Referer}i\" \"%{User-Agent}i\" %D");
-            invalidLineParser.parseFormat("%syslog_ti %syslog_ws %syslog_n %_");
+            ApacheLogParser parser = new ApacheLogParser(ApacheLogFormats.get("syslog"));
+            ApacheLogParser invalidLineParser = new ApacheLogParser(ApacheLogFormats.get("syslog_invalid"));
             ApacheLogIndexer indexer = new ApacheLogIndexer(parser, invalidLineParser);
 
-            if (args.length == 2) {
+            if (args.length >= 2) {
                 indexer.setServerUrl(args[1]);
-        }
+            }
+            if (args.length == 3) {
+                indexer.setThreads(Integer.parseInt(args[2]));
+            }
+            if (checkpoint != null) {
+                indexer.setCheckpointFile(new File(checkpoint));
+            }
+            indexer.setTimeIndexed(timeIndexed);
+            indexer.setReportInterval(10000);
+            try {
+                indexer.getMetrics().register("SimpleApacheLogIndexer");
+            } catch (JMException ex) {
+                System.err.println("Unable to register the metrics in JMX: " + ex.getMessage());
+            }
+            ApacheLogAggregator aggregator = null;
+            if (export != null) {
+                indexer.setSink(new ApacheLogColumnarSink(new File(export)));
+            } else if (top > 0) {
+                aggregator = new ApacheLogAggregator(top);
+                if (minutes > 0) {
+                    aggregator.setSince(System.currentTimeMillis() - minutes * 60000L);
+                }
+                indexer.setSink(aggregator);
+            }
+            if (status != null) {
+                indexer.setFilter(ApacheLogFilter.between("%>s", Integer.parseInt(status), 999));
+            }
 
             try {
-                indexer.index(args[0]);
+                if (follow) {
+                    indexer.follow(new File(args[0]));
+                } else if (isGlob(args[0])) {
+                    indexer.index(glob(args[0]));
+                } else {
+                    indexer.index(args[0]);
+                }
+                if (aggregator != null) {
+                    aggregator.report(System.out, top);
+                }
             } catch (Exception ex) {
                 ex.printStackTrace();
             }
@@ -32,4 +124,36 @@ public class SimpleApacheLogIndexer {
             ex.printStackTrace();
         }
     }
+
+    private static boolean isGlob(String pattern) {
+        return pattern.indexOf('*') >= 0 || pattern.indexOf('?') >= 0 || pattern.indexOf('[') >= 0 || pattern.indexOf('{') >= 0;
+    }
+
+    /**
+     * @return the files matching the glob, sorted by path
+     */
+    private static List<File> glob(String pattern) throws IOException {
+        int wildcard = pattern.length();
+        for (char c : new char[] {'*', '?', '[', '{'}) {
+            if (pattern.indexOf(c) >= 0) {
+                wildcard = Math.min(wildcard, pattern.indexOf(c));
+            }
+        }
+        int separator = pattern.lastIndexOf(File.separatorChar, wildcard);
+        Path base = new File(separator < 0 ? "." : pattern.substring(0, separator + 1)).toPath();
+        final PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + (separator < 0 ? "./" + pattern : pattern));
+        final List<File> files = new ArrayList<File>();
+
+        Files.walkFileTree(base, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                if (attributes.isRegularFile() && matcher.matches(file)) {
+                    files.add(file.toFile());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        Collections.sort(files);
+        return files;
+    }
 }
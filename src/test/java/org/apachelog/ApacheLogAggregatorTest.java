@@ -0,0 +1,87 @@
+package org.apachelog;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ApacheLogAggregatorTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testAggregate() throws Exception {
+        File log = new File(folder.getRoot(), "web01.log");
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 3000; ++i) {
+            content.append("/var/log/web01/apache.log:2012-09-18T19:24:56-06:00 web01 apache: 70.196.196.1, 23.57.68.53 - - [18/Sep/2012:00:0")
+                    .append(i / 1000).append(":06 -0600] www").append(i % 2).append(".backcountry.com \"GET /images/")
+                    .append(i % 100 < 50 ? 0 : i % 100).append(".gif?v=").append(i).append(" HTTP/1.1\" ")
+                    .append(i % 10 == 0 ? 404 : 200).append(" 100 \"-\" \"Mozilla/5.0\" ").append(i).append('\n');
+        }
+        content.append("/var/log/web01/apache.log:2012-09-18T06:03:00-00:00 web01 apache: truncated \"GET / HTTP/1.1\" 503 \n");
+        write(log, content.toString());
+
+        ApacheLogParser parser = new ApacheLogParser();
+        parser.parseFormat("%syslog_ti %syslog_ws %syslog_n %{X-Forwarded-For}i %l %u %t %{Host}i \"%r\" %>s %b \"%{Referer}i\" \"%{User-Agent}i\" %D");
+        ApacheLogParser invalidLineParser = new ApacheLogParser();
+        invalidLineParser.parseFormat("%syslog_ti %syslog_ws %syslog_n %_");
+        ApacheLogIndexer indexer = new ApacheLogIndexer(parser, invalidLineParser);
+        indexer.setThreads(2);
+        indexer.setBatchSize(100);
+        ApacheLogAggregator aggregator = new ApacheLogAggregator(30);
+        ApacheLogTimestampParser timestampParser = new ApacheLogTimestampParser();
+        aggregator.setUntil(timestampParser.parseApacheTime("[18/Sep/2012:00:02:00 -0600]"));
+        indexer.setSink(aggregator);
+        indexer.index(log);
+
+        assertEquals(2000, aggregator.getLines());
+        assertEquals(1001, aggregator.getSkipped());
+        assertEquals(200000, aggregator.getBytes());
+        assertArrayEquals(new long[] {200, 404}, aggregator.getLinesByStatus().keys());
+        assertEquals(200, aggregator.getLinesByStatus().get(404));
+        assertEquals(20000, aggregator.getBytesByStatus().get(404));
+        long minute = timestampParser.parseApacheTime("[18/Sep/2012:00:00:00 -0600]") / 60000;
+        assertArrayEquals(new long[] {minute, minute + 1}, aggregator.getLinesByMinute().keys());
+        assertEquals(1000, aggregator.getLinesByMinute().get(minute + 1));
+
+        List<ApacheLogTopK.Entry> resources = aggregator.getResources().getTop(2);
+        assertEquals("/images/0.gif", resources.get(0).getKey());
+        assertEquals(1000, resources.get(0).getCount());
+        assertEquals(20, resources.get(1).getCount());
+        assertEquals(1000, aggregator.getResourceCount("/images/0.gif"));
+        assertEquals(51, aggregator.getDistinctResources());
+        assertEquals(1, aggregator.getDistinctUserAgents());
+        assertEquals(2, aggregator.getHosts().getTop(10).size());
+        assertEquals(1000, aggregator.getHosts().getTop(1).get(0).getCount());
+        assertEquals(1000, aggregator.getLatency().getQuantile(0.5), 10);
+        assertEquals(1999, aggregator.getLatency().getMax());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        aggregator.report(new PrintStream(out, true), 3);
+        String report = out.toString();
+        assertTrue(report, report.contains("Lines 2000, bytes 200000, skipped 1001"));
+        assertTrue(report, report.contains("  404\t200 lines\t20000 bytes"));
+        assertTrue(report, report.contains("  1000\t/images/0.gif"));
+        assertTrue(report, report.contains("2012-09-18 06:01\t1000 lines"));
+    }
+
+    private void write(File file, String content) throws Exception {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package org.apachelog;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ApacheLogCheckpointTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        File log = write("access.log", "first\nsecond\nthird\nfourth\n");
+        File file = new File(folder.getRoot(), "access.checkpoint");
+        assertNull(ApacheLogCheckpoint.load(file));
+
+        ApacheLogCheckpoint checkpoint = ApacheLogCheckpoint.create(file, log, new long[] {0, 13, 26});
+        checkpoint.acknowledge(0, checkpoint.begin(0), 6, 1);
+        checkpoint.acknowledge(1, checkpoint.begin(1), 26, 2);
+
+        ApacheLogCheckpoint loaded = ApacheLogCheckpoint.load(file);
+        assertTrue(loaded.matches(log));
+        assertArrayEquals(new long[] {0, 13, 26}, loaded.getBoundaries());
+        assertEquals(6, loaded.getOffset(0));
+        assertEquals(1, loaded.getLines(0));
+        assertEquals(26, loaded.getOffset(1));
+        assertEquals(3, loaded.getLines());
+        assertFalse(new File(folder.getRoot(), "access.checkpoint.tmp").exists());
+    }
+
+    @Test
+    public void testOutOfOrderAcknowledgements() throws Exception {
+        File log = write("access.log", "first\nsecond\nthird\n");
+        File file = new File(folder.getRoot(), "access.checkpoint");
+        ApacheLogCheckpoint checkpoint = ApacheLogCheckpoint.create(file, log, new long[] {0, 19});
+
+        long first = checkpoint.begin(0);
+        long second = checkpoint.begin(0);
+        long third = checkpoint.begin(0);
+        checkpoint.acknowledge(0, second, 13, 2);
+        assertEquals(0, checkpoint.getOffset(0));
+        assertNull(ApacheLogCheckpoint.load(file));
+
+        checkpoint.acknowledge(0, first, 6, 1);
+        assertEquals(13, checkpoint.getOffset(0));
+        assertEquals(13, ApacheLogCheckpoint.load(file).getOffset(0));
+
+        checkpoint.acknowledge(0, third, 19, 3);
+        assertEquals(19, ApacheLogCheckpoint.load(file).getOffset(0));
+        assertEquals(3, ApacheLogCheckpoint.load(file).getLines());
+    }
+
+    @Test
+    public void testMatches() throws Exception {
+        File log = write("access.log", "first\nsecond\n");
+        File file = new File(folder.getRoot(), "access.checkpoint");
+        ApacheLogCheckpoint checkpoint = ApacheLogCheckpoint.create(file, log, new long[] {0, 13});
+        checkpoint.acknowledge(0, checkpoint.begin(0), 13, 2);
+
+        assertTrue(checkpoint.matches(log));
+        assertFalse(checkpoint.matches(write("other.log", "first\nsecond\n")));
+        assertFalse(checkpoint.matches(new File(folder.getRoot(), "missing.log")));
+
+        // rewritten in place with different content
+        write("access.log", "FIRST\nsecond\n");
+        assertFalse(checkpoint.matches(log));
+        // truncated
+        write("access.log", "first\n");
+        assertFalse(checkpoint.matches(log));
+        // appended
+        write("access.log", "first\nsecond\nthird\n");
+        assertTrue(checkpoint.matches(log));
+    }
+
+    private File write(String name, String content) throws Exception {
+        File file = new File(folder.getRoot(), name);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+}
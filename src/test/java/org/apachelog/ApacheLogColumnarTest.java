@@ -0,0 +1,168 @@
+package org.apachelog;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ApacheLogColumnarTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testExport() throws Exception {
+        File log = new File(folder.getRoot(), "web01.log");
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < 5000; ++i) {
+            content.append("/var/log/web01/apache.log:2012-09-18T19:24:56-06:00 web01 apache: 70.196.196.")
+                    .append(i % 256).append(", 23.57.68.53 - - [18/Sep/2012:00:").append(10 + i / 600 % 50).append(":0")
+                    .append(i % 10).append(" -0600] origin-www.backcountry.com \"").append(i % 3 == 0 ? "POST" : "GET")
+                    .append(" /images/").append(i % 100).append(".gif?v=").append(i).append(" HTTP/1.1\" ")
+                    .append(i % 7 == 0 ? 404 : 200).append(' ').append(i % 5 == 0 ? "-" : String.valueOf(i))
+                    .append(" \"-\" \"Mozilla/5.0\" 576\n");
+        }
+        content.append("/var/log/web01/apache.log:2012-09-18T19:24:56-06:00 web01 apache: truncated \"GET / HTTP/1.1\" 503 \n");
+        write(log, content.toString());
+
+        ApacheLogParser parser = new ApacheLogParser();
+        parser.parseFormat("%syslog_ti %syslog_ws %syslog_n %{X-Forwarded-For}i %l %u %t %{Host}i \"%r\" %>s %b \"%{Referer}i\" \"%{User-Agent}i\" %D");
+        ApacheLogParser invalidLineParser = new ApacheLogParser();
+        invalidLineParser.parseFormat("%syslog_ti %syslog_ws %syslog_n %_");
+        ApacheLogIndexer indexer = new ApacheLogIndexer(parser, invalidLineParser);
+        indexer.setThreads(2);
+        indexer.setBatchSize(100);
+        File columnar = new File(folder.getRoot(), "web01.alc");
+        ApacheLogColumnarSink sink = new ApacheLogColumnarSink(columnar);
+        sink.setChunkSize(1000);
+        indexer.setSink(sink);
+        indexer.index(log);
+
+        assertTrue(columnar.length() * 5 < log.length());
+        ApacheLogColumnarReader reader = new ApacheLogColumnarReader(columnar);
+        try {
+            assertEquals(ApacheLogColumnarSink.getColumnNames(), reader.getColumns());
+            assertEquals(ApacheLogColumnarSink.Encoding.DICTIONARY, reader.getEncoding("method"));
+            assertEquals(5001, reader.getRows());
+
+            final Map<String, Integer> methods = new HashMap<String, Integer>();
+            assertEquals(5001, reader.scanStrings("method", new ApacheLogColumnarReader.StringVisitor() {
+                public void visit(String value) {
+                    Integer count = methods.get(value);
+                    methods.put(value, count == null ? 1 : count + 1);
+                }
+            }));
+            assertEquals(1667, (int) methods.get("POST"));
+            assertEquals(3333, (int) methods.get("GET"));
+            assertEquals(1, (int) methods.get("?"));
+
+            final long[] codes = new long[600];
+            reader.scanLongs("code", new ApacheLogColumnarReader.LongVisitor() {
+                public void visit(long value) {
+                    ++codes[(int) value];
+                }
+            });
+            assertEquals(715, codes[404]);
+            assertEquals(4285, codes[200]);
+            assertEquals(1, codes[503]);
+
+            final long[] bytes = new long[2];
+            reader.scanLongs("bytes", new ApacheLogColumnarReader.LongVisitor() {
+                public void visit(long value) {
+                    bytes[value < 0 ? 0 : 1] += value < 0 ? 1 : value;
+                }
+            });
+            // "-" and the truncated line
+            assertEquals(1001, bytes[0]);
+            long sum = 0;
+            for (int i = 0; i < 5000; ++i) {
+                sum += i % 5 == 0 ? 0 : i;
+            }
+            assertEquals(sum, bytes[1]);
+
+            final List<Long> times = new ArrayList<Long>();
+            reader.scanLongs("datetime", new ApacheLogColumnarReader.LongVisitor() {
+                public void visit(long value) {
+                    times.add(value);
+                }
+            });
+            ApacheLogTimestampParser timestampParser = new ApacheLogTimestampParser();
+            long min = timestampParser.parseApacheTime("[18/Sep/2012:00:10:00 -0600]");
+            long max = timestampParser.parseApacheTime("[18/Sep/2012:00:18:09 -0600]");
+            long syslog = timestampParser.parseSyslogTime("2012-09-18T19:24:56-06:00");
+            int syslogTimes = 0;
+            for (long time : times) {
+                if (time == syslog) {
+                    ++syslogTimes;
+                } else {
+                    assertTrue(time >= min && time <= max);
+                }
+            }
+            assertEquals(1, syslogTimes);
+
+            final List<String> params = new ArrayList<String>();
+            reader.scanStrings("resourceParams", new ApacheLogColumnarReader.StringVisitor() {
+                public void visit(String value) {
+                    params.add(value);
+                }
+            });
+            assertTrue(params.contains("v=4999"));
+            assertTrue(params.contains("?"));
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testNulls() throws Exception {
+        File columnar = new File(folder.getRoot(), "nulls.alc");
+        ApacheLogColumnarSink sink = new ApacheLogColumnarSink(columnar);
+        ApacheLogParser parser = new ApacheLogParser();
+        parser.parseFormat("%t \"%r\"");
+        // the second run rewrites the file with a new compressor
+        for (int run = 0; run < 2; ++run) {
+            sink.start();
+            List<Object[]> batch = new ArrayList<Object[]>();
+            batch.add(sink.convert("", parser.parse("[18/Sep/2012:00:00:06 -0600] \"GET /a HTTP/1.1\"", new ApacheLogRecord()), true));
+            sink.send(batch, null);
+            sink.close();
+        }
+
+        ApacheLogColumnarReader reader = new ApacheLogColumnarReader(columnar);
+        try {
+            final List<String> values = new ArrayList<String>();
+            ApacheLogColumnarReader.StringVisitor visitor = new ApacheLogColumnarReader.StringVisitor() {
+                public void visit(String value) {
+                    values.add(value);
+                }
+            };
+            reader.scanStrings("host", visitor);
+            reader.scanStrings("resource", visitor);
+            reader.scanStrings("xForwardFor", visitor);
+            assertNull(values.get(0));
+            assertEquals("/a", values.get(1));
+            assertNull(values.get(2));
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void write(File file, String content) throws Exception {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package org.apachelog;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ApacheLogFilterTest {
+    private static final String LINE = "212.74.15.68 - - [23/Jan/2004:11:36:20 +0000] \"GET /caf\u00e9/menu.html HTTP/1.1\" 503 2607 \"-\" \"Mozilla/5.0\"";
+
+    private ApacheLogParser parser;
+    private ApacheLogRecord record = new ApacheLogRecord();
+
+    @Before
+    public void setup() throws Exception {
+        parser = new ApacheLogParser();
+        parser.setEngine(ApacheLogParser.Engine.TOKENIZER);
+        parser.parseFormat("%h %l %u %t \"%r\" %>s %b \"%{Referer}i\" \"%{User-Agent}i\"");
+    }
+
+    @Test
+    public void testFilters() throws Exception {
+        assertTrue(accept(null, LINE));
+        assertTrue(accept(ApacheLogFilter.contains("Mozilla"), LINE));
+        assertFalse(accept(ApacheLogFilter.contains("curl"), LINE));
+        assertTrue(accept(ApacheLogFilter.between("%>s", 500, 599), LINE));
+        assertFalse(accept(ApacheLogFilter.between("%>s", 400, 499), LINE));
+        assertFalse(accept(ApacheLogFilter.between("%b", 0, 10000), LINE.replace("2607", "-")));
+        assertTrue(accept(ApacheLogFilter.is("%h", "212.74.15.68"), LINE));
+        assertFalse(accept(ApacheLogFilter.is("%h", "212.74.15.6"), LINE));
+        assertTrue(accept(ApacheLogFilter.startsWith("%h", "212.74."), LINE));
+        assertTrue(accept(ApacheLogFilter.pathStartsWith("%r", "/caf\u00e9/"), LINE));
+        assertFalse(accept(ApacheLogFilter.pathStartsWith("%r", "/images"), LINE));
+        assertTrue(accept(ApacheLogFilter.contains("%{User-Agent}i", "5.0"), LINE));
+        assertFalse(accept(ApacheLogFilter.contains("%{Referer}i", "5.0"), LINE));
+        assertFalse(accept(ApacheLogFilter.is("%{Host}i", "example.com"), LINE));
+
+        assertTrue(accept(ApacheLogFilter.and(ApacheLogFilter.between("%>s", 500, 599), ApacheLogFilter.is("%h", "212.74.15.68")), LINE));
+        assertFalse(accept(ApacheLogFilter.and(ApacheLogFilter.between("%>s", 500, 599), ApacheLogFilter.is("%h", "127.0.0.1")), LINE));
+        assertTrue(accept(ApacheLogFilter.or(ApacheLogFilter.contains("curl"), ApacheLogFilter.between("%>s", 500, 599)), LINE));
+        assertTrue(accept(ApacheLogFilter.not(ApacheLogFilter.between("%>s", 200, 299)), LINE));
+    }
+
+    @Test
+    public void testByteLine() throws Exception {
+        Charset utf8 = Charset.forName("UTF-8");
+        byte[] bytes = LINE.getBytes(utf8);
+        ApacheLogByteLine line = new ApacheLogByteLine(ByteBuffer.wrap(bytes), 0, bytes.length, utf8);
+
+        assertTrue(accept(ApacheLogFilter.contains("caf\u00e9"), line));
+        assertTrue(accept(ApacheLogFilter.pathStartsWith("%r", "/caf\u00e9/"), line));
+        assertFalse(accept(ApacheLogFilter.pathStartsWith("%r", "/cafe/"), line));
+        assertTrue(accept(ApacheLogFilter.between("%>s", 500, 599), line));
+    }
+
+    @Test
+    public void testParseAfterFilter() throws Exception {
+        parser.setFilter(ApacheLogFilter.between("%>s", 500, 599));
+
+        assertFalse(parser.accept("garbage", record));
+        assertFalse(parser.accept(LINE.replace("503", "200"), record));
+        // the tail of the line is not checked by the filter, the full parse still fails
+        assertTrue(parser.accept(LINE.replace("\"Mozilla/5.0\"", "Mozilla"), record));
+        assertTrue(parser.accept(LINE, record));
+        assertEquals("503", parser.parse(LINE, record).getString("%>s"));
+        assertEquals(9, record.size());
+    }
+
+    private boolean accept(ApacheLogFilter filter, CharSequence line) throws Exception {
+        parser.setFilter(filter);
+        return parser.accept(line, record);
+    }
+}
@@ -0,0 +1,88 @@
+package org.apachelog;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ApacheLogFormatTest {
+    private static final String LINE = "www.example.com:80 212.74.15.68 - - [23/Jan/2004:11:36:20 +0000] \"GET /index.html HTTP/1.1\" 200 2607 \"-\" \"Mozilla/5.0\"";
+
+    @Test
+    public void testCache() throws Exception {
+        ApacheLogFormat format = ApacheLogFormat.compile(ApacheLogFormats.VHOST_COMBINED);
+        assertSame(format, ApacheLogFormat.compile("  " + ApacheLogFormats.VHOST_COMBINED.replace(" ", " \t ")));
+        assertSame(format, ApacheLogFormats.get("vhost_combined"));
+        assertEquals(ApacheLogFormats.VHOST_COMBINED, format.getFormat());
+        assertNull(format.getProjection());
+
+        ApacheLogFormat projected = ApacheLogFormat.compile(ApacheLogFormats.VHOST_COMBINED, Arrays.asList("%>s", "%h"));
+        assertTrue(projected != format);
+        assertSame(projected, format.project(Arrays.asList("%h", "%>s")));
+        assertEquals(format.getNames(), projected.getNames());
+
+        // the parsers share the compiled format, pattern included
+        ApacheLogParser parser = new ApacheLogParser();
+        parser.parseFormat(ApacheLogFormats.VHOST_COMBINED);
+        assertSame(format, parser.getLogFormat());
+        assertSame(format.getPattern(), parser.getPattern());
+    }
+
+    @Test
+    public void testParse() throws Exception {
+        ApacheLogParser parser = new ApacheLogParser(ApacheLogFormats.get("vhost_combined"));
+        Map<String, String> fields = parser.parse(LINE);
+        assertEquals("www.example.com:80", fields.get("%v:%p"));
+        assertEquals("GET /index.html HTTP/1.1", fields.get("%r"));
+        assertEquals("Mozilla/5.0", fields.get("%{User-Agent}i"));
+
+        ApacheLogParser projected = new ApacheLogParser(ApacheLogFormat.compile(ApacheLogFormats.VHOST_COMBINED, Arrays.asList("%>s")));
+        projected.setEngine(ApacheLogParser.Engine.TOKENIZER);
+        ApacheLogRecord record = projected.parse(LINE, new ApacheLogRecord());
+        assertEquals(1, record.size());
+        assertEquals("200", record.getString("%>s"));
+    }
+
+    @Test
+    public void testAliases() throws Exception {
+        ApacheLogParser parser = new ApacheLogParser() {
+            @Override
+            public String getAlias(String name) {
+                return name.equals("%h") ? "host" : name;
+            }
+        };
+        parser.setProjection(Arrays.asList("host"));
+        parser.parseFormat(ApacheLogFormats.COMMON);
+        assertTrue(parser.getLogFormat() != ApacheLogFormat.compile(ApacheLogFormats.COMMON, Arrays.asList("host")));
+        assertArrayEquals(new String[] {"host", "%l", "%u", "%t", "%r", "%>s", "%b"}, parser.getNames());
+        assertEquals("212.74.15.68", parser.parse(LINE.substring(LINE.indexOf(' ') + 1)).get("host"));
+
+        // projections keep the aliases
+        ApacheLogParser projected = parser.project(Arrays.asList("host", "%>s"));
+        assertEquals("200", projected.parse(LINE.substring(LINE.indexOf(' ') + 1)).get("%>s"));
+        assertEquals("212.74.15.68", projected.parse(LINE.substring(LINE.indexOf(' ') + 1)).get("host"));
+    }
+
+    @Test
+    public void testRegistry() throws Exception {
+        assertTrue(ApacheLogFormats.getNames().containsAll(Arrays.asList("common", "combined", "vhost_common", "vhost_combined", "syslog", "syslog_invalid")));
+        assertFalse(ApacheLogFormats.contains("test_format"));
+        try {
+            ApacheLogFormats.get("test_format");
+            fail();
+        } catch (ApacheLogParserException ex) {
+            // expected
+        }
+        ApacheLogFormats.register("test_format", "%h %>s");
+        assertTrue(ApacheLogFormats.contains("test_format"));
+        assertEquals("404", new ApacheLogParser(ApacheLogFormats.get("test_format")).parse("10.0.0.1 404").get("%>s"));
+    }
+}
@@ -0,0 +1,231 @@
+package org.apachelog;
+
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.response.UpdateResponse;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.NamedList;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ApacheLogIndexerTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private StubSolrServer server = new StubSolrServer();
+    private ApacheLogIndexer indexer;
+
+    @Before
+    public void setup() throws Exception {
+        ApacheLogParser parser = new ApacheLogParser();
+        parser.parseFormat("%syslog_ti %syslog_ws %syslog_n %{X-Forwarded-For}i %l %u %t %{Host}i \"%r\" %>s %b \"%{Referer}i\" \"%{User-Agent}i\" %D");
+        ApacheLogParser invalidLineParser = new ApacheLogParser();
+        invalidLineParser.parseFormat("%syslog_ti %syslog_ws %syslog_n %_");
+        indexer = new ApacheLogIndexer(parser, invalidLineParser);
+        indexer.setServer(server);
+        indexer.setThreads(3);
+        indexer.setBatchSize(100);
+    }
+
+    @Test
+    public void testIndexDirectory() throws Exception {
+        File directory = folder.newFolder("logs");
+        new File(directory, "web02").mkdir();
+        write(new File(directory, "web01.log"), lines("web01", 1000, 0, 0), false);
+        write(new File(directory, "web02/access.log.gz"), lines("web02", 500, 10, 5), true);
+        write(new File(directory, ".hidden.log"), lines("hidden", 10, 0, 0), false);
+
+        indexer.index(directory);
+
+        assertEquals(1510, server.docs.size());
+        Set<Object> ids = new HashSet<Object>();
+        int invalid = 0;
+        for (SolrInputDocument doc : server.docs) {
+            ids.add(doc.getFieldValue("logText"));
+            if (Boolean.FALSE.equals(doc.getFieldValue("isValidLine"))) {
+                ++invalid;
+            }
+            assertTrue(!((String) doc.getFieldValue("logText")).contains("hidden"));
+        }
+        assertEquals(1510, ids.size());
+        assertEquals(10, invalid);
+        assertEquals(1, server.commits);
+
+        ApacheLogMetrics metrics = indexer.getMetrics();
+        assertEquals(1515, metrics.getLinesRead());
+        assertEquals(1500, metrics.getLinesParsed());
+        assertEquals(15, metrics.getParseFailures());
+        assertEquals(10, metrics.getLinesSalvaged());
+        assertEquals(5, metrics.getSalvageFailures());
+        assertEquals(1510, metrics.getDocuments());
+        assertEquals(1510, Math.round(metrics.getMeanBatchSize() * metrics.getBatches()));
+        assertEquals(100, metrics.getMaxBatchSize());
+        assertEquals(1, metrics.getCommits());
+        assertEquals(0, metrics.getBatchesInFlight());
+    }
+
+    @Test
+    public void testFilter() throws Exception {
+        File log = write(new File(folder.getRoot(), "web01.log"), lines("web01", 1000, 10, 5), false);
+
+        indexer.setFilter(ApacheLogFilter.pathStartsWith("%r", "/images/1"));
+        indexer.index(log);
+        // 1, 10-19 and 100-199, the truncated and garbage lines don't have a request
+        assertEquals(111, server.docs.size());
+
+        server.docs.clear();
+        indexer.setFilter(ApacheLogFilter.between("%>s", 500, 599));
+        indexer.index(log);
+        assertEquals(0, server.docs.size());
+
+        // lines without a host can't be read by the filter, their salvaged status is checked instead
+        String prefix = "/var/log/web01/apache.log:2012-09-18T19:24:56-06:00 web01 apache: 70.196.196.1 - - [18/Sep/2012:00:00:06 -0600] ";
+        log = write(new File(folder.getRoot(), "web02.log"), prefix + "\"GET / HTTP/1.1\" 503 0 \"-\" \"-\" 1\n"
+                + prefix + "\"GET / HTTP/1.1\" 200 0 \"-\" \"-\" 1\n", false);
+        long filtered = indexer.getMetrics().getLinesFiltered();
+        indexer.index(log);
+        assertEquals(1, server.docs.size());
+        assertEquals("503", server.docs.get(0).getFieldValue("code"));
+        assertEquals(Boolean.FALSE, server.docs.get(0).getFieldValue("isValidLine"));
+        assertEquals(filtered + 1, indexer.getMetrics().getLinesFiltered());
+    }
+
+    @Test
+    public void testSink() throws Exception {
+        File log = write(new File(folder.getRoot(), "web01.log"), lines("web01", 1000, 10, 5), false);
+        File csv = new File(folder.getRoot(), "web01.csv");
+
+        indexer.setSink(new ApacheLogCsvSink(csv, Charset.forName("UTF-8"), Arrays.asList("%syslog_ws", "%>s"), ApacheLogCsvSink.Dialect.CSV));
+        indexer.index(log);
+
+        assertEquals(0, server.docs.size());
+        assertEquals(0, server.commits);
+        List<String> rows = Files.readAllLines(csv.toPath(), Charset.forName("UTF-8"));
+        assertEquals(1011, rows.size());
+        assertEquals("\"%syslog_ws\",\"%>s\"", rows.get(0));
+        assertEquals(1000, Collections.frequency(rows, "\"web01\",\"404\""));
+        assertEquals(10, Collections.frequency(rows, "\"web01\",\"\""));
+
+        ApacheLogNullSink sink = new ApacheLogNullSink();
+        indexer.setSink(sink);
+        indexer.index(log);
+        assertEquals(1010, sink.getItems());
+    }
+
+    @Test
+    public void testMissingFile() throws Exception {
+        File log = write(new File(folder.getRoot(), "web01.log"), lines("web01", 10, 0, 0), false);
+        try {
+            indexer.index(Arrays.asList(log, new File(folder.getRoot(), "missing.log")));
+            fail("Should fail before indexing anything");
+        } catch (FileNotFoundException ex) {
+            // expected
+        }
+        assertEquals(0, server.docs.size());
+    }
+
+    @Test
+    public void testFailedFile() throws Exception {
+        File corrupt = new File(folder.getRoot(), "corrupt.log.gz");
+        write(corrupt, lines("corrupt", 10000, 0, 0), true);
+        byte[] compressed = Files.readAllBytes(corrupt.toPath());
+        FileOutputStream out = new FileOutputStream(corrupt);
+        try {
+            out.write(compressed, 0, compressed.length / 2);
+        } finally {
+            out.close();
+        }
+        File log = write(new File(folder.getRoot(), "web01.log"), lines("web01", 1000, 0, 0), false);
+
+        try {
+            indexer.index(Arrays.asList(corrupt, log));
+            fail("Should report the corrupt file");
+        } catch (ApacheLogIndexerException ex) {
+            assertEquals("1 of 2 files failed", ex.getMessage());
+        }
+        int indexed = 0;
+        for (SolrInputDocument doc : server.docs) {
+            if (((String) doc.getFieldValue("logText")).contains("web01")) {
+                ++indexed;
+            }
+        }
+        assertEquals(1000, indexed);
+    }
+
+    private String lines(String server, int valid, int truncated, int garbage) {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < valid + truncated + garbage; ++i) {
+            String prefix = "/var/log/" + server + "/apache.log:2012-09-18T19:24:56-06:00 " + server + " apache: 70.196.196." + (i % 256)
+                    + ", 23.57.68.53 - - [18/Sep/2012:00:00:06 -0600]";
+            if (i < valid) {
+                content.append(prefix).append(" origin-www.backcountry.com \"GET /images/").append(i)
+                        .append(".gif HTTP/1.1\" 404 497 \"-\" \"Mozilla/5.0\" 576\n");
+            } else if (i < valid + truncated) {
+                content.append(prefix).append(" truncated ").append(i).append('\n');
+            } else {
+                content.append("garbage ").append(i).append('\n');
+            }
+        }
+        return content.toString();
+    }
+
+    private File write(File file, String content, boolean gzip) throws Exception {
+        OutputStream out = new FileOutputStream(file);
+        if (gzip) {
+            out = new GZIPOutputStream(out);
+        }
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private static class StubSolrServer extends SolrServer {
+        private final List<SolrInputDocument> docs = Collections.synchronizedList(new ArrayList<SolrInputDocument>());
+        private volatile int commits;
+
+        @Override
+        public UpdateResponse add(Collection<SolrInputDocument> docs) {
+            this.docs.addAll(docs);
+            return new UpdateResponse();
+        }
+
+        @Override
+        public synchronized UpdateResponse commit(boolean waitFlush, boolean waitSearcher, boolean softCommit) {
+            ++commits;
+            return new UpdateResponse();
+        }
+
+        @Override
+        public NamedList<Object> request(SolrRequest request) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    }
+}
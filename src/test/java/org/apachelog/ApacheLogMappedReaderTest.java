@@ -0,0 +1,137 @@
+package org.apachelog;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ApacheLogMappedReaderTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ApacheLogParser parser = new ApacheLogParser();
+
+    @Before
+    public void setup() throws Exception {
+        parser.setEngine(ApacheLogParser.Engine.TOKENIZER);
+        parser.parseFormat("%h %l %u %t \"%r\" %>s %b \"%{Referer}i\" \"%{User-Agent}i\"");
+    }
+
+    @Test
+    public void testLineTerminators() throws Exception {
+        File file = write("first\nsecond\r\nthird\rfourth\n\nlast");
+
+        assertEquals(lines("first", "second", "third", "fourth", "", "last"), readAll(file, 4));
+        assertEquals(lines("first", "second", "third", "fourth", "", "last"), readAll(file, 1024));
+    }
+
+    @Test
+    public void testTrailingNewLine() throws Exception {
+        File file = write("first\r\nsecond\r\n");
+
+        assertEquals(lines("first", "second"), readAll(file, 6));
+        assertEquals(lines(), readAll(write(""), 6));
+    }
+
+    @Test
+    public void testParseBytes() throws Exception {
+        String line = "212.74.15.68 - - [23/Jan/2004:11:36:20 +0000] \"GET /caf\u00e9 HTTP/1.1\" 200 2607 \"-\" \"M\u00fcller/1.0\"";
+        ApacheLogMappedReader reader = new ApacheLogMappedReader(write(line + "\n" + line + "\n"), UTF8);
+        ApacheLogRecord record = new ApacheLogRecord();
+
+        try {
+            parser.parse(reader.readLine(), record);
+            assertEquals("GET /caf\u00e9 HTTP/1.1", record.getString("%r"));
+            assertEquals("M\u00fcller/1.0", record.getString("%{User-Agent}i"));
+            assertEquals("200", record.getString("%>s"));
+            assertEquals(line, record.getLine().toString());
+            assertEquals(line.getBytes(UTF8).length + 1, reader.getPosition());
+
+            parser.parse(reader.readLine(), record);
+            assertEquals("[23/Jan/2004:11:36:20 +0000]", record.getString("%t"));
+            assertNull(reader.readLine());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testSplit() throws Exception {
+        StringBuilder content = new StringBuilder();
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 1000; ++i) {
+            String line = "line " + i + (i % 7 == 0 ? " with some more text" : "");
+            expected.add(line);
+            content.append(line).append(i % 3 == 0 ? "\r\n" : "\n");
+        }
+        File file = write(content.toString());
+
+        for (int ranges : new int[] {1, 2, 7, 64, 5000}) {
+            long[] boundaries = ApacheLogMappedReader.split(file, ranges);
+            List<String> lines = new ArrayList<String>();
+            for (int i = 0; i < boundaries.length - 1; ++i) {
+                ApacheLogMappedReader reader = new ApacheLogMappedReader(file, UTF8, boundaries[i], boundaries[i + 1]);
+                try {
+                    CharSequence line;
+                    while ((line = reader.readLine()) != null) {
+                        lines.add(line.toString());
+                    }
+                } finally {
+                    reader.close();
+                }
+            }
+            assertEquals(expected, lines);
+            assertEquals(file.length(), boundaries[boundaries.length - 1]);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCharset() throws Exception {
+        new ApacheLogMappedReader(write(""), Charset.forName("UTF-16"));
+    }
+
+    private File write(String content) throws Exception {
+        File file = folder.newFile("test" + System.nanoTime() + ".log");
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content.getBytes(UTF8));
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private List<String> readAll(File file, int windowSize) throws Exception {
+        List<String> lines = new ArrayList<String>();
+        ApacheLogMappedReader reader = new ApacheLogMappedReader(file, UTF8);
+        reader.setWindowSize(windowSize);
+        try {
+            CharSequence line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line.toString());
+            }
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+
+    private List<String> lines(String... lines) {
+        List<String> list = new ArrayList<String>();
+        for (String line : lines) {
+            list.add(line);
+        }
+        return list;
+    }
+}
@@ -0,0 +1,78 @@
+package org.apachelog;
+
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ApacheLogMetricsTest {
+    @Test
+    public void testHistogram() {
+        ApacheLogMetrics.Histogram histogram = new ApacheLogMetrics.Histogram();
+        assertEquals(0, histogram.getPercentile(50));
+        for (int i = 1; i <= 100; ++i) {
+            histogram.record(i);
+        }
+
+        assertEquals(100, histogram.getCount());
+        assertEquals(50.5, histogram.getMean(), 0.001);
+        assertEquals(100, histogram.getMax());
+        // 50 falls in [32, 63], 99 in [64, 127] capped by the max
+        assertEquals(63, histogram.getPercentile(50));
+        assertEquals(100, histogram.getPercentile(99));
+        assertEquals(1, histogram.getPercentile(1));
+    }
+
+    @Test
+    public void testJmx() throws Exception {
+        ApacheLogMetrics metrics = new ApacheLogMetrics();
+        metrics.linesRead.add(42);
+        metrics.parse.record(3000000);
+        metrics.register("test");
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("org.apachelog:type=Metrics,name=\"test\"");
+            assertEquals(42L, server.getAttribute(name, "LinesRead"));
+            assertEquals(3L, server.getAttribute(name, "ParseMillis"));
+            try {
+                new ApacheLogMetrics().register("test");
+                fail("Should not register the same name twice");
+            } catch (IllegalStateException ex) {
+                // expected
+            }
+            server.invoke(name, "reset", new Object[0], new String[0]);
+            assertEquals(0L, server.getAttribute(name, "LinesRead"));
+        } finally {
+            metrics.unregister();
+        }
+        assertTrue(!ManagementFactory.getPlatformMBeanServer().isRegistered(new ObjectName("org.apachelog:type=Metrics,name=\"test\"")));
+    }
+
+    @Test
+    public void testReporter() throws Exception {
+        ApacheLogMetrics metrics = new ApacheLogMetrics();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ApacheLogMetricsReporter reporter = new ApacheLogMetricsReporter(metrics, new PrintStream(out, true, "UTF-8"));
+
+        reporter.start(10);
+        metrics.linesRead.add(1000);
+        metrics.linesParsed.add(990);
+        metrics.batchSize.record(500);
+        Thread.sleep(50);
+        reporter.stop();
+
+        String[] reports = out.toString("UTF-8").split("\n");
+        assertTrue(reports.length >= 2);
+        String last = reports[reports.length - 1];
+        assertTrue(last, last.startsWith("lines 1000 ("));
+        assertTrue(last, last.contains(" parsed 990 "));
+        assertTrue(last, last.contains(" size 500 "));
+    }
+}
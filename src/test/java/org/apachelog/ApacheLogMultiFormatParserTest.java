@@ -0,0 +1,119 @@
+package org.apachelog;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ApacheLogMultiFormatParserTest {
+    private static final String COMMON = "212.74.15.68 - - [23/Jan/2004:11:36:20 +0000] \"GET /index.html HTTP/1.1\" 200 2607";
+    private static final String COMBINED = COMMON + " \"-\" \"Mozilla/5.0\"";
+    private static final String SYSLOG = "/var/log/web01/apache.log:2012-09-18T19:24:56-06:00 web01 apache: 70.196.196.1, 23.57.68.53 - - "
+            + "[18/Sep/2012:00:00:06 -0600] www.example.com \"GET /images/0.gif HTTP/1.1\" 404 100 \"-\" \"Mozilla/5.0\" 576";
+    private static final String TRUNCATED = "/var/log/web01/apache.log:2012-09-18T19:24:57-06:00 web01 apache: truncated \"GET";
+
+    private ApacheLogMultiFormatParser createParser() throws Exception {
+        return new ApacheLogMultiFormatParser(ApacheLogFormats.get("syslog_invalid"), ApacheLogFormats.get("syslog"),
+                ApacheLogFormats.get("combined"), ApacheLogFormats.get("common"));
+    }
+
+    @Test
+    public void testMatch() throws Exception {
+        ApacheLogMultiFormatParser parser = createParser();
+        // %_ goes last
+        assertEquals(Arrays.asList(ApacheLogFormats.get("syslog"), ApacheLogFormats.get("combined"),
+                ApacheLogFormats.get("common"), ApacheLogFormats.get("syslog_invalid")), parser.getLogFormats());
+
+        ApacheLogRecord record = new ApacheLogRecord();
+        assertEquals(2, parser.match(COMMON, record));
+        assertEquals("2607", record.getString("%b"));
+        assertNull(record.getString("%{User-Agent}i"));
+        assertEquals(1, parser.match(COMBINED, record));
+        assertEquals("Mozilla/5.0", record.getString("%{User-Agent}i"));
+        assertEquals(0, parser.match(SYSLOG, record));
+        assertEquals("70.196.196.1, 23.57.68.53", record.getString("%{X-Forwarded-For}i"));
+        assertEquals(3, parser.match(TRUNCATED, record));
+        assertEquals("truncated \"GET", record.getString("%_"));
+        assertEquals(-1, parser.match("garbage", record));
+        assertFalse(parser.tryParse("", record));
+
+        assertEquals(1, parser.getHits(0));
+        assertEquals(1, parser.getHits(2));
+        assertEquals(2, parser.getMisses());
+        assertEquals("[18/Sep/2012:00:00:06 -0600]", parser.parse(SYSLOG).get("%t"));
+    }
+
+    @Test
+    public void testAdaptiveOrder() throws Exception {
+        ApacheLogMultiFormatParser parser = createParser();
+        ApacheLogRecord record = new ApacheLogRecord();
+        for (int i = 0; i < 1000; ++i) {
+            assertEquals(2, parser.match(COMMON, record));
+        }
+        // syslog is skipped by its space count, combined is tried once and common first from then on
+        assertEquals(1001, parser.getAttempts());
+        for (int i = 0; i < 1000; ++i) {
+            assertEquals(i % 100 < 50 ? 0 : 1, parser.match(i % 100 < 50 ? SYSLOG : COMBINED, record));
+        }
+        // one miss per run of 50 lines
+        assertTrue(parser.getAttempts() < 1001 + 1000 + 2 * 20 + 1);
+        assertEquals(500, parser.getHits(0));
+        assertEquals(500, parser.getHits(1));
+        assertEquals(1000, parser.getHits(2));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        parser.report(new PrintStream(out, true));
+        assertTrue(out.toString().contains(" 50.00% 1000\t" + ApacheLogFormats.COMMON));
+    }
+
+    @Test
+    public void testProjectionAndFilter() throws Exception {
+        ApacheLogMultiFormatParser parser = new ApacheLogMultiFormatParser();
+        parser.setEngine(ApacheLogParser.Engine.TOKENIZER);
+        parser.setProjection(Arrays.asList("%>s", "%r"));
+        parser.setFilter(ApacheLogFilter.between("%>s", 400, 599));
+        parser.parseFormat(ApacheLogFormats.SYSLOG);
+        parser.parseFormat(ApacheLogFormats.COMMON);
+
+        ApacheLogRecord record = new ApacheLogRecord();
+        assertFalse(parser.accept(COMMON, record));
+        assertTrue(parser.accept(SYSLOG, record));
+        assertTrue(parser.tryParse(SYSLOG, record));
+        assertEquals(2, record.size());
+        assertEquals("GET /images/0.gif HTTP/1.1", record.getString("%r"));
+        assertTrue(parser.tryParse(COMMON, record));
+        assertEquals("200", record.getString("%>s"));
+        // the projection doesn't cut the formats, common doesn't take the longer combined lines
+        assertFalse(parser.tryParse(COMBINED, record));
+    }
+
+    @Test
+    public void testProjectionMatchesWholeLine() throws Exception {
+        ApacheLogMultiFormatParser parser = new ApacheLogMultiFormatParser();
+        parser.setEngine(ApacheLogParser.Engine.TOKENIZER);
+        parser.setProjection(Arrays.asList("%h", "%{User-Agent}i"));
+        parser.parseFormat(ApacheLogFormats.COMMON);
+        parser.parseFormat(ApacheLogFormats.COMBINED);
+
+        ApacheLogRecord record = new ApacheLogRecord();
+        // common is tried first but only matches up to %b
+        assertEquals(1, parser.match(COMBINED, record));
+        assertEquals("212.74.15.68", record.getString("%h"));
+        assertEquals("Mozilla/5.0", record.getString("%{User-Agent}i"));
+        assertEquals(0, parser.match(COMMON, record));
+        assertNull(record.getString("%{User-Agent}i"));
+        assertEquals(1, parser.match(COMBINED, record));
+        assertEquals(2, parser.getHits(1));
+        assertEquals(1, parser.getHits(0));
+
+        parser.setEngine(ApacheLogParser.Engine.REGEX);
+        assertEquals(1, parser.match(COMBINED, record));
+        assertEquals("Mozilla/5.0", record.getString("%{User-Agent}i"));
+    }
+}
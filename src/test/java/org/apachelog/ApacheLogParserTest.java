@@ -9,6 +9,10 @@ import java.util.Map;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class ApacheLogParserTest {
     private ApacheLogParser parser = new ApacheLogParser();
@@ -214,6 +218,42 @@ public class ApacheLogParserTest {
         assertEquals("70.196.196.64, 23.57.68.53, 127.0.0.1 - - [18/Sep/2012:00:00:06 -0600]", fields.get("%_"));
     }
 
+    @Test
+    public void testRecord() throws Exception {
+        ApacheLogRecord record = new ApacheLogRecord();
+        String line = " 212.74.15.68 - - [23/Jan/2004:11:36:20 +0000] \"GET / HTTP/1.1\" 200 2607 \"-\" \"Mozilla/5.0\" ";
+
+        parser.parse(line, record);
+
+        assertEquals(9, record.size());
+        assertEquals("%h", record.getName(0));
+        assertEquals(1, record.getStart(0));
+        assertEquals("212.74.15.68", record.getString(0));
+        assertEquals("GET / HTTP/1.1", record.get("%r").toString());
+        assertEquals("Mozilla/5.0", record.getString("%{User-Agent}i"));
+        assertEquals(-1, record.indexOf("%D"));
+        assertNull(record.getString("%D"));
+
+        parserInvalidLines.setEngine(ApacheLogParser.Engine.TOKENIZER);
+        parserInvalidLines.parse("2012-09-18T19:24:56-06:00 mywebserv apache: truncated", record);
+
+        assertEquals(4, record.size());
+        assertEquals("mywebserv", record.getString("%syslog_ws"));
+        assertEquals("truncated", record.getString("%_"));
+    }
 
-
+    @Test
+    public void testTryParse() throws Exception {
+        ApacheLogRecord record = new ApacheLogRecord();
+
+        assertFalse(parser.tryParse("212.74.15.68 - - [23/Jan/2004:11:36:20 +0000] \"GET / HTTP/1.1\" 200", record));
+        assertTrue(parser.tryParse("212.74.15.68 - - [23/Jan/2004:11:36:20 +0000] \"GET / HTTP/1.1\" 200 2607 \"-\" \"-\"", record));
+        assertEquals("200", record.getString("%>s"));
+        try {
+            parser.parse("garbage", record);
+            fail("Should fail on an invalid line");
+        } catch (ApacheLogParserException ex) {
+            // expected
+        }
+    }
 }
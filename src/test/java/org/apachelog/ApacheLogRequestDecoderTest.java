@@ -0,0 +1,107 @@
+package org.apachelog;
+
+import org.apache.commons.lang.StringUtils;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ApacheLogRequestDecoderTest {
+    @Test
+    public void testDecode() {
+        ApacheLogRequestDecoder decoder = new ApacheLogRequestDecoder();
+        decoder.decode("GET /images/1.gif?v=1&w=2 HTTP/1.1");
+        assertEquals("GET", decoder.getMethod());
+        assertEquals("/images/1.gif", decoder.getPath());
+        assertEquals("v=1&w=2", decoder.getQuery());
+        assertEquals("HTTP/1.1", decoder.getProtocol());
+
+        decoder.decode("-");
+        assertEquals("-", decoder.getMethod());
+        assertEquals("-", decoder.getProtocol());
+        assertEquals("-", decoder.getPath());
+        assertEquals("", decoder.getQuery());
+
+        decoder.decode(null);
+        assertEquals("-", decoder.getMethod());
+        assertEquals("-", decoder.getPath());
+        assertEquals("-", decoder.getQuery());
+    }
+
+    /**
+     * The parts must be the ones split with indexOf, substring and StringUtils
+     */
+    @Test
+    public void testSameAsStringUtils() {
+        ApacheLogRequestDecoder decoder = new ApacheLogRequestDecoder();
+        String[] requests = {"", " ", "GET", "GET /", "GET / HTTP/1.1", "GET  HTTP/1.1", "GET ? HTTP/1.1",
+                "GET /a?? HTTP/1.1", "GET ??/a?b??c? HTTP/1.1", "GET /a b c HTTP/1.1", " /a HTTP/1.1 ", "?x y?z"};
+        for (String request : requests) {
+            assertDecoded(decoder, request);
+        }
+        Random random = new Random(42);
+        char[] alphabet = {'a', '/', '?', ' ', '='};
+        for (int i = 0; i < 10000; ++i) {
+            char[] request = new char[random.nextInt(12)];
+            for (int j = 0; j < request.length; ++j) {
+                request[j] = alphabet[random.nextInt(alphabet.length)];
+            }
+            assertDecoded(decoder, new String(request));
+        }
+    }
+
+    @Test
+    public void testForwardedFor() {
+        ApacheLogRequestDecoder decoder = new ApacheLogRequestDecoder();
+        String[] values = {"70.196.196.64, 23.57.68.53", "", ", ,", "1.1.1.1", " 1.1.1.1,2.2.2.2 ,3.3.3.3, 4.4.4.4,,5.5.5.5 , 6.6.6.6, 7.7.7.7, 8.8.8.8, 9.9.9.9"};
+        for (String value : values) {
+            decoder.decodeForwardedFor(value);
+            String[] expected = StringUtils.split(value, ", ");
+            assertEquals(value, expected.length, decoder.getForwardedForCount());
+            for (int i = 0; i < expected.length; ++i) {
+                assertEquals(expected[i], decoder.getForwardedFor(i));
+            }
+        }
+        decoder.decode("GET / HTTP/1.1", null);
+        assertEquals(0, decoder.getForwardedForCount());
+    }
+
+    @Test
+    public void testHash() {
+        assertEquals(ApacheLogRequestDecoder.hash("abcdefg"), ApacheLogRequestDecoder.hash(new StringBuilder("abcdefg")));
+        assertTrue(ApacheLogRequestDecoder.hash("") != ApacheLogRequestDecoder.hash("\u0000"));
+        // lines differing in a single character, like consecutive requests of a log
+        Set<Long> hashes = new HashSet<Long>();
+        for (int i = 0; i < 100000; ++i) {
+            hashes.add(ApacheLogRequestDecoder.hash("70.196.196.64 - - [18/Sep/2012:00:00:06 -0600] \"GET /images/" + i + ".gif HTTP/1.1\" 404 497"));
+        }
+        assertEquals(100000, hashes.size());
+    }
+
+    private void assertDecoded(ApacheLogRequestDecoder decoder, String request) {
+        String resource = request;
+        String method = "-";
+        String protocol = "-";
+        int firstSpace = resource.indexOf(' ');
+        if (firstSpace != -1) {
+            method = resource.substring(0, firstSpace);
+            resource = resource.substring(firstSpace + 1);
+        }
+        int lastSpace = resource.lastIndexOf(' ');
+        if (lastSpace != -1) {
+            protocol = resource.substring(lastSpace + 1);
+            resource = resource.substring(0, lastSpace);
+        }
+        String[] parts = StringUtils.split(resource, '?');
+
+        decoder.decode(request);
+        assertEquals(request, method, decoder.getMethod());
+        assertEquals(request, protocol, decoder.getProtocol());
+        assertEquals(request, parts.length >= 1 ? parts[0] : "-", decoder.getPath());
+        assertEquals(request, parts.length > 0 ? StringUtils.join(parts, "", 1, parts.length) : "-", decoder.getQuery());
+    }
+}
@@ -0,0 +1,97 @@
+package org.apachelog;
+
+import org.junit.Test;
+
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ApacheLogSalvageParserTest {
+    private static final Pattern RESPONSE_CODE = Pattern.compile("HTTP/1\\.1\"\\s(\\d+)\\s");
+
+    private static final String[] LINES = {
+        "/var/log/web01/apache.log:2012-09-18T19:24:56-06:00 web01 apache: 70.196.196.64, 23.57.68.53 - - [18/Sep/2012:00:00:06 -0600] origin-www.backcountry.com \"GET /images/1.gif HTTP/1.1\" 404 497 \"-\"",
+        "/var/log/web01/apache.log:2012-09-18T19:24:56-06:00 web01 apache: 70.196.196.64 - - [18/Sep/2012:00:00:06 -0600] truncated",
+        "/var/log/web01/apache.log:2012-09-18T19:24:56-06:00 web01 apache:",
+        "/var/log/web01/apache.log:2012-09-18T19:24:56-06:00 web01 apache: ",
+        "  a b c \"GET / HTTP/1.1\" 200\t1  ",
+        "a b c \"GET / HTTP/1.1\" 200",
+        "a b c \"GET / HTTP/1.1\"  200 1",
+        "a\tb c d",
+        "a  b c",
+        "a b  c",
+        "a b c d\re",
+        "garbage 510",
+        ""
+    };
+
+    @Test
+    public void testSameAsInvalidLineParser() throws Exception {
+        ApacheLogParser invalidLineParser = new ApacheLogParser();
+        invalidLineParser.parseFormat("%syslog_ti %syslog_ws %syslog_n %_");
+        ApacheLogSalvageParser salvageParser = new ApacheLogSalvageParser(invalidLineParser.getPlainPrefix());
+        assertArrayEquals(new String[] {"%syslog_ti", "%syslog_ws", "%syslog_n", "%>s"}, salvageParser.getNames());
+
+        for (String line : LINES) {
+            assertSameResult(invalidLineParser, salvageParser, line);
+        }
+
+        Random random = new Random(42);
+        String[] tokens = {"a", "1", "200", " ", " ", "\t", "\"", "HTTP/1.1\"", "HTTP/1.1\" ", "\n"};
+        for (int n = 0; n < 20000; ++n) {
+            StringBuilder line = new StringBuilder();
+            int length = random.nextInt(20);
+            for (int i = 0; i < length; ++i) {
+                line.append(tokens[random.nextInt(tokens.length)]);
+            }
+            assertSameResult(invalidLineParser, salvageParser, line.toString());
+        }
+    }
+
+    @Test
+    public void testStatus() {
+        ApacheLogSalvageParser salvageParser = new ApacheLogSalvageParser("%syslog_ti", "%syslog_ws", "%syslog_n");
+        ApacheLogRecord record = new ApacheLogRecord();
+
+        assertTrue(salvageParser.parse(LINES[0], record));
+        assertEquals("web01", record.getString("%syslog_ws"));
+        assertEquals("404", record.getString(ApacheLogSalvageParser.STATUS));
+        assertTrue(salvageParser.parse(LINES[1], record));
+        assertNull(record.getString(ApacheLogSalvageParser.STATUS));
+        assertFalse(salvageParser.parse(LINES[11], record));
+        assertEquals("404", ApacheLogSalvageParser.findStatus(LINES[0]));
+        assertNull(ApacheLogSalvageParser.findStatus(LINES[11]));
+    }
+
+    @Test
+    public void testPlainPrefix() throws Exception {
+        ApacheLogParser parser = new ApacheLogParser();
+        parser.parseFormat("%h %t %_");
+        assertNull(parser.getPlainPrefix());
+        parser.parseFormat("%h %l");
+        assertNull(parser.getPlainPrefix());
+        parser.parseFormat("%h %l %_");
+        assertArrayEquals(new String[] {"%h", "%l"}, parser.getPlainPrefix());
+    }
+
+    private void assertSameResult(ApacheLogParser invalidLineParser, ApacheLogSalvageParser salvageParser, String line) {
+        ApacheLogRecord expected = new ApacheLogRecord();
+        ApacheLogRecord actual = new ApacheLogRecord();
+        boolean parsed = invalidLineParser.tryParse(line + " ", expected);
+
+        assertEquals("Different result for '" + line + "'", parsed, salvageParser.parse(line, actual));
+        if (parsed) {
+            for (String name : invalidLineParser.getPlainPrefix()) {
+                assertEquals("Different " + name + " for '" + line + "'", expected.getString(name), actual.getString(name));
+            }
+            Matcher m = RESPONSE_CODE.matcher(line);
+            assertEquals("Different status for '" + line + "'", m.find() ? m.group(1) : null, actual.getString(ApacheLogSalvageParser.STATUS));
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package org.apachelog;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class ApacheLogSinkTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Test
+    public void testCsv() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ApacheLogCsvSink sink = new ApacheLogCsvSink(out, UTF8, Arrays.asList("%h", "%{User-Agent}i", "%D"), ApacheLogCsvSink.Dialect.CSV);
+        final AtomicInteger acknowledged = new AtomicInteger();
+        sink.start();
+        sink.send(Arrays.asList(sink.convert("", parse("1.2.3.4 \"Mozilla \\\"x\\\", 5.0\""), true)), new ApacheLogSink.Callback() {
+            public void acknowledged() {
+                acknowledged.incrementAndGet();
+            }
+        });
+        assertEquals(1, acknowledged.get());
+        sink.close();
+        assertEquals("\"%h\",\"%{User-Agent}i\",\"%D\"\n\"1.2.3.4\",\"Mozilla \\\"\"x\\\"\", 5.0\",\"\"\n", out.toString("UTF-8"));
+    }
+
+    @Test
+    public void testTsv() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ApacheLogCsvSink sink = new ApacheLogCsvSink(out, UTF8, Arrays.asList("%h", "%{User-Agent}i"), ApacheLogCsvSink.Dialect.TSV);
+        sink.setHeader(false);
+        sink.start();
+        sink.send(Arrays.asList(sink.convert("", parse("1.2.3.4 \"a\tb\\c\u00e9\""), true)), null);
+        sink.close();
+        assertEquals("1.2.3.4\ta\\tb\\\\c\u00e9\n", out.toString("UTF-8"));
+    }
+
+    @Test
+    public void testJson() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ApacheLogJsonSink sink = new ApacheLogJsonSink(out, UTF8, null);
+        sink.start();
+        ApacheLogRecord record = parse("1.2.3.4 \"say \\\"hi\\\" \u0001\"");
+        sink.send(Arrays.asList(sink.convert("", record, true), sink.convert("", record, false)), null);
+        sink.close();
+        String row = "{\"%h\":\"1.2.3.4\",\"%{User-Agent}i\":\"say \\\\\\\"hi\\\\\\\" \\u0001\"";
+        assertEquals(row + "}\n" + row + ",\"isValidLine\":false}\n", out.toString("UTF-8"));
+
+        out.reset();
+        sink = new ApacheLogJsonSink(out, UTF8, Arrays.asList("%D", "%h"));
+        sink.start();
+        sink.send(Arrays.asList(sink.convert("", record, true)), null);
+        sink.close();
+        assertEquals("{\"%D\":null,\"%h\":\"1.2.3.4\"}\n", out.toString("UTF-8"));
+    }
+
+    @Test
+    public void testByteLine() throws Exception {
+        ApacheLogParser parser = new ApacheLogParser();
+        parser.setEngine(ApacheLogParser.Engine.TOKENIZER);
+        parser.parseFormat("%h %U");
+        byte[] bytes = "1.2.3.4 /caf\u00e9".getBytes("UTF-8");
+        ApacheLogRecord record = parser.parse(new ApacheLogByteLine(ByteBuffer.wrap(bytes), 0, bytes.length, UTF8), new ApacheLogRecord());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ApacheLogCsvSink csv = new ApacheLogCsvSink(out, UTF8, Arrays.asList("%h", "%U"), ApacheLogCsvSink.Dialect.TSV);
+        csv.setHeader(false);
+        csv.start();
+        csv.send(Arrays.asList(csv.convert(null, record, true)), null);
+        csv.close();
+        assertEquals("1.2.3.4\t/caf\u00e9\n", out.toString("UTF-8"));
+
+        out.reset();
+        ApacheLogJsonSink json = new ApacheLogJsonSink(out, UTF8, Arrays.asList("%U"));
+        json.start();
+        json.send(Arrays.asList(json.convert(null, record, true)), null);
+        json.close();
+        assertEquals("{\"%U\":\"/caf\u00e9\"}\n", out.toString("UTF-8"));
+    }
+
+    private ApacheLogRecord parse(String line) throws ApacheLogParserException {
+        ApacheLogParser parser = new ApacheLogParser();
+        parser.parseFormat("%h \"%{User-Agent}i\"");
+        return parser.parse(line, new ApacheLogRecord());
+    }
+}
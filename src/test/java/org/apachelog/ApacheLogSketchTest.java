@@ -0,0 +1,131 @@
+package org.apachelog;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ApacheLogSketchTest {
+    @Test
+    public void testLongCounts() {
+        ApacheLogLongCounts counts = new ApacheLogLongCounts(2);
+        Map<Long, Long> expected = new HashMap<Long, Long>();
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; ++i) {
+            long key = random.nextInt(5000) - 100;
+            counts.add(key, i);
+            Long value = expected.get(key);
+            expected.put(key, value == null ? i : value + i);
+        }
+        assertEquals(expected.size(), counts.size());
+        for (Map.Entry<Long, Long> entry : expected.entrySet()) {
+            assertEquals((long) entry.getValue(), counts.get(entry.getKey()));
+        }
+        assertFalse(counts.containsKey(10000));
+        assertEquals(0, counts.get(10000));
+        long[] keys = counts.keys();
+        assertEquals(-100, keys[0]);
+        assertEquals(4899, keys[keys.length - 1]);
+
+        ApacheLogLongCounts other = new ApacheLogLongCounts();
+        other.add(404, 2);
+        other.merge(other);
+        assertArrayEquals(new long[] {404}, other.keys());
+        assertEquals(4, other.get(404));
+    }
+
+    @Test
+    public void testCountMin() {
+        ApacheLogCountMinSketch sketch = new ApacheLogCountMinSketch(1024, 4);
+        for (int i = 0; i < 10000; ++i) {
+            sketch.add("/images/" + (i % 2000) + ".gif", 1);
+        }
+        sketch.add("/index.html", 5000);
+        assertEquals(15000, sketch.getTotal());
+        long estimate = sketch.estimate("/index.html");
+        assertTrue(estimate >= 5000 && estimate < 5000 + 3 * 15000 / 1024);
+        estimate = sketch.estimate("/images/7.gif");
+        assertTrue(estimate >= 5 && estimate < 5 + 3 * 15000 / 1024);
+    }
+
+    @Test
+    public void testHyperLogLog() {
+        ApacheLogHyperLogLog small = new ApacheLogHyperLogLog();
+        ApacheLogHyperLogLog large = new ApacheLogHyperLogLog();
+        for (int i = 0; i < 1000000; ++i) {
+            large.add("70.196." + (i >> 8) + "." + (i & 255));
+            if (i < 100) {
+                small.add("70.196." + (i >> 8) + "." + (i & 255));
+            }
+        }
+        assertEquals(100, small.estimate());
+        assertEquals(1000000, large.estimate(), 1000000 * 0.03);
+        large.merge(small);
+        assertEquals(1000000, large.estimate(), 1000000 * 0.03);
+    }
+
+    @Test
+    public void testQuantiles() {
+        ApacheLogQuantileSketch sketch = new ApacheLogQuantileSketch(0.01);
+        assertEquals(0, sketch.getQuantile(0.5));
+        long[] values = new long[100001];
+        Random random = new Random(42);
+        for (int i = 0; i < values.length; ++i) {
+            values[i] = i % 10 == 0 ? 0 : (long) Math.exp(random.nextDouble() * 15);
+            sketch.add(values[i]);
+        }
+        sketch.add(-1);
+        Arrays.sort(values);
+        assertEquals(values.length, sketch.getCount());
+        for (double quantile : new double[] {0.05, 0.25, 0.5, 0.9, 0.99, 0.999, 1}) {
+            long expected = values[(int) Math.ceil(quantile * values.length) - 1];
+            assertEquals("quantile " + quantile, expected, sketch.getQuantile(quantile), expected * 0.01 + 1);
+        }
+        assertEquals(values[values.length - 1], sketch.getMax());
+        assertEquals(0, sketch.getMin());
+    }
+
+    @Test
+    public void testTopK() {
+        ApacheLogTopK topK = new ApacheLogTopK(10);
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; ++i) {
+            // 10 heavy hitters among many rare keys
+            if (i % 2 == 0) {
+                topK.add("/popular/" + (i / 2 % 10), 1 + i / 2 % 10);
+            } else {
+                topK.add("/rare/" + random.nextInt(100000), 1);
+            }
+        }
+        List<ApacheLogTopK.Entry> top = topK.getTop(3);
+        assertEquals(3, top.size());
+        assertEquals("/popular/9", top.get(0).getKey());
+        assertEquals("/popular/8", top.get(1).getKey());
+        assertEquals("/popular/7", top.get(2).getKey());
+        for (ApacheLogTopK.Entry entry : topK.getTop(10)) {
+            assertTrue(entry.getKey().startsWith("/popular/"));
+            long count = 5000 * (1 + Long.parseLong(entry.getKey().substring(9)));
+            assertTrue(entry.getCount() >= count && entry.getCount() - entry.getError() <= count);
+        }
+
+        ApacheLogTopK exact = new ApacheLogTopK(5);
+        for (int i = 0; i < 10; ++i) {
+            exact.add("key" + i, i);
+        }
+        assertEquals("key9=9", exact.getTop(1).get(0).toString());
+        assertEquals(0, exact.getTop(10).get(9).getError());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTopKWithoutKeys() {
+        new ApacheLogTopK(0);
+    }
+}
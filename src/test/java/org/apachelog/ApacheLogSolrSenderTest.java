@@ -0,0 +1,234 @@
+package org.apachelog;
+
+import org.apache.solr.client.solrj.SolrRequest;
+import org.apache.solr.client.solrj.SolrServer;
+import org.apache.solr.client.solrj.SolrServerException;
+import org.apache.solr.client.solrj.response.UpdateResponse;
+import org.apache.solr.common.SolrInputDocument;
+import org.apache.solr.common.util.NamedList;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ApacheLogSolrSenderTest {
+
+    @Test
+    public void testSendAll() throws Exception {
+        StubSolrServer server = new StubSolrServer(0);
+        ApacheLogSolrSender sender = new ApacheLogSolrSender(server, 3, 2);
+        sender.start();
+
+        for (int i = 0; i < 100; ++i) {
+            sender.send(batch(10));
+        }
+        sender.close();
+
+        assertEquals(1000, server.added.get());
+        assertEquals(0, sender.getInFlight());
+        assertEquals(0, server.commits.get());
+    }
+
+    @Test
+    public void testCommitDocuments() throws Exception {
+        StubSolrServer server = new StubSolrServer(0);
+        ApacheLogSolrSender sender = new ApacheLogSolrSender(server, 2, 2);
+        sender.setCommitPolicy(ApacheLogCommitPolicy.DOCUMENTS);
+        sender.setCommitDocuments(100);
+        sender.start();
+
+        for (int i = 0; i < 45; ++i) {
+            sender.send(batch(10));
+        }
+        sender.close();
+
+        assertEquals(4, server.commits.get());
+    }
+
+    @Test
+    public void testCommitRetry() throws Exception {
+        StubSolrServer server = new StubSolrServer(0);
+        server.commitFailures.set(2);
+        ApacheLogSolrSender sender = new ApacheLogSolrSender(server, 1, 1);
+        sender.setRetryDelay(1);
+        sender.setCommitPolicy(ApacheLogCommitPolicy.DOCUMENTS);
+        sender.setCommitDocuments(10);
+        sender.start();
+
+        final AtomicInteger acknowledged = new AtomicInteger();
+        ApacheLogSink.Callback callback = new ApacheLogSink.Callback() {
+            public void acknowledged() {
+                acknowledged.incrementAndGet();
+            }
+        };
+        sender.send(batch(10), callback);
+        sender.send(batch(5), callback);
+        sender.close();
+
+        // the batch isn't sent again when its commit fails
+        assertEquals(15, server.added.get());
+        assertEquals(2, acknowledged.get());
+        assertEquals(1, server.commits.get());
+        assertEquals(0, sender.getMetrics().getBatchFailures());
+    }
+
+    @Test
+    public void testCommitWithin() throws Exception {
+        StubSolrServer server = new StubSolrServer(0);
+        ApacheLogSolrSender sender = new ApacheLogSolrSender(server, 1, 1);
+        sender.setCommitPolicy(ApacheLogCommitPolicy.COMMIT_WITHIN);
+        sender.setCommitWithin(5000);
+        sender.start();
+
+        sender.send(batch(10));
+        sender.close();
+
+        assertEquals(5000, server.commitWithin);
+        assertEquals(0, server.commits.get());
+    }
+
+    @Test
+    public void testBackpressure() throws Exception {
+        StubSolrServer server = new StubSolrServer(0);
+        server.blocked = new CountDownLatch(1);
+        ApacheLogSolrSender sender = new ApacheLogSolrSender(server, 1, 2);
+        sender.start();
+
+        sender.send(batch(1));
+        sender.send(batch(1));
+        assertEquals(2, sender.getInFlight());
+
+        final ApacheLogSolrSender blockedSender = sender;
+        Thread producer = new Thread() {
+            public void run() {
+                try {
+                    blockedSender.send(new ArrayList<SolrInputDocument>());
+                } catch (ApacheLogIndexerException ex) {
+                    // interrupted
+                }
+            }
+        };
+        producer.start();
+        producer.join(200);
+        assertTrue("Should block while two batches are in flight", producer.isAlive());
+
+        server.blocked.countDown();
+        producer.join();
+        sender.close();
+        assertEquals(2, server.added.get());
+    }
+
+    @Test
+    public void testRetry() throws Exception {
+        StubSolrServer server = new StubSolrServer(2);
+        ApacheLogSolrSender sender = new ApacheLogSolrSender(server, 1, 1);
+        sender.setRetryDelay(1);
+        sender.start();
+
+        sender.send(batch(5));
+        sender.close();
+
+        assertEquals(5, server.added.get());
+    }
+
+    @Test
+    public void testCallback() throws Exception {
+        StubSolrServer server = new StubSolrServer(1);
+        ApacheLogSolrSender sender = new ApacheLogSolrSender(server, 2, 2);
+        sender.setRetryDelay(1);
+        sender.start();
+
+        final AtomicInteger acknowledged = new AtomicInteger();
+        for (int i = 0; i < 10; ++i) {
+            sender.send(batch(3), new ApacheLogSink.Callback() {
+                public void acknowledged() {
+                    acknowledged.incrementAndGet();
+                }
+            });
+        }
+        sender.close();
+
+        assertEquals(10, acknowledged.get());
+        assertEquals(30, server.added.get());
+    }
+
+    @Test(expected = ApacheLogIndexerException.class)
+    public void testFailure() throws Exception {
+        StubSolrServer server = new StubSolrServer(10);
+        ApacheLogSolrSender sender = new ApacheLogSolrSender(server, 1, 1);
+        sender.setRetryDelay(1);
+        sender.setMaxRetries(2);
+        sender.start();
+
+        sender.send(batch(5));
+        sender.close();
+    }
+
+    private List<SolrInputDocument> batch(int size) {
+        List<SolrInputDocument> docs = new ArrayList<SolrInputDocument>(size);
+        for (int i = 0; i < size; ++i) {
+            docs.add(new SolrInputDocument());
+        }
+        return docs;
+    }
+
+    private static class StubSolrServer extends SolrServer {
+        private final AtomicInteger failures;
+        private final AtomicInteger added = new AtomicInteger();
+        private final AtomicInteger commits = new AtomicInteger();
+        private final AtomicInteger commitFailures = new AtomicInteger();
+        private volatile int commitWithin = -1;
+        private volatile CountDownLatch blocked;
+
+        StubSolrServer(int failures) {
+            this.failures = new AtomicInteger(failures);
+        }
+
+        @Override
+        public UpdateResponse add(Collection<SolrInputDocument> docs) throws SolrServerException, IOException {
+            if (blocked != null) {
+                try {
+                    blocked.await();
+                } catch (InterruptedException ex) {
+                    throw new IOException(ex);
+                }
+            }
+            if (failures.getAndDecrement() > 0) {
+                throw new SolrServerException("Solr is down");
+            }
+            added.addAndGet(docs.size());
+            return new UpdateResponse();
+        }
+
+        @Override
+        public UpdateResponse add(Collection<SolrInputDocument> docs, int commitWithin) throws SolrServerException, IOException {
+            this.commitWithin = commitWithin;
+            return add(docs);
+        }
+
+        @Override
+        public UpdateResponse commit(boolean waitFlush, boolean waitSearcher, boolean softCommit) throws SolrServerException {
+            if (commitFailures.getAndDecrement() > 0) {
+                throw new SolrServerException("Solr is busy");
+            }
+            commits.incrementAndGet();
+            return new UpdateResponse();
+        }
+
+        @Override
+        public NamedList<Object> request(SolrRequest request) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void shutdown() {
+        }
+    }
+}
@@ -0,0 +1,214 @@
+package org.apachelog;
+
+import org.apache.commons.compress.compressors.bzip2.BZip2CompressorOutputStream;
+import org.apache.commons.compress.compressors.zstandard.ZstdCompressorOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ApacheLogStreamReaderTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testLineTerminators() throws Exception {
+        String content = "first\nsecond\r\nthird\rfourth\n\nlast";
+        List<String> expected = lines("first", "second", "third", "fourth", "", "last");
+
+        assertEquals(expected, readAll(new ApacheLogStreamReader(new ByteArrayInputStream(content.getBytes(UTF8)), UTF8)));
+        assertEquals(expected, readAll(new ApacheLogStreamReader(new OneByteInputStream(content.getBytes(UTF8)), UTF8)));
+        assertEquals(lines("first", "second"), readAll(new ApacheLogStreamReader(new OneByteInputStream("first\r\nsecond\r\n".getBytes(UTF8)), UTF8)));
+        assertEquals(lines(), readAll(new ApacheLogStreamReader(new ByteArrayInputStream(new byte[0]), UTF8)));
+    }
+
+    @Test
+    public void testPosition() throws Exception {
+        ApacheLogStreamReader reader = new ApacheLogStreamReader(new OneByteInputStream("first\r\nsecond\nthird".getBytes(UTF8)), UTF8);
+        try {
+            assertEquals("first", reader.readLine().toString());
+            assertEquals(7, reader.getPosition());
+            assertEquals("second", reader.readLine().toString());
+            assertEquals(14, reader.getPosition());
+            assertEquals("third", reader.readLine().toString());
+            assertEquals(19, reader.getPosition());
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testLongLines() throws Exception {
+        StringBuilder content = new StringBuilder();
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 5; ++i) {
+            StringBuilder line = new StringBuilder();
+            for (int j = 0; j < 300000 * (i + 1); ++j) {
+                line.append((char) ('a' + (i + j) % 26));
+            }
+            expected.add(line.toString());
+            content.append(line).append('\n');
+        }
+
+        assertEquals(expected, readAll(new ApacheLogStreamReader(new ByteArrayInputStream(content.toString().getBytes(UTF8)), UTF8)));
+    }
+
+    @Test
+    public void testCompressedFiles() throws Exception {
+        StringBuilder content = new StringBuilder();
+        List<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 50000; ++i) {
+            String line = "212.74.15.68 - - [23/Jan/2004:11:36:20 +0000] \"GET /caf\u00e9/" + i + " HTTP/1.1\" 200 2607";
+            expected.add(line);
+            content.append(line).append(i % 3 == 0 ? "\r\n" : "\n");
+        }
+        byte[] bytes = content.toString().getBytes(UTF8);
+
+        File plain = write("access.log", bytes, null);
+        File gzip = write("access.log.gz", bytes, new GZIPOutputStream(new FileOutputStream(new File(folder.getRoot(), "access.log.gz"))));
+        File bzip2 = write("access.log.bz2", bytes, new BZip2CompressorOutputStream(new FileOutputStream(new File(folder.getRoot(), "access.log.bz2"))));
+        File zstd = write("access.log.zst", bytes, new ZstdCompressorOutputStream(new FileOutputStream(new File(folder.getRoot(), "access.log.zst"))));
+
+        assertEquals(ApacheLogCompression.NONE, ApacheLogCompression.detect(plain));
+        assertEquals(ApacheLogCompression.GZIP, ApacheLogCompression.detect(gzip));
+        assertEquals(ApacheLogCompression.BZIP2, ApacheLogCompression.detect(bzip2));
+        assertEquals(ApacheLogCompression.ZSTD, ApacheLogCompression.detect(zstd));
+
+        assertTrue(ApacheLogStreamReader.open(plain, UTF8) instanceof ApacheLogMappedReader);
+        for (File file : new File[] {plain, gzip, bzip2, zstd}) {
+            assertEquals(file.getName(), expected, readAll(ApacheLogStreamReader.open(file, UTF8)));
+            assertEquals(file.getName(), expected, readAll(new ApacheLogStreamReader(file, UTF8)));
+        }
+    }
+
+    @Test
+    public void testConcatenatedGzip() throws Exception {
+        File file = new File(folder.getRoot(), "access.log.gz");
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            for (String part : new String[] {"first\nsec", "ond\n", "third\n"}) {
+                GZIPOutputStream gzip = new GZIPOutputStream(out);
+                gzip.write(part.getBytes(UTF8));
+                gzip.finish();
+            }
+        } finally {
+            out.close();
+        }
+
+        assertEquals(lines("first", "second", "third"), readAll(new ApacheLogStreamReader(file, UTF8)));
+    }
+
+    @Test
+    public void testCorruptFile() throws Exception {
+        byte[] bytes = new byte[100000];
+        for (int i = 0; i < bytes.length; ++i) {
+            bytes[i] = (byte) (i % 10 == 9 ? '\n' : 'a' + i % 10);
+        }
+        File file = write("access.log.gz", bytes, new GZIPOutputStream(new FileOutputStream(new File(folder.getRoot(), "access.log.gz"))));
+        byte[] compressed = Files.readAllBytes(file.toPath());
+        write("access.log.gz", Arrays.copyOf(compressed, compressed.length / 2), null);
+
+        ApacheLogStreamReader reader = new ApacheLogStreamReader(file, UTF8);
+        try {
+            while (reader.readLine() != null) {
+                // read until the error
+            }
+            fail("Should fail on a truncated file");
+        } catch (IOException ex) {
+            // expected
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testReadAhead() throws Exception {
+        byte[] bytes = new byte[100003];
+        for (int i = 0; i < bytes.length; ++i) {
+            bytes[i] = (byte) i;
+        }
+        InputStream in = new ApacheLogReadAheadInputStream(new OneByteInputStream(bytes), 1000, 3);
+        try {
+            byte[] read = new byte[bytes.length];
+            int length = 0;
+            int count;
+            while ((count = in.read(read, length, Math.min(777, read.length - length))) > 0) {
+                length += count;
+            }
+            assertEquals(bytes.length, length);
+            assertEquals(-1, in.read());
+            for (int i = 0; i < bytes.length; ++i) {
+                assertEquals(bytes[i], read[i]);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private File write(String name, byte[] content, OutputStream out) throws Exception {
+        File file = new File(folder.getRoot(), name);
+        if (out == null) {
+            out = new FileOutputStream(file);
+        }
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private List<String> readAll(ApacheLogLineReader reader) throws Exception {
+        List<String> lines = new ArrayList<String>();
+        try {
+            CharSequence line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line.toString());
+            }
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+
+    private List<String> lines(String... lines) {
+        List<String> list = new ArrayList<String>();
+        for (String line : lines) {
+            list.add(line);
+        }
+        return list;
+    }
+
+    /**
+     * Returns at most one byte per read, to go through every buffer boundary
+     */
+    private static class OneByteInputStream extends FilterInputStream {
+        OneByteInputStream(byte[] bytes) {
+            super(new ByteArrayInputStream(bytes));
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return super.read(b, off, Math.min(1, len));
+        }
+    }
+}
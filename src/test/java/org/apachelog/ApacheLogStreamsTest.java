@@ -0,0 +1,180 @@
+package org.apachelog;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ApacheLogStreamsTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ApacheLogParser parser;
+
+    @Before
+    public void setUp() throws Exception {
+        parser = new ApacheLogParser(ApacheLogFormats.get("combined"));
+        parser.setEngine(ApacheLogParser.Engine.TOKENIZER);
+    }
+
+    @Test
+    public void testRecords() throws Exception {
+        File log = new File(folder.getRoot(), "access.log");
+        write(new FileOutputStream(log), lines(0, 1000) + "garbage\n");
+        Stream<ApacheLogRecord> records = ApacheLogStreams.records(log, parser, UTF8);
+        try {
+            List<ApacheLogRecord> list = records.collect(Collectors.<ApacheLogRecord>toList());
+            assertEquals(1000, list.size());
+            // records are not reused
+            assertEquals("GET /images/0.gif HTTP/1.1", list.get(0).getString("%r"));
+            assertEquals("GET /images/999.gif HTTP/1.1", list.get(999).getString("%r"));
+        } finally {
+            records.close();
+        }
+    }
+
+    @Test
+    public void testParallel() throws Exception {
+        File directory = folder.newFolder("logs");
+        write(new FileOutputStream(new File(directory, "a.log")), lines(0, 30000));
+        write(new GZIPOutputStream(new FileOutputStream(new File(directory, "b.log.gz"))), lines(30000, 40000));
+        write(new FileOutputStream(new File(directory, "c.log")), lines(40000, 60000));
+
+        ToLongFunction<ApacheLogRecord> bytes = new ToLongFunction<ApacheLogRecord>() {
+            public long applyAsLong(ApacheLogRecord record) {
+                return Long.parseLong(record.getString("%b"));
+            }
+        };
+        Stream<ApacheLogRecord> records = ApacheLogStreams.records(directory, parser, UTF8);
+        long sequential = records.mapToLong(bytes).sum();
+        records.close();
+        assertEquals(60000L * 59999 / 2, sequential);
+
+        records = ApacheLogStreams.records(directory, parser, UTF8);
+        Map<String, Long> byStatus = records.parallel()
+                .filter(new Predicate<ApacheLogRecord>() {
+                    public boolean test(ApacheLogRecord record) {
+                        return record.getString("%>s").equals("404");
+                    }
+                })
+                .collect(Collectors.groupingBy(new Function<ApacheLogRecord, String>() {
+                    public String apply(ApacheLogRecord record) {
+                        return record.getString("%>s");
+                    }
+                }, Collectors.counting()));
+        records.close();
+        assertEquals(Long.valueOf(6000), byStatus.get("404"));
+
+        records = ApacheLogStreams.records(directory, parser, UTF8);
+        assertEquals(sequential, records.parallel().mapToLong(bytes).sum());
+        records.close();
+    }
+
+    @Test
+    public void testSplit() throws Exception {
+        File log = new File(folder.getRoot(), "access.log");
+        write(new FileOutputStream(log), lines(0, 100000));
+        assertTrue(log.length() > 8 * 1024 * 1024);
+
+        Spliterator<ApacheLogRecord> first = ApacheLogStreams.records(log, parser, UTF8).spliterator();
+        Spliterator<ApacheLogRecord> second = first.trySplit();
+        Spliterator<ApacheLogRecord> third = first.trySplit();
+        Spliterator<ApacheLogRecord> fourth = second.trySplit();
+        assertTrue(Math.abs(first.estimateSize() - second.estimateSize()) < first.estimateSize() / 10);
+
+        final AtomicInteger count = new AtomicInteger();
+        final long[] sum = new long[1];
+        Consumer<ApacheLogRecord> action = new Consumer<ApacheLogRecord>() {
+            public void accept(ApacheLogRecord record) {
+                count.incrementAndGet();
+                sum[0] += Long.parseLong(record.getString("%b"));
+            }
+        };
+        // in order: fourth, second, third, first
+        fourth.tryAdvance(new Consumer<ApacheLogRecord>() {
+            public void accept(ApacheLogRecord record) {
+                assertEquals("GET /images/0.gif HTTP/1.1", record.getString("%r"));
+            }
+        });
+        count.incrementAndGet();
+        fourth.forEachRemaining(action);
+        second.forEachRemaining(action);
+        third.forEachRemaining(action);
+        first.forEachRemaining(action);
+        assertEquals(100000, count.get());
+        assertEquals(100000L * 99999 / 2, sum[0]);
+    }
+
+    @Test
+    public void testFollow() throws Exception {
+        final File log = new File(folder.getRoot(), "access.log");
+        write(new FileOutputStream(log), lines(0, 10));
+        Thread writer = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    for (int i = 10; i < 100; i += 10) {
+                        Thread.sleep(20);
+                        write(new FileOutputStream(log, true), lines(i, i + 10));
+                    }
+                } catch (Exception ex) {
+                    ex.printStackTrace();
+                }
+            }
+        };
+        writer.start();
+        Stream<ApacheLogRecord> records = ApacheLogStreams.follow(log, parser, UTF8, 0);
+        try {
+            assertEquals(99L * 100 / 2, records.limit(100).mapToLong(new ToLongFunction<ApacheLogRecord>() {
+                public long applyAsLong(ApacheLogRecord record) {
+                    return Long.parseLong(record.getString("%b"));
+                }
+            }).sum());
+        } finally {
+            records.close();
+            writer.join();
+        }
+    }
+
+    /**
+     * @return lines with %b set to the line number and a 404 every tenth line
+     */
+    private static String lines(int first, int last) {
+        StringBuilder content = new StringBuilder();
+        for (int i = first; i < last; ++i) {
+            content.append("70.196.196.1 - - [18/Sep/2012:00:00:06 -0600] \"GET /images/").append(i).append(".gif HTTP/1.1\" ")
+                    .append(i % 10 == 0 ? 404 : 200).append(' ').append(i)
+                    .append(" \"-\" \"Mozilla/5.0 (Windows NT 6.1; WOW64) AppleWebKit/537.1 (KHTML, like Gecko)\"\n");
+        }
+        return content.toString();
+    }
+
+    private static void write(OutputStream out, String content) throws Exception {
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package org.apachelog;
+
+import org.apache.solr.common.SolrInputDocument;
+import org.junit.Test;
+
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class ApacheLogStringCacheTest {
+    @Test
+    public void testGet() {
+        ApacheLogStringCache cache = new ApacheLogStringCache(100);
+        assertEquals(128, cache.getCapacity());
+        String first = cache.get(new StringBuilder("Mozilla/5.0"));
+        assertEquals("Mozilla/5.0", first);
+        assertSame(first, cache.get(CharBuffer.wrap("xMozilla/5.0x"), 1, 12));
+        assertSame(first, cache.get("Mozilla/5.0"));
+        assertEquals(2, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertNull(cache.get(null));
+        assertEquals("", cache.get("abc", 1, 1));
+    }
+
+    @Test
+    public void testEviction() {
+        ApacheLogStringCache cache = new ApacheLogStringCache(2);
+        String a = cache.get(new StringBuilder("a"));
+        String b = cache.get(new StringBuilder("b"));
+        // a is the least recently used of the single set
+        assertSame(a, cache.get(new StringBuilder("a")));
+        cache.get(new StringBuilder("c"));
+        assertSame(a, cache.get(new StringBuilder("a")));
+        assertNotSame(b, cache.get(new StringBuilder("b")));
+    }
+
+    @Test
+    public void testMaxLength() {
+        ApacheLogStringCache cache = new ApacheLogStringCache(16, 4);
+        assertNotSame(cache.get(new StringBuilder("abcde")), cache.get(new StringBuilder("abcde")));
+        assertSame(cache.get(new StringBuilder("abcd")), cache.get(new StringBuilder("abcd")));
+    }
+
+    @Test
+    public void testConcurrentGet() throws Exception {
+        final ApacheLogStringCache cache = new ApacheLogStringCache(64);
+        final AtomicInteger errors = new AtomicInteger();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; ++t) {
+            threads.add(new Thread() {
+                public void run() {
+                    for (int i = 0; i < 100000; ++i) {
+                        String value = "value" + (i % 200);
+                        if (!value.equals(cache.get(new StringBuilder(value)))) {
+                            errors.incrementAndGet();
+                        }
+                    }
+                }
+            });
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(0, errors.get());
+        assertEquals(400000, cache.getHits() + cache.getMisses());
+    }
+
+    @Test
+    public void testSharedDocumentValues() throws Exception {
+        ApacheLogParser parser = new ApacheLogParser();
+        parser.parseFormat("%syslog_ti %syslog_ws %syslog_n %{X-Forwarded-For}i %l %u %t %{Host}i \"%r\" %>s %b \"%{Referer}i\" \"%{User-Agent}i\" %D");
+        ApacheLogSolrSink sink = new ApacheLogSolrSink(null);
+        SolrInputDocument[] docs = new SolrInputDocument[2];
+        for (int i = 0; i < docs.length; ++i) {
+            String line = "/var/log/web01/apache.log:2012-09-18T19:24:56-06:00 web01 apache: 70.196.196." + i
+                    + ", 23.57.68.53 - - [18/Sep/2012:00:00:06 -0600] origin-www.backcountry.com \"GET /images/" + i
+                    + ".gif HTTP/1.1\" 404 497 \"-\" \"Mozilla/5.0\" 576";
+            docs[i] = sink.convert(line, parser.parse(line, new ApacheLogRecord()), true);
+        }
+        for (String field : new String[] {"webServer", "host", "method", "protocol", "code", "userAgent"}) {
+            assertSame(field, docs[0].getFieldValue(field), docs[1].getFieldValue(field));
+        }
+        assertEquals("GET", docs[0].getFieldValue("method"));
+        assertEquals("HTTP/1.1", docs[0].getFieldValue("protocol"));
+    }
+}
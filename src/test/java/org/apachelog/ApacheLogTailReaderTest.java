@@ -0,0 +1,117 @@
+package org.apachelog;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ApacheLogTailReaderTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testFollow() throws Exception {
+        File file = folder.newFile("access.log");
+        append(file, "first\nsecond\r\nthi");
+        ApacheLogTailReader reader = new ApacheLogTailReader(file, UTF8);
+
+        try {
+            assertEquals("first", readLine(reader));
+            assertEquals("second", readLine(reader));
+            assertNull(readLine(reader));
+            assertEquals(14, reader.getPosition());
+
+            append(file, "rd\nfourth\n");
+            assertEquals("third", readLine(reader));
+            assertEquals("fourth", readLine(reader));
+            assertNull(readLine(reader));
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testTruncate() throws Exception {
+        File file = folder.newFile("access.log");
+        append(file, "first\nsecond\n");
+        ApacheLogTailReader reader = new ApacheLogTailReader(file, UTF8);
+
+        try {
+            assertEquals("first", readLine(reader));
+            assertEquals("second", readLine(reader));
+
+            RandomAccessFile truncated = new RandomAccessFile(file, "rw");
+            truncated.setLength(0);
+            truncated.close();
+            append(file, "new\n");
+
+            assertEquals("new", readLine(reader));
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testRotate() throws Exception {
+        File file = folder.newFile("access.log");
+        append(file, "first\n");
+        ApacheLogTailReader reader = new ApacheLogTailReader(file, UTF8);
+
+        try {
+            assertEquals("first", readLine(reader));
+            Object fileKey = reader.getFileKey();
+
+            append(file, "last of old\n");
+            assertTrue(file.renameTo(new File(folder.getRoot(), "access.log.1")));
+            append(file, "first of new\n");
+
+            assertEquals("last of old", readLine(reader));
+            assertEquals("first of new", readLine(reader));
+            if (fileKey != null) {
+                assertTrue(!fileKey.equals(reader.getFileKey()));
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    @Test
+    public void testStartPosition() throws Exception {
+        File file = folder.newFile("access.log");
+        append(file, "old\n");
+        ApacheLogTailReader reader = new ApacheLogTailReader(file, UTF8, file.length());
+
+        try {
+            assertNull(readLine(reader));
+            append(file, "new\n");
+            assertEquals("new", readLine(reader));
+        } finally {
+            reader.close();
+        }
+    }
+
+    private String readLine(ApacheLogTailReader reader) throws Exception {
+        CharSequence line = reader.readLine(300, TimeUnit.MILLISECONDS);
+        return line == null ? null : line.toString();
+    }
+
+    private void append(File file, String content) throws Exception {
+        FileOutputStream out = new FileOutputStream(file, true);
+        try {
+            out.write(content.getBytes(UTF8));
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package org.apachelog;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ApacheLogTimeIndexTest {
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private ApacheLogParser parser;
+    private ApacheLogTimestampParser timestampParser = new ApacheLogTimestampParser();
+    private long start;
+
+    @Before
+    public void setUp() throws Exception {
+        parser = new ApacheLogParser();
+        parser.parseFormat("%h %l %u %t \"%r\" %>s %b \"%{Referer}i\" \"%{User-Agent}i\"");
+        start = timestampParser.parseApacheTime("[18/Sep/2012:00:00:00 -0600]");
+    }
+
+    @Test
+    public void testFind() throws Exception {
+        File log = new File(folder.getRoot(), "access.log");
+        write(log, lines(0, 20000), false);
+        File indexFile = ApacheLogTimeIndex.getIndexFile(log);
+        ApacheLogTimeIndex index = ApacheLogTimeIndex.open(indexFile);
+        index.update(log, parser, UTF8);
+        index.save(indexFile);
+        assertTrue(indexFile.length() < log.length() / 100);
+
+        index = ApacheLogTimeIndex.open(indexFile);
+        assertEquals(log.length(), index.getIndexedLength());
+        long from = start + 10 * 60000;
+        long to = start + 13 * 60000;
+        long[] ranges = index.find(from, to);
+        assertEquals(300, count(log, ranges, from, to, -1));
+        assertTrue(length(ranges) < log.length() / 10);
+
+        // the lines of minute 50 are the only 500s
+        ranges = index.find(start, start + 200 * 60000, 500);
+        assertEquals(100, count(log, ranges, start, start + 200 * 60000, 500));
+        assertTrue(length(ranges) < log.length() / 50);
+
+        assertEquals(0, index.find(start + 10 * 60000, start + 13 * 60000, 302).length);
+        assertEquals(0, index.find(start - 60000, start).length);
+        assertEquals(0, index.find(to, from).length);
+    }
+
+    @Test
+    public void testUpdate() throws Exception {
+        File log = new File(folder.getRoot(), "access.log");
+        File indexFile = ApacheLogTimeIndex.getIndexFile(log);
+        write(log, lines(0, 12345), false);
+        ApacheLogTimeIndex index = ApacheLogTimeIndex.open(indexFile);
+        index.update(log, parser, UTF8);
+        index.save(indexFile);
+
+        write(log, lines(12345, 20000), true);
+        index = ApacheLogTimeIndex.open(indexFile);
+        index.update(log, parser, UTF8);
+        index.save(indexFile);
+        index = ApacheLogTimeIndex.open(indexFile);
+
+        File copy = new File(folder.getRoot(), "copy.log");
+        write(copy, lines(0, 20000), false);
+        ApacheLogTimeIndex full = ApacheLogTimeIndex.open(ApacheLogTimeIndex.getIndexFile(copy));
+        full.update(copy, parser, UTF8);
+        assertEquals(full.getBlockCount(), index.getBlockCount());
+        assertEquals(full.getIndexedLength(), index.getIndexedLength());
+        for (int minute = 0; minute < 200; minute += 7) {
+            long from = start + minute * 60000L;
+            assertArrayEquals(full.find(from, from + 60000), index.find(from, from + 60000));
+            assertArrayEquals(full.find(from, from + 60000, 500), index.find(from, from + 60000, 500));
+        }
+
+        // a rotated log is indexed again from the start
+        write(log, lines(0, 100), false);
+        index.update(log, parser, UTF8);
+        assertEquals(log.length(), index.getIndexedLength());
+        assertEquals(100, count(log, index.find(start, start + 60000), start, start + 60000, -1));
+    }
+
+    @Test
+    public void testRotatedToLargerFile() throws Exception {
+        File log = new File(folder.getRoot(), "access.log");
+        File indexFile = ApacheLogTimeIndex.getIndexFile(log);
+        write(log, lines(18, 0, 5000), false);
+        ApacheLogTimeIndex index = ApacheLogTimeIndex.open(indexFile);
+        index.update(log, parser, UTF8);
+        index.save(indexFile);
+
+        // the next day's log replaces it and is already larger than what was indexed
+        write(log, lines(19, 0, 6000), false);
+        index = ApacheLogTimeIndex.open(indexFile);
+        index.update(log, parser, UTF8);
+        index.save(indexFile);
+        index = ApacheLogTimeIndex.open(indexFile);
+
+        long day = start + 24 * 60 * 60000L;
+        long[] ranges = index.find(day, day + 24 * 60 * 60000L);
+        assertEquals(6000, count(log, ranges, day, day + 24 * 60 * 60000L, -1));
+        assertEquals(log.length(), length(ranges));
+        assertEquals(0, index.find(start, start + 24 * 60 * 60000L).length);
+    }
+
+    @Test
+    public void testOutOfOrder() throws Exception {
+        File log = new File(folder.getRoot(), "access.log");
+        // a line logged late, after a minute of other lines, and one that can't be parsed
+        String late = lines(1000, 1001);
+        write(log, lines(0, 5000) + "garbage\n" + late, false);
+        ApacheLogTimeIndex index = ApacheLogTimeIndex.open(ApacheLogTimeIndex.getIndexFile(log));
+        index.setMinBlockSize(1024);
+        index.update(log, parser, UTF8);
+        long from = start + 10 * 60000;
+        assertEquals(101, count(log, index.find(from, from + 60000), from, from + 60000, -1));
+        assertEquals(0, index.find(start + 60 * 60000, start + 61 * 60000).length);
+    }
+
+    /**
+     * @return lines from first to last, 100 per minute, with 500s in minute 50 and 200s otherwise
+     */
+    private String lines(int first, int last) {
+        return lines(18, first, last);
+    }
+
+    /**
+     * @return the lines of a day of September 2012
+     */
+    private String lines(int day, int first, int last) {
+        StringBuilder content = new StringBuilder();
+        for (int i = first; i < last; ++i) {
+            int minute = i / 100;
+            int second = i % 100 * 3 / 5;
+            content.append("70.196.196.1 - - [").append(day).append("/Sep/2012:0").append(minute / 60).append(':')
+                    .append(minute % 60 < 10 ? "0" : "").append(minute % 60).append(second < 10 ? ":0" : ":")
+                    .append(second).append(" -0600] \"GET /images/").append(i).append(".gif HTTP/1.1\" ")
+                    .append(minute == 50 ? 500 : 200).append(" 497 \"-\" \"Mozilla/5.0 (Windows NT 6.1)\"\n");
+        }
+        return content.toString();
+    }
+
+    /**
+     * @return the lines in the ranges within the time range, with the status if it isn't -1
+     */
+    private int count(File log, long[] ranges, long from, long to, int status) throws Exception {
+        ApacheLogRecord record = new ApacheLogRecord();
+        int count = 0;
+        for (int i = 0; i < ranges.length; i += 2) {
+            ApacheLogMappedReader in = new ApacheLogMappedReader(log, UTF8, ranges[i], ranges[i + 1]);
+            try {
+                ApacheLogByteLine line;
+                while ((line = in.readLine()) != null) {
+                    if (!parser.tryParse(line, record)) {
+                        continue;
+                    }
+                    long time = timestampParser.parseApacheTime(record.get("%t"));
+                    if (time >= from && time < to && (status == -1 || record.getString("%>s").equals(String.valueOf(status)))) {
+                        ++count;
+                    }
+                }
+            } finally {
+                in.close();
+            }
+        }
+        return count;
+    }
+
+    private static long length(long[] ranges) {
+        long length = 0;
+        for (int i = 0; i < ranges.length; i += 2) {
+            length += ranges[i + 1] - ranges[i];
+        }
+        return length;
+    }
+
+    private void write(File file, String content, boolean append) throws Exception {
+        OutputStream out = new FileOutputStream(file, append);
+        try {
+            out.write(content.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+}
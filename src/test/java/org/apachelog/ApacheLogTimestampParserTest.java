@@ -0,0 +1,88 @@
+package org.apachelog;
+
+import org.junit.Test;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class ApacheLogTimestampParserTest {
+    private ApacheLogTimestampParser parser = new ApacheLogTimestampParser();
+
+    @Test
+    public void testApacheTime() throws Exception {
+        SimpleDateFormat format = new SimpleDateFormat("[dd/MMM/yyyy:HH:mm:ss Z]", Locale.ENGLISH);
+
+        assertEquals(format.parse("[18/Sep/2012:00:00:06 -0600]").getTime(), parser.parseApacheTime("[18/Sep/2012:00:00:06 -0600]"));
+        assertEquals(format.parse("[18/Sep/2012:00:00:59 -0600]").getTime(), parser.parseApacheTime("[18/Sep/2012:00:00:59 -0600]"));
+        assertEquals(format.parse("[18/Sep/2012:00:01:00 -0600]").getTime(), parser.parseApacheTime("[18/Sep/2012:00:01:00 -0600]"));
+        assertEquals(format.parse("[18/Sep/2012:00:01:00 +0530]").getTime(), parser.parseApacheTime("[18/Sep/2012:00:01:00 +0530]"));
+        assertEquals(format.parse("[29/Feb/2000:23:59:59 +0000]").getTime(), parser.parseApacheTime("[29/feb/2000:23:59:59 +0000]"));
+        assertEquals(format.parse("[01/Jan/1969:00:00:00 +0000]").getTime(), parser.parseApacheTime("[01/Jan/1969:00:00:00 +0000]"));
+    }
+
+    @Test
+    public void testSyslogTime() throws Exception {
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssZ", Locale.ENGLISH);
+
+        assertEquals(format.parse("2012-09-18T19:24:56-0600").getTime(), parser.parseSyslogTime("2012-09-18T19:24:56-06:00"));
+        assertEquals(format.parse("2012-09-18T19:24:57-0600").getTime(), parser.parseSyslogTime("/var/log/mywebserv/09/18/19/apache.log:2012-09-18T19:24:57-06:00"));
+        assertEquals(format.parse("2012-09-18T19:24:57-0600").getTime(), parser.parseSyslogTime("2012-09-18T19:24:57-0600"));
+        assertEquals(format.parse("2012-09-18T19:24:57+0000").getTime() + 120, parser.parseSyslogTime("2012-09-18T19:24:57.12Z"));
+        assertEquals(format.parse("2012-09-18T19:24:57+0000").getTime() + 123, parser.parseSyslogTime("2012-09-18T19:24:57.123456Z"));
+    }
+
+    @Test
+    public void testRandomTimes() throws Exception {
+        SimpleDateFormat apache = new SimpleDateFormat("[dd/MMM/yyyy:HH:mm:ss Z]", Locale.ENGLISH);
+        SimpleDateFormat syslog = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ssXXX", Locale.ENGLISH);
+        String[] zones = {"UTC", "America/Denver", "Asia/Kolkata", "Pacific/Chatham"};
+        Random random = new Random(42);
+        long time = 946684800000L;
+
+        for (int i = 0; i < 20000; ++i) {
+            // mostly increasing times like in a log, sometimes a jump
+            time += random.nextInt(10) == 0 ? random.nextInt(1000000000) : random.nextInt(3000);
+            time -= time % 1000;
+            TimeZone zone = TimeZone.getTimeZone(zones[random.nextInt(10) == 0 ? random.nextInt(zones.length) : 0]);
+            apache.setTimeZone(zone);
+            syslog.setTimeZone(zone);
+
+            String text = apache.format(new Date(time));
+            assertEquals(text, time, parser.parseApacheTime(text));
+            text = syslog.format(new Date(time));
+            assertEquals(text, time, parser.parseSyslogTime(text));
+        }
+    }
+
+    @Test
+    public void testInvalid() {
+        String[] apacheTimes = {"", "-", "[18/Sep/2012:00:00:06]", "[18/Sep/2012:00:00:06 -0600", "[18/Sip/2012:00:00:06 -0600]",
+                "[18/Sep/2012 00:00:06 -0600]", "[18/Sep/2012:0a:00:06 -0600]", "[18/Sep/2012:00:00:06 06000]", "[32/Sep/2012:00:00:06 -0600]"};
+        for (String text : apacheTimes) {
+            try {
+                parser.parseApacheTime(text);
+                fail("Should not parse " + text);
+            } catch (ParseException ex) {
+                // expected
+            }
+        }
+
+        String[] syslogTimes = {"", "2012-09-18", "2012-09-18T19:24:56", "2012-09-18T19:24:56-06", "2012-09-18T19:24:56.Z",
+                "2012-09-18 19:24:56-06:00", "2012-13-18T19:24:56-06:00", "2012-09-18T19:24:56-06:00x"};
+        for (String text : syslogTimes) {
+            try {
+                parser.parseSyslogTime(text);
+                fail("Should not parse " + text);
+            } catch (ParseException ex) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package org.apachelog;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ApacheLogTokenizerTest {
+    private static final String[] FORMATS = {
+        "%h %l %u %t \"%r\" %>s %b \"%{Referer}i\" \"%{User-Agent}i\"",
+        "%{X-Forwarded-For}i %l %u %t %{Host}i \"%r\" %>s %b \"%{Referer}i\" \"%{User-Agent}i\" %D",
+        "%syslog_ti %syslog_ws %syslog_n %{X-Forwarded-For}i %l %u %t %{Host}i \"%r\" %>s %b \"%{Referer}i\" \"%{User-Agent}i\" %D",
+        "%syslog_ti %syslog_ws %syslog_n %_",
+        "%h \"%q\" %U %t %_ %b",
+        "%{X-Forwarded-For}i %{X-Forwarded-For}i %U",
+        "%h \"%r\" %t \"%q\"",
+        "\"%r\" %h"
+    };
+
+    private static final String[] LINES = {
+        "212.74.15.68 - - [23/Jan/2004:11:36:20 +0000] \"GET /images/previous.png HTTP/1.1\" 200 2607 \"http://peterhi.dyndns.org/bandwidth/index.html\" \"Mozilla/5.0 (X11; U; Linux i686; en-US; rv:1.2) Gecko/20021202\"",
+        "212.74.15.68 - - [23/Jan/2004:11:36:20 +0000] \"GET /images/previous.png=\\\" HTTP/1.1\" 200 2607 \"http://peterhi.dyndns.org/bandwidth/index.html\" \"Mozilla/5.0 (X11; U; Linux i686; en-US; rv:1.2) Gecko/20021202\"",
+        "4.224.234.46 - - [20/Jul/2004:13:18:55 -0700] \"GET /core/listing/pl_boat_detail.jsp?&units=Feet HTTP/1.1\" 200 2888 \"http://search.yahoo.com/bin/search?p=\\\"grady%20white%20306%20bimini\\\"\" \"Mozilla/4.0 (compatible; MSIE 6.0; Windows 98; YPC 3.0.3; yplus 4.0.00d)\"",
+        "70.196.196.64, 23.57.68.53 - - [18/Sep/2012:00:00:06 -0600] origin-www.backcountry.com \"GET /images/promos/wm300x250_01.gif HTTP/1.1\" 404 497 \"-\" \"Mozilla/5.0 (Linux; U; Android 4.0.4; en-us)\" 576",
+        "/var/log/mywebserv/09/18/19/apache.log:2012-09-18T19:24:56-06:00 mywebserv apache: 70.196.196.64, 23.57.68.53, 127.0.0.1 - - [18/Sep/2012:00:00:06 -0600] origin-www.backcountry.com \"GET /images/promos/wm300x250_01.gif HTTP/1.1\" 404 497 \"-\" \"Mozilla/5.0\" 576",
+        "/var/log/mywebserv/09/18/19/apache.log:2012-09-18T19:24:56-06:00 mywebserv apache: 70.196.196.64, 23.57.68.53, 127.0.0.1 - - [18/Sep/2012:00:00:06 -0600]",
+        "  212.74.15.68 - - [23/Jan/2004:11:36:20 +0000] \"GET / HTTP/1.1\" 200 2607 \"-\" \"-\"\t ",
+        "212.74.15.68 - - [] \"GET / HTTP/1.1\" 200 2607 \"-\" \"-\"",
+        "212.74.15.68 - - [23/Jan/2004:11:36:20 +0000] \"GET / HTTP/1.1 200 2607 \"-\" \"-\"",
+        "a, - - [x] host \"r\" 200 1 \"-\" \"-\" 5",
+        "a b c",
+        "a b c ",
+        "",
+        "1.2.3.4 \"q\" /a b [t] rest of the line 10"
+    };
+
+    private ApacheLogParser[] regexParsers = new ApacheLogParser[FORMATS.length];
+    private ApacheLogParser[] tokenizerParsers = new ApacheLogParser[FORMATS.length];
+
+    @Before
+    public void setup() throws Exception {
+        for (int i = 0; i < FORMATS.length; ++i) {
+            regexParsers[i] = new ApacheLogParser();
+            regexParsers[i].parseFormat(FORMATS[i]);
+            tokenizerParsers[i] = new ApacheLogParser();
+            tokenizerParsers[i].setEngine(ApacheLogParser.Engine.TOKENIZER);
+            tokenizerParsers[i].parseFormat(FORMATS[i]);
+        }
+    }
+
+    @Test
+    public void testSameFields() {
+        for (String line : LINES) {
+            for (int i = 0; i < FORMATS.length; ++i) {
+                assertSameResult(regexParsers[i], tokenizerParsers[i], line);
+            }
+        }
+    }
+
+    @Test
+    public void testOptionalField() throws Exception {
+        Map<String, String> fields = tokenizerParsers[4].parse("1.2.3.4 \"q\" /a [t]  10");
+
+        assertEquals("/a", fields.get("%U"));
+        assertNull(fields.get("%_"));
+        assertEquals("10", fields.get("%b"));
+    }
+
+    @Test
+    public void testRandomLines() {
+        Random random = new Random(42);
+        String[] tokens = {"a", "1.2", "-", " ", " ", ", ", ",", "\"", "\\", "\\\"", "[", "]", "[t]", "\"x y\"", "\t", "\r", "\u0085", "\u2028"};
+
+        for (int n = 0; n < 20000; ++n) {
+            StringBuilder line = new StringBuilder();
+            int length = random.nextInt(30);
+            for (int i = 0; i < length; ++i) {
+                line.append(tokens[random.nextInt(tokens.length)]);
+            }
+            for (int i = 0; i < FORMATS.length; ++i) {
+                assertSameResult(regexParsers[i], tokenizerParsers[i], line.toString());
+            }
+        }
+    }
+
+    @Test
+    public void testMultiByteCharacters() throws Exception {
+        // UTF-8 bytes of \u00c5 and \u2026 include 0x85, the byte of the NEL line terminator in Latin-1
+        String line = "1.2.3.4 \"q\" /\u00c5ngstr\u00f6m [t] wait\u2026 10";
+        byte[] bytes = line.getBytes("UTF-8");
+        ApacheLogByteLine byteLine = new ApacheLogByteLine(ByteBuffer.wrap(bytes), 0, bytes.length, Charset.forName("UTF-8"));
+        for (ApacheLogParser parser : new ApacheLogParser[] {regexParsers[4], tokenizerParsers[4]}) {
+            ApacheLogRecord record = parser.parse(byteLine, new ApacheLogRecord());
+            assertEquals("/\u00c5ngstr\u00f6m", record.getString("%U"));
+            assertEquals("wait\u2026", record.getString("%_"));
+        }
+    }
+
+    @Test
+    public void testProjection() throws Exception {
+        List<String> projection = Arrays.asList("%h", "%t", "%r", "%syslog_ti", "%U");
+        ApacheLogParser[] regexProjected = new ApacheLogParser[FORMATS.length];
+        ApacheLogParser[] tokenizerProjected = new ApacheLogParser[FORMATS.length];
+        for (int i = 0; i < FORMATS.length; ++i) {
+            regexProjected[i] = new ApacheLogParser();
+            regexProjected[i].setProjection(projection);
+            regexProjected[i].parseFormat(FORMATS[i]);
+            tokenizerProjected[i] = new ApacheLogParser();
+            tokenizerProjected[i].setEngine(ApacheLogParser.Engine.TOKENIZER);
+            tokenizerProjected[i].setProjection(projection);
+            tokenizerProjected[i].parseFormat(FORMATS[i]);
+        }
+
+        for (String line : LINES) {
+            for (int i = 0; i < FORMATS.length; ++i) {
+                assertSameResult(regexProjected[i], tokenizerProjected[i], line);
+            }
+            // no backtracking in these formats, the projected fields are the same as in a full parse
+            for (int i = 0; i < 3; ++i) {
+                try {
+                    Map<String, String> expected = new HashMap<String, String>(regexParsers[i].parse(line));
+                    expected.keySet().retainAll(projection);
+                    assertEquals(expected, tokenizerProjected[i].parse(line));
+                } catch (ApacheLogParserException ex) {
+                    // the projection may still accept a line with a broken tail
+                }
+            }
+        }
+
+        Random random = new Random(7);
+        String[] tokens = {"a", "1.2", "-", " ", " ", ", ", ",", "\"", "\\\"", "[t]", "\"x y\""};
+        for (int n = 0; n < 5000; ++n) {
+            StringBuilder line = new StringBuilder();
+            int length = random.nextInt(30);
+            for (int i = 0; i < length; ++i) {
+                line.append(tokens[random.nextInt(tokens.length)]);
+            }
+            for (int i = 0; i < FORMATS.length; ++i) {
+                assertSameResult(regexProjected[i], tokenizerProjected[i], line.toString());
+            }
+        }
+
+        ApacheLogRecord record = tokenizerProjected[0].parse("212.74.15.68 - - [23/Jan/2004:11:36:20 +0000] \"GET / HTTP/1.1\" not a status", new ApacheLogRecord());
+        assertEquals(3, record.size());
+        assertEquals("GET / HTTP/1.1", record.getString("%r"));
+        assertNull(record.getString("%>s"));
+        assertTrue(tokenizerProjected[0].getPattern().pattern().contains("(?:\\S*)"));
+    }
+
+    private void assertSameResult(ApacheLogParser regexParser, ApacheLogParser tokenizerParser, String line) {
+        Map<String, String> expected = null;
+        Map<String, String> actual = null;
+
+        try {
+            expected = regexParser.parse(line);
+        } catch (ApacheLogParserException ex) {
+            // expected stays null
+        }
+        try {
+            actual = tokenizerParser.parse(line);
+        } catch (ApacheLogParserException ex) {
+            if (expected != null) {
+                fail("Tokenizer failed to parse '" + line + "'");
+            }
+        }
+        assertEquals("Different fields for '" + line + "'", expected, actual);
+    }
+}